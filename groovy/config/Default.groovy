@@ -24,6 +24,33 @@ System {
     // Size of the chunk cache
     chunkCacheSize = 1024 + 512
 
+    // Estimated memory budget of the chunk cache in MB, covering voxel data and CPU-side mesh data (0 only limits the amount of chunks)
+    chunkCacheBudget = 0
+
+    // Format used to persist chunks: "region" (32x32 chunks per file) or "file" (one file per chunk)
+    chunkStorage = "region"
+
+    // Maximum amount of chunks waiting to be written by the background saver
+    chunkSaveQueueSize = 256
+
+    // Amount of evicted chunks kept for reuse
+    chunkPoolSize = 64
+
+    // Block changes are journaled and synced to the disk every x ms, so they survive a crash (0 disables the journal)
+    journalSyncInterval = 500
+
+    // Interval in ms in which modified chunks are saved and the journal is compacted
+    snapshotInterval = 60000
+
+    // Amount of chunks the prefetcher looks ahead of the moving player (0 disables prefetching)
+    chunkPrefetchDistance = 3
+
+    // Maximum amount of prefetched chunks the player has not reached yet
+    maxPrefetchedChunks = 128
+
+    // Store the voxel data of chunks in pooled direct buffers instead of on the Java heap
+    offHeapChunkStorage = false
+
     Debug {
 
         debug = false
@@ -120,6 +147,12 @@ World {
     dayNightLengthInMs = new Long((60 * 1000) * 20) // 20 minutes in ms
     initialTimeOffsetInMs = new Long(60 * 1000) // 120 seconds in ms
 
+    // Codec used to compress the chunks of new worlds: NONE, DEFLATE or RLE_DEFLATE
+    chunkCodec = "RLE_DEFLATE"
+
+    // Persist only the differences to the terrain generated from the seed in new worlds
+    deltaChunkStorage = false
+
     Biomes {
 
         Forest {
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2011 Benjamin Glatzel <benjamin.glatzel@me.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.game;
+
+import org.terasology.logic.world.Chunk;
+import org.terasology.logic.world.LightPropagator;
+import org.terasology.logic.world.LocalWorldProvider;
+import org.terasology.rendering.primitives.ChunkTessellator;
+
+import java.io.File;
+import java.util.ArrayList;
+
+/**
+ * Simple benchmark measuring the block and light access heavy parts of the engine: light propagation
+ * and the tessellation of chunks.
+ *
+ * @author Benjamin Glatzel <benjamin.glatzel@me.com>
+ */
+public class ChunkAccessBenchmark {
+
+    /* CONST */
+    private static final int WORLD_SIZE = 1;
+    private static final int ROUNDS = 3;
+    private static final int LIGHT_SOURCES = 200;
+
+    private final LocalWorldProvider _worldProvider;
+    private final ArrayList<Chunk> _chunks = new ArrayList<Chunk>();
+
+    public ChunkAccessBenchmark(LocalWorldProvider worldProvider) {
+        _worldProvider = worldProvider;
+
+        // Generate the chunks and their neighbors up front, so generation is not measured
+        for (int x = -WORLD_SIZE - 1; x <= WORLD_SIZE + 1; x++) {
+            for (int z = -WORLD_SIZE - 1; z <= WORLD_SIZE + 1; z++) {
+                Chunk c = _worldProvider.getChunkProvider().loadOrCreateChunk(x, z);
+                c.generate();
+
+                if (Math.abs(x) <= WORLD_SIZE && Math.abs(z) <= WORLD_SIZE)
+                    _chunks.add(c);
+            }
+        }
+    }
+
+    public static void main(String[] args) {
+        // A fresh title, so no chunks of earlier runs are loaded from disk
+        LocalWorldProvider worldProvider = new LocalWorldProvider("Benchmark" + System.nanoTime(), "Terasology42");
+        ChunkAccessBenchmark benchmark = new ChunkAccessBenchmark(worldProvider);
+
+        // The first rounds warm up the JIT
+        for (int round = 0; round < ROUNDS; round++) {
+            double light = benchmark.benchmarkLight();
+            double tessellation = benchmark.benchmarkTessellation();
+
+            System.out.printf("round %d: add/remove light %.1f ms, tessellation %.1f ms\n", round + 1, light, tessellation);
+        }
+
+        // The world is only needed for this run
+        worldProvider.dispose();
+        delete(new File(worldProvider.getWorldSavePath()));
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+
+        if (children != null) {
+            for (File child : children)
+                delete(child);
+        }
+
+        file.delete();
+    }
+
+    /**
+     * Spreads and removes the light of block light sources placed in the air above the terrain.
+     *
+     * @return The time taken in ms
+     */
+    public double benchmarkLight() {
+        int range = WORLD_SIZE * Chunk.CHUNK_DIMENSION_X;
+
+        long start = System.nanoTime();
+
+        for (int i = 0; i < LIGHT_SOURCES; i++) {
+            // Deterministic positions, so every round does the same work
+            int x = (i * 7919) % (2 * range) - range;
+            int z = (i * 104729) % (2 * range) - range;
+            int y = Math.min(_worldProvider.getSurfaceHeight(x, z) + 2, Chunk.CHUNK_DIMENSION_Y - 1);
+
+            LightPropagator propagator = new LightPropagator(_worldProvider, Chunk.LIGHT_TYPE.BLOCK, x, z);
+            propagator.addLight(x, y, z, (byte) 15);
+            propagator.propagate();
+            propagator.removeLight(x, y, z);
+            propagator.propagate();
+        }
+
+        return (System.nanoTime() - start) / 1000000.0;
+    }
+
+    /**
+     * Generates the meshes of all chunks.
+     *
+     * @return The time taken in ms
+     */
+    public double benchmarkTessellation() {
+        long start = System.nanoTime();
+
+        for (Chunk c : _chunks) {
+            ChunkTessellator tessellator = new ChunkTessellator(c);
+
+            for (int i = 0; i < Chunk.VERTICAL_SEGMENTS; i++)
+                tessellator.generateMesh(Chunk.CHUNK_DIMENSION_Y / Chunk.VERTICAL_SEGMENTS, i * (Chunk.CHUNK_DIMENSION_Y / Chunk.VERTICAL_SEGMENTS));
+        }
+
+        return (System.nanoTime() - start) / 1000000.0;
+    }
+}
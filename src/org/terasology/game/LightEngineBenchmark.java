@@ -0,0 +1,78 @@
+/*
+ * Copyright 2011 Benjamin Glatzel <benjamin.glatzel@me.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.game;
+
+import java.util.List;
+
+/**
+ * Benchmark of the light engine: applies the edits of the synthetic worlds through the world provider,
+ * once edit by edit and once within an edit transaction, and reverts them again. Reports the time taken
+ * per voxel whose light changed and finally compares the light with the reference solver.
+ *
+ * @author Benjamin Glatzel <benjamin.glatzel@me.com>
+ */
+public class LightEngineBenchmark {
+
+    /* CONST */
+    private static final int WORLD_RADIUS = 1;
+    private static final int ROUNDS = 3;
+
+    public static void main(String[] args) {
+        for (SyntheticWorld.TERRAIN_TYPE type : SyntheticWorld.TERRAIN_TYPE.values()) {
+            SyntheticWorld world = new SyntheticWorld(type, WORLD_RADIUS);
+            List<SyntheticWorld.Edit> edits = world.createEdits();
+
+            System.out.printf("%s (%d edits)\n", type, edits.size());
+
+            // The first rounds warm up the JIT
+            for (int round = 0; round < ROUNDS; round++) {
+                for (boolean transaction : new boolean[]{false, true}) {
+                    List<SyntheticWorld.Edit> undo = benchmarkEdits(world, edits, transaction, "place", round);
+                    benchmarkEdits(world, undo, transaction, "revert", round);
+                }
+            }
+
+            List<SyntheticWorld.Edit> undo = world.apply(edits, false);
+            int placed = world.countMismatches();
+            world.apply(undo, false);
+            int reverted = world.countMismatches();
+
+            System.out.printf("  reference solver: %d mismatches after placing, %d after reverting\n", placed, reverted);
+
+            world.dispose();
+        }
+    }
+
+    /**
+     * Applies the given edits and prints the time taken per relit voxel.
+     *
+     * @return The edits restoring the previous blocks
+     */
+    private static List<SyntheticWorld.Edit> benchmarkEdits(SyntheticWorld world, List<SyntheticWorld.Edit> edits, boolean transaction, String name, int round) {
+        byte[] before = world.captureLight();
+
+        long start = System.nanoTime();
+        List<SyntheticWorld.Edit> undo = world.apply(edits, transaction);
+        long time = System.nanoTime() - start;
+
+        int relit = SyntheticWorld.countChanges(before, world.captureLight());
+
+        System.out.printf("  round %d: %s %s: %.1f ms, %d relit voxels, %.0f ns per relit voxel\n", round + 1, name,
+                transaction ? "in one transaction" : "edit by edit", time / 1000000.0, relit, relit > 0 ? (double) time / relit : 0.0);
+
+        return undo;
+    }
+}
@@ -0,0 +1,383 @@
+/*
+ * Copyright 2011 Benjamin Glatzel <benjamin.glatzel@me.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.game;
+
+import org.terasology.logic.generators.ChunkGenerator;
+import org.terasology.logic.generators.GeneratorManager;
+import org.terasology.logic.world.Chunk;
+import org.terasology.logic.world.ChunkBatch;
+import org.terasology.logic.world.LightReferenceSolver;
+import org.terasology.logic.world.LocalWorldProvider;
+import org.terasology.model.blocks.BlockManager;
+import org.terasology.utilities.FastRandom;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A small world made of simple, reproducible terrain instead of the regular generators. Every terrain
+ * type comes with a set of edits the light engine has to handle: digging pits, placing torches, opening
+ * shafts into caves and breaking windows. Used to test and benchmark the light engine.
+ * <p/>
+ * The chunks within the given radius around the origin are the ones which get edited. They are surrounded
+ * by a ring of lit chunks, which are in turn surrounded by a ring of generated chunks, like the chunks
+ * around the player.
+ *
+ * @author Benjamin Glatzel <benjamin.glatzel@me.com>
+ */
+public final class SyntheticWorld {
+
+    public enum TERRAIN_TYPE {
+        PLAINS, CAVES, TORCH_GRID
+    }
+
+    /**
+     * A single block change.
+     */
+    public static final class Edit {
+        public final int x, y, z;
+        public final byte type;
+
+        public Edit(int x, int y, int z, byte type) {
+            this.x = x;
+            this.y = y;
+            this.z = z;
+            this.type = type;
+        }
+    }
+
+    /* CONST */
+    private static final int PLAINS_HEIGHT = 64;
+    private static final int PIT_SIZE = 6;
+
+    private static final int PLATEAU_HEIGHT = 96;
+    private static final int LAVA_HEIGHT = 16;
+    private static final int CAVE_TORCHES = 16;
+
+    private static final int HALL_FLOOR = 40;
+    private static final int HALL_ROOF = 56;
+    private static final int WINDOW_SPACING = 8;
+    private static final int TORCH_SPACING = 4;
+
+    private final TERRAIN_TYPE _type;
+    private final int _radius;
+    private final LocalWorldProvider _worldProvider;
+    private final ArrayList<Chunk> _litChunks = new ArrayList<Chunk>();
+
+    private final byte _air, _stone, _grass, _glass, _lava, _torch;
+
+    /**
+     * Generates and lights a new synthetic world.
+     *
+     * @param type   The terrain of the world
+     * @param radius The radius of the edited area in chunks
+     */
+    public SyntheticWorld(TERRAIN_TYPE type, int radius) {
+        _type = type;
+        _radius = radius;
+
+        _air = BlockManager.getInstance().getBlock("Air").getId();
+        _stone = BlockManager.getInstance().getBlock("Stone").getId();
+        _grass = BlockManager.getInstance().getBlock("Grass").getId();
+        _glass = BlockManager.getInstance().getBlock("Glass").getId();
+        _lava = BlockManager.getInstance().getBlock("Lava").getId();
+        _torch = BlockManager.getInstance().getBlock("Torch").getId();
+
+        // A fresh title, so no chunks of earlier runs are loaded from disk
+        _worldProvider = new LocalWorldProvider("Synthetic" + type + System.nanoTime(), "Terasology42");
+
+        ArrayList<ChunkGenerator> generators = _worldProvider.getGeneratorManager().getChunkGenerators();
+        generators.clear();
+        generators.add(new SyntheticGenerator(_worldProvider.getGeneratorManager()));
+
+        ArrayList<Chunk> generatedChunks = new ArrayList<Chunk>();
+
+        for (int x = -radius - 2; x <= radius + 2; x++) {
+            for (int z = -radius - 2; z <= radius + 2; z++) {
+                Chunk c = _worldProvider.getChunkProvider().loadOrCreateChunk(x, z);
+                generatedChunks.add(c);
+
+                if (Math.abs(x) <= radius + 1 && Math.abs(z) <= radius + 1)
+                    _litChunks.add(c);
+            }
+        }
+
+        ChunkBatch.generate(generatedChunks);
+        ChunkBatch.light(_litChunks);
+    }
+
+    /**
+     * Fills the chunks with the terrain of the world.
+     */
+    private final class SyntheticGenerator extends ChunkGenerator {
+
+        public SyntheticGenerator(GeneratorManager generatorManager) {
+            super(generatorManager);
+        }
+
+        @Override
+        public void generate(Chunk c) {
+            for (int x = 0; x < Chunk.CHUNK_DIMENSION_X; x++) {
+                for (int z = 0; z < Chunk.CHUNK_DIMENSION_Z; z++) {
+                    int worldX = c.getBlockWorldPosX(x);
+                    int worldZ = c.getBlockWorldPosZ(z);
+
+                    switch (_type) {
+                        case PLAINS:
+                            for (int y = 0; y < PLAINS_HEIGHT; y++)
+                                c.setBlock(x, y, z, _stone);
+
+                            c.setBlock(x, PLAINS_HEIGHT, z, _grass);
+                            break;
+                        case CAVES:
+                            for (int y = 0; y < PLATEAU_HEIGHT; y++) {
+                                if (!isCave(worldX, y, worldZ))
+                                    c.setBlock(x, y, z, _stone);
+                                else if (y < LAVA_HEIGHT)
+                                    c.setBlock(x, y, z, _lava);
+                            }
+
+                            c.setBlock(x, PLATEAU_HEIGHT, z, _grass);
+                            break;
+                        case TORCH_GRID:
+                            for (int y = 0; y <= HALL_FLOOR; y++)
+                                c.setBlock(x, y, z, _stone);
+
+                            byte roof = isWindow(worldX, worldZ) ? _glass : _stone;
+                            c.setBlock(x, HALL_ROOF, z, roof);
+                            c.setBlock(x, HALL_ROOF + 1, z, roof);
+                            break;
+                    }
+                }
+            }
+        }
+
+        private boolean isCave(int x, int y, int z) {
+            return y > 4 && _pGen1.noise(x * 0.04, y * 0.08, z * 0.04) > 0.25;
+        }
+    }
+
+    private static boolean isWindow(int x, int z) {
+        return ((x % WINDOW_SPACING) + WINDOW_SPACING) % WINDOW_SPACING < 2 && ((z % WINDOW_SPACING) + WINDOW_SPACING) % WINDOW_SPACING < 2;
+    }
+
+    /**
+     * Creates the edits for the terrain of this world. The edits only touch the chunks within the radius of the world.
+     *
+     * @return The edits in the order they should be applied
+     */
+    public List<Edit> createEdits() {
+        ArrayList<Edit> edits = new ArrayList<Edit>();
+        FastRandom rand = new FastRandom(42);
+
+        for (int cx = -_radius; cx <= _radius; cx++) {
+            for (int cz = -_radius; cz <= _radius; cz++) {
+                int x = cx * Chunk.CHUNK_DIMENSION_X;
+                int z = cz * Chunk.CHUNK_DIMENSION_Z;
+
+                switch (_type) {
+                    case PLAINS:
+                        createPitEdits(edits, x + 5, z + 5);
+                        break;
+                    case CAVES:
+                        createCaveEdits(edits, rand, x, z);
+                        break;
+                    case TORCH_GRID:
+                        createHallEdits(edits, x, z);
+                        break;
+                }
+            }
+        }
+
+        return edits;
+    }
+
+    /**
+     * Digs a pit into the plains, places torches at its bottom and covers half of it.
+     */
+    private void createPitEdits(ArrayList<Edit> edits, int x, int z) {
+        int bottom = PLAINS_HEIGHT - PIT_SIZE;
+
+        for (int i = 0; i < PIT_SIZE; i++) {
+            for (int j = 0; j < PIT_SIZE; j++) {
+                for (int y = PLAINS_HEIGHT; y >= bottom; y--)
+                    edits.add(new Edit(x + i, y, z + j, _air));
+            }
+        }
+
+        edits.add(new Edit(x, bottom, z, _torch));
+        edits.add(new Edit(x + PIT_SIZE - 1, bottom, z, _torch));
+        edits.add(new Edit(x, bottom, z + PIT_SIZE - 1, _torch));
+        edits.add(new Edit(x + PIT_SIZE - 1, bottom, z + PIT_SIZE - 1, _torch));
+
+        for (int i = 0; i < PIT_SIZE / 2; i++) {
+            for (int j = 0; j < PIT_SIZE; j++)
+                edits.add(new Edit(x + i, PLAINS_HEIGHT, z + j, _stone));
+        }
+    }
+
+    /**
+     * Places torches on the floors of the caves below random columns and opens a shaft from the surface
+     * down into the first cave below another one.
+     */
+    private void createCaveEdits(ArrayList<Edit> edits, FastRandom rand, int x, int z) {
+        for (int i = 0; i < CAVE_TORCHES; i++) {
+            int torchX = x + randomOffset(rand);
+            int torchZ = z + randomOffset(rand);
+
+            for (int y = PLATEAU_HEIGHT - 1; y > LAVA_HEIGHT; y--) {
+                if (_worldProvider.getBlock(torchX, y, torchZ) == _air && _worldProvider.getBlock(torchX, y - 1, torchZ) == _stone) {
+                    edits.add(new Edit(torchX, y, torchZ, _torch));
+                    break;
+                }
+            }
+        }
+
+        int shaftX = x + randomOffset(rand);
+        int shaftZ = z + randomOffset(rand);
+
+        for (int y = PLATEAU_HEIGHT - 1; y > LAVA_HEIGHT; y--) {
+            if (_worldProvider.getBlock(shaftX, y, shaftZ) == _air) {
+                for (int shaftY = PLATEAU_HEIGHT; shaftY > y; shaftY--)
+                    edits.add(new Edit(shaftX, shaftY, shaftZ, _air));
+
+                break;
+            }
+        }
+    }
+
+    private static int randomOffset(FastRandom rand) {
+        return (rand.randomInt() & Integer.MAX_VALUE) % Chunk.CHUNK_DIMENSION_X;
+    }
+
+    /**
+     * Places a grid of torches on the floor of the hall and breaks one of the windows in its roof.
+     */
+    private void createHallEdits(ArrayList<Edit> edits, int x, int z) {
+        for (int i = 0; i < Chunk.CHUNK_DIMENSION_X; i += TORCH_SPACING) {
+            for (int j = 0; j < Chunk.CHUNK_DIMENSION_Z; j += TORCH_SPACING)
+                edits.add(new Edit(x + i + 2, HALL_FLOOR + 1, z + j + 2, _torch));
+        }
+
+        for (int i = 0; i < 2; i++) {
+            for (int j = 0; j < 2; j++) {
+                edits.add(new Edit(x + i, HALL_ROOF + 1, z + j, _air));
+                edits.add(new Edit(x + i, HALL_ROOF, z + j, _air));
+            }
+        }
+    }
+
+    /**
+     * Applies the given edits through the world provider, updating the light after every single edit
+     * or once for all of them.
+     *
+     * @param edits       The edits
+     * @param transaction True if all edits should be applied within one edit transaction
+     * @return The edits restoring the previous blocks
+     */
+    public List<Edit> apply(List<Edit> edits, boolean transaction) {
+        ArrayList<Edit> undo = new ArrayList<Edit>(edits.size());
+
+        if (transaction)
+            _worldProvider.beginEditTransaction();
+
+        try {
+            for (Edit edit : edits) {
+                undo.add(new Edit(edit.x, edit.y, edit.z, _worldProvider.getBlock(edit.x, edit.y, edit.z)));
+                _worldProvider.setBlock(edit.x, edit.y, edit.z, edit.type, true, true);
+            }
+        } finally {
+            if (transaction)
+                _worldProvider.commitEditTransaction();
+        }
+
+        Collections.reverse(undo);
+        return undo;
+    }
+
+    /**
+     * Returns a copy of the sunlight and block light of all lit chunks.
+     */
+    public byte[] captureLight() {
+        byte[] result = new byte[2 * _litChunks.size() * Chunk.BLOCK_COUNT];
+        int i = 0;
+
+        for (Chunk.LIGHT_TYPE type : Chunk.LIGHT_TYPE.values()) {
+            for (Chunk c : _litChunks) {
+                for (int x = 0; x < Chunk.CHUNK_DIMENSION_X; x++) {
+                    for (int z = 0; z < Chunk.CHUNK_DIMENSION_Z; z++) {
+                        for (int y = 0; y < Chunk.CHUNK_DIMENSION_Y; y++)
+                            result[i++] = c.getLight(x, y, z, type);
+                    }
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns the amount of voxels whose light differs between the two captures.
+     */
+    public static int countChanges(byte[] before, byte[] after) {
+        int changes = 0;
+
+        for (int i = 0; i < before.length; i++) {
+            if (before[i] != after[i])
+                changes++;
+        }
+
+        return changes;
+    }
+
+    /**
+     * Compares the light of the edited chunks with the light calculated by the reference solver.
+     *
+     * @return The amount of voxels with wrong light values
+     */
+    public int countMismatches() {
+        // The ring of lit chunks keeps light from outside the solved region away from the compared voxels
+        int min = -(_radius + 1) * Chunk.CHUNK_DIMENSION_X;
+        int size = (2 * _radius + 3) * Chunk.CHUNK_DIMENSION_X;
+
+        return new LightReferenceSolver(_worldProvider, min, min, size, size).countMismatches(Chunk.CHUNK_DIMENSION_X);
+    }
+
+    public LocalWorldProvider getWorldProvider() {
+        return _worldProvider;
+    }
+
+    /**
+     * Disposes the world and deletes everything it saved to disk.
+     */
+    public void dispose() {
+        _worldProvider.dispose();
+        delete(new File(_worldProvider.getWorldSavePath()));
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+
+        if (children != null) {
+            for (File child : children)
+                delete(child);
+        }
+
+        file.delete();
+    }
+}
@@ -25,6 +25,7 @@ import org.lwjgl.opengl.DisplayMode;
 import org.lwjgl.opengl.PixelFormat;
 import org.terasology.logic.characters.Player;
 import org.terasology.logic.manager.*;
+import org.terasology.logic.world.ChunkReclaimer;
 import org.terasology.logic.world.WorldProvider;
 import org.terasology.model.blocks.BlockManager;
 import org.terasology.rendering.gui.framework.UIDisplayElement;
@@ -269,7 +270,15 @@ public final class Terasology {
         _statusScreen.setVisible(true);
         _hud.setVisible(false);
 
-        float diff = 0;
+        _statusScreen.updateStatus("Generating and lighting the world... :-)");
+        renderUserInterface();
+        Display.update();
+
+        // Generate and light the initial chunks in one parallel pass, the remaining time is used to create the meshes
+        getActiveWorldRenderer().generateChunksInProximity();
+        getInstance().getLogger().log(Level.INFO, "Generated and lit {0} chunks in {1} ms.", new Object[]{getActiveWorldRenderer().getChunksInProximity().size(), getTime() - timeBefore});
+
+        float diff = getTime() - timeBefore;
 
         while (diff < duration) {
             _statusScreen.updateStatus(String.format("Fast forwarding world... %.2f%%! :-)", (diff / duration) * 100f));
@@ -307,7 +316,7 @@ public final class Terasology {
         ShaderManager.getInstance();
         VertexBufferObjectManager.getInstance();
         FontManager.getInstance();
-        BlockManager.getInstance();
+        BlockManager.getInstance().loadTextures();
 
         _hud = new UIHeadsUpDisplay();
         _hud.setVisible(true);
@@ -373,20 +382,28 @@ public final class Terasology {
 
             //long timeSimulatedThisIteration = 0;
             long startTime = getTime();
-            while (_timeAccumulator >= SKIP_TICKS) {
-                update();
-                _timeAccumulator -= SKIP_TICKS;
-                //timeSimulatedThisIteration += SKIP_TICKS;
-            }
 
-            render();
-            Display.update();
+            // Chunks looked up during the frame stay valid until the end of the frame
+            long epoch = ChunkReclaimer.enter();
 
-            processKeyboardInput();
-            processMouseInput();
+            try {
+                while (_timeAccumulator >= SKIP_TICKS) {
+                    update();
+                    _timeAccumulator -= SKIP_TICKS;
+                    //timeSimulatedThisIteration += SKIP_TICKS;
+                }
 
-            if (!screenHasFocus())
-                getActiveWorldRenderer().getPlayer().updateInput();
+                render();
+                Display.update();
+
+                processKeyboardInput();
+                processMouseInput();
+
+                if (!screenHasFocus())
+                    getActiveWorldRenderer().getPlayer().updateInput();
+            } finally {
+                ChunkReclaimer.exit(epoch);
+            }
 
             Display.sync(60);
 
@@ -545,6 +545,10 @@ public abstract class MovableEntity extends Entity {
         return _viewingDirection;
     }
 
+    public Vector3d getVelocity() {
+        return _velocity;
+    }
+
     public void setViewingDirection(double yaw, double pitch) {
         _viewingDirection.set(Math.sin(Math.toRadians(yaw)) * Math.cos(Math.toRadians(pitch)), -Math.sin(Math.toRadians(pitch)), -Math.cos(Math.toRadians(pitch)) * Math.cos(Math.toRadians(yaw)));
         _viewingDirection.normalize(_viewingDirection);
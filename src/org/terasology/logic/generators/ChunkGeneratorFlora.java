@@ -38,9 +38,11 @@ public class ChunkGeneratorFlora extends ChunkGeneratorTerrain {
 
     @Override
     public void generate(Chunk c) {
-        for (int y = 0; y < Chunk.CHUNK_DIMENSION_Y; y++) {
-            for (int x = 0; x < Chunk.CHUNK_DIMENSION_X; x++) {
-                for (int z = 0; z < Chunk.CHUNK_DIMENSION_Z; z++) {
+        for (int x = 0; x < Chunk.CHUNK_DIMENSION_X; x++) {
+            for (int z = 0; z < Chunk.CHUNK_DIMENSION_Z; z++) {
+                int y = c.getSurfaceHeight(x, z);
+
+                if (y >= 0) {
                     generateGrassAndFlowers(c, x, y, z);
                 }
             }
@@ -55,28 +57,32 @@ public class ChunkGeneratorFlora extends ChunkGeneratorTerrain {
      * @param c The chunk
      */
     private void generateTrees(Chunk c) {
-        for (int y = 32; y < Chunk.CHUNK_DIMENSION_Y; y++) {
-            for (int x = 0; x < Chunk.CHUNK_DIMENSION_X; x += 4) {
-                for (int z = 0; z < Chunk.CHUNK_DIMENSION_Z; z += 4) {
-                    BIOME_TYPE biome = calcBiomeTypeForGlobalPosition(c.getBlockWorldPosX(x), c.getBlockWorldPosZ(z));
+        for (int x = 0; x < Chunk.CHUNK_DIMENSION_X; x += 4) {
+            for (int z = 0; z < Chunk.CHUNK_DIMENSION_Z; z += 4) {
+                BIOME_TYPE biome = calcBiomeTypeForGlobalPosition(c.getBlockWorldPosX(x), c.getBlockWorldPosZ(z));
+
+                int randX = x + c.getRandom().randomInt() % 12 + 6;
+                int randZ = z + c.getRandom().randomInt() % 12 + 6;
+
+                // Trees only grow on the surface
+                int y = c.getSurfaceHeight(randX, randZ);
 
-                    int randX = x + c.getRandom().randomInt() % 12 + 6;
-                    int randZ = z + c.getRandom().randomInt() % 12 + 6;
+                if (y < 32)
+                    continue;
 
-                    if (c.getBlock(randX, y, randZ) == BlockManager.getInstance().getBlock("Grass").getId() || c.getBlock(randX, y, randZ) == BlockManager.getInstance().getBlock("Snow").getId() || c.getBlock(randX, y, randZ) == BlockManager.getInstance().getBlock("Sand").getId()) {
-                        double rand = Math.abs(c.getRandom().randomDouble());
+                if (c.getBlock(randX, y, randZ) == BlockManager.getInstance().getBlock("Grass").getId() || c.getBlock(randX, y, randZ) == BlockManager.getInstance().getBlock("Snow").getId() || c.getBlock(randX, y, randZ) == BlockManager.getInstance().getBlock("Sand").getId()) {
+                    double rand = Math.abs(c.getRandom().randomDouble());
 
-                        int randomGeneratorId;
-                        int size = _parent.getTreeGenerators(biome).size();
+                    int randomGeneratorId;
+                    int size = _parent.getTreeGenerators(biome).size();
 
-                        if (size > 0) {
-                            randomGeneratorId = Math.abs(c.getRandom().randomInt()) % size;
+                    if (size > 0) {
+                        randomGeneratorId = Math.abs(c.getRandom().randomInt()) % size;
 
-                            TreeGenerator treeGen = _parent.getTreeGenerator(biome, randomGeneratorId);
+                        TreeGenerator treeGen = _parent.getTreeGenerator(biome, randomGeneratorId);
 
-                            if (rand < treeGen.getGenProbability()) {
-                                generateTree(c, treeGen, randX, y, randZ);
-                            }
+                        if (rand < treeGen.getGenProbability()) {
+                            generateTree(c, treeGen, randX, y, randZ);
                         }
                     }
                 }
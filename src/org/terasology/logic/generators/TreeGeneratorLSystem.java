@@ -69,6 +69,22 @@ public class TreeGeneratorLSystem extends TreeGenerator {
 
     @Override
     public void generate(FastRandom rand, int posX, int posY, int posZ, boolean update) {
+        if (!update) {
+            generateTree(rand, posX, posY, posZ, false);
+            return;
+        }
+
+        // Trees placed in existing terrain are lit in one pass
+        _generatorManager.getParent().beginEditTransaction();
+
+        try {
+            generateTree(rand, posX, posY, posZ, true);
+        } finally {
+            _generatorManager.getParent().commitEditTransaction();
+        }
+    }
+
+    private void generateTree(FastRandom rand, int posX, int posY, int posZ, boolean update) {
 
         String axiom = _initialAxiom;
 
@@ -17,6 +17,7 @@ package org.terasology.logic.simulators;
 
 import org.terasology.game.Terasology;
 import org.terasology.logic.world.BlockObserver;
+import org.terasology.logic.world.ChunkReclaimer;
 import org.terasology.logic.world.WorldProvider;
 import org.terasology.model.structures.BlockPosition;
 
@@ -60,8 +61,14 @@ public abstract class Simulator implements BlockObserver {
             // Create a new thread and start processing
             Runnable r = new Runnable() {
                 public void run() {
-                    executeSimulation();
-                    _running = false;
+                    long epoch = ChunkReclaimer.enter();
+
+                    try {
+                        executeSimulation();
+                    } finally {
+                        ChunkReclaimer.exit(epoch);
+                        _running = false;
+                    }
                 }
             };
 
@@ -51,29 +51,36 @@ public class ExplosionTool implements Tool {
             BlockPosition blockPos = _player.getSelectedBlock().getBlockPosition();
             Vector3d origin = blockPos.toVector3d();
 
-            int counter = 0;
-            for (int i = 0; i < 512; i++) {
-                Vector3d direction = new Vector3d((float) worldProvider.getRandom().randomDouble(), (float) worldProvider.getRandom().randomDouble(), (float) worldProvider.getRandom().randomDouble());
-                direction.normalize();
+            // The light of all removed blocks is updated at once
+            worldProvider.beginEditTransaction();
 
-                for (int j = 0; j < 5; j++) {
-                    Vector3d target = new Vector3d(origin);
+            try {
+                int counter = 0;
+                for (int i = 0; i < 512; i++) {
+                    Vector3d direction = new Vector3d((float) worldProvider.getRandom().randomDouble(), (float) worldProvider.getRandom().randomDouble(), (float) worldProvider.getRandom().randomDouble());
+                    direction.normalize();
 
-                    target.x += direction.x * j;
-                    target.y += direction.y * j;
-                    target.z += direction.z * j;
+                    for (int j = 0; j < 5; j++) {
+                        Vector3d target = new Vector3d(origin);
 
-                    byte currentBlockType = worldProvider.getBlock((int) target.x, (int) target.y, (int) target.z);
+                        target.x += direction.x * j;
+                        target.y += direction.y * j;
+                        target.z += direction.z * j;
 
-                    if (currentBlockType != 0x0) {
-                        worldProvider.setBlock((int) target.x, (int) target.y, (int) target.z, (byte) 0x0, true, true);
+                        byte currentBlockType = worldProvider.getBlock((int) target.x, (int) target.y, (int) target.z);
 
-                        if (!BlockManager.getInstance().getBlock(currentBlockType).isTranslucent() && counter % 4 == 0)
-                            BulletPhysicsRenderer.getInstance().addBlock(new Vector3f(target), currentBlockType);
+                        if (currentBlockType != 0x0) {
+                            worldProvider.setBlock((int) target.x, (int) target.y, (int) target.z, (byte) 0x0, true, true);
 
-                        counter++;
+                            if (!BlockManager.getInstance().getBlock(currentBlockType).isTranslucent() && counter % 4 == 0)
+                                BulletPhysicsRenderer.getInstance().addBlock(new Vector3f(target), currentBlockType);
+
+                            counter++;
+                        }
                     }
                 }
+            } finally {
+                worldProvider.commitEditTransaction();
             }
 
             AudioManager.getInstance().playVaryingSound("RemoveBlock", 0.3f, 1.0f);
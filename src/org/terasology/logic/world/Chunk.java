@@ -31,8 +31,7 @@ import org.terasology.logic.manager.ConfigurationManager;
 import org.terasology.model.blocks.Block;
 import org.terasology.model.blocks.BlockManager;
 import org.terasology.model.structures.AABB;
-import org.terasology.model.structures.TeraArray;
-import org.terasology.model.structures.TeraSmartArray;
+import org.terasology.model.structures.TeraNibbleArray;
 import org.terasology.rendering.primitives.ChunkMesh;
 import org.terasology.rendering.primitives.ChunkTessellator;
 import org.terasology.utilities.FastRandom;
@@ -43,11 +42,18 @@ import javax.vecmath.Matrix3f;
 import javax.vecmath.Matrix4f;
 import javax.vecmath.Vector3d;
 import javax.vecmath.Vector3f;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
 import java.io.Externalizable;
 import java.io.IOException;
 import java.io.ObjectInput;
 import java.io.ObjectOutput;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 
 /**
@@ -68,17 +74,37 @@ public class Chunk extends StaticEntity implements Comparable<Chunk>, Externaliz
     public static final int CHUNK_DIMENSION_X = 16;
     public static final int CHUNK_DIMENSION_Y = 256;
     public static final int CHUNK_DIMENSION_Z = 16;
+    public static final int BLOCK_COUNT = CHUNK_DIMENSION_X * CHUNK_DIMENSION_Y * CHUNK_DIMENSION_Z;
+    /* Position, flags, blocks and three nibble arrays */
+    public static final int SERIALIZED_SIZE = 9 + BLOCK_COUNT + 3 * (BLOCK_COUNT / 2);
+    public static final int SECTION_COUNT = CHUNK_DIMENSION_Y / ChunkSection.SECTION_DIMENSION_Y;
     public static final int VERTICAL_SEGMENTS = (Integer) ConfigurationManager.getInstance().getConfig().get("Graphics.verticalChunkMeshSegments");
-    private static final Vector3d[] LIGHT_DIRECTIONS = {new Vector3d(1, 0, 0), new Vector3d(-1, 0, 0), new Vector3d(0, 1, 0), new Vector3d(0, -1, 0), new Vector3d(0, 0, 1), new Vector3d(0, 0, -1)};
+    /* Heightmaps plus a rough allowance for the chunk object itself */
+    private static final int FIXED_MEMORY_USAGE = 4 * CHUNK_DIMENSION_X * CHUNK_DIMENSION_Z + 1024;
 
     protected FastRandom _random;
     /* ------ */
     protected boolean _dirty, _lightDirty, _fresh;
+    /* Held while the generators run, so every chunk is generated exactly once */
+    private final Object _generationLock = new Object();
+    /* Set if the voxel data differs from the persisted data, independent of the mesh related dirty flag */
+    protected volatile boolean _modified;
+    /* Tick of the chunk cache this chunk has been accessed the last time, only a hint for the eviction */
+    private int _lastAccess;
+    /* Holders keeping this chunk across the sections of the ChunkReclaimer, -1 while the chunk leaves the cache */
+    private final AtomicInteger _pins = new AtomicInteger();
+    /* The pool this chunk returns to once it has been reclaimed */
+    private ChunkPool _pool;
     /* ------ */
     protected LocalWorldProvider _parent;
     /* ------ */
-    protected final TeraArray _blocks;
-    protected final TeraSmartArray _sunlight, _light, _states;
+    protected final ChunkSection[] _sections = new ChunkSection[SECTION_COUNT];
+    /* Guarded by _sections, direct sections replaced by uniform ones, readers might still hold them until reclaimed */
+    private final ArrayList<ChunkSection> _replacedSections = new ArrayList<ChunkSection>();
+    /* Height of the highest non-translucent block per column, -1 if there is none */
+    protected final short[] _heightmap = new short[CHUNK_DIMENSION_X * CHUNK_DIMENSION_Z];
+    /* Height of the highest block keeping the sunlight from passing per column, -1 if there is none */
+    protected final short[] _sunlightHeightmap = new short[CHUNK_DIMENSION_X * CHUNK_DIMENSION_Z];
     /* ------ */
     private ChunkMesh _activeMeshes[];
     private ChunkMesh _newMeshes[];
@@ -89,7 +115,7 @@ public class Chunk extends StaticEntity implements Comparable<Chunk>, Externaliz
     private boolean[] _subMeshCulled = new boolean[VERTICAL_SEGMENTS];
     private final int[] _queries = new int[VERTICAL_SEGMENTS];
     /* ------ */
-    private boolean _disposed = false;
+    private volatile boolean _disposed = false;
     /* ----- */
     private AABB _aabb = null;
     private AABB[] _subChunkAABB = null;
@@ -108,10 +134,13 @@ public class Chunk extends StaticEntity implements Comparable<Chunk>, Externaliz
     public Chunk() {
         _tessellator = new ChunkTessellator(this);
 
-        _blocks = new TeraArray(CHUNK_DIMENSION_X, CHUNK_DIMENSION_Y, CHUNK_DIMENSION_Z);
-        _sunlight = new TeraSmartArray(CHUNK_DIMENSION_X, CHUNK_DIMENSION_Y, CHUNK_DIMENSION_Z);
-        _light = new TeraSmartArray(CHUNK_DIMENSION_X, CHUNK_DIMENSION_Y, CHUNK_DIMENSION_Z);
-        _states = new TeraSmartArray(CHUNK_DIMENSION_X, CHUNK_DIMENSION_Y, CHUNK_DIMENSION_Z);
+        // All sections start out as air at full sun
+        for (int i = 0; i < SECTION_COUNT; i++) {
+            _sections[i] = ChunkSection.uniform((byte) 0, (byte) 15, (byte) 0, (byte) 0);
+        }
+
+        Arrays.fill(_heightmap, (short) -1);
+        Arrays.fill(_sunlightHeightmap, (short) -1);
 
         setLightDirty(true);
         setDirty(true);
@@ -135,6 +164,41 @@ public class Chunk extends StaticEntity implements Comparable<Chunk>, Externaliz
         _random = new FastRandom((_parent.getSeed()).hashCode() + getChunkIdForPosition(position));
     }
 
+    /**
+     * Rebinds a reclaimed chunk to a new parent and position. The chunk is reset to the state
+     * of a newly created chunk, so it can be used instead of allocating a new one.
+     *
+     * @param p        The parent world
+     * @param position The absolute position of the chunk within the world
+     */
+    void recycle(LocalWorldProvider p, Vector3d position) {
+        synchronized (this) {
+            _activeMeshes = null;
+            _newMeshes = null;
+            _rigidBody = null;
+
+            _aabb = null;
+            _subChunkAABB = null;
+
+            Arrays.fill(_occlusionCulled, false);
+            Arrays.fill(_subMeshCulled, false);
+            Arrays.fill(_queries, 0);
+
+            _disposed = false;
+        }
+
+        setLightDirty(true);
+        setDirty(true);
+        setFresh(true);
+        setModified(false);
+
+        setPosition(position);
+        _parent = p;
+
+        _random.setSeed((_parent.getSeed()).hashCode() + getChunkIdForPosition(position));
+        _pins.set(0);
+    }
+
     /**
      * Tries to load a chunk from disk. If the chunk is not present,
      * it is created from scratch.
@@ -142,17 +206,28 @@ public class Chunk extends StaticEntity implements Comparable<Chunk>, Externaliz
      * @return True if a generation has been executed
      */
     public boolean generate() {
-        if (isFresh()) {
-            for (ChunkGenerator gen : _parent.getGeneratorManager().getChunkGenerators()) {
-                gen.generate(this);
-            }
+        // Threads asking for the same chunk wait for the running generation instead of starting another one
+        synchronized (_generationLock) {
+            if (isFresh()) {
+                // Generating the chunk again reproduces the changes, so they are kept out of the journal
+                _parent.beginGeneration();
+
+                try {
+                    for (ChunkGenerator gen : _parent.getGeneratorManager().getChunkGenerators()) {
+                        gen.generate(this);
+                    }
+                } finally {
+                    _parent.endGeneration();
+                }
 
-            generateSunlight();
-            setFresh(false);
+                generateSunlight();
+                compactSections();
+                setFresh(false);
 
-            return true;
+                return true;
+            }
+            return false;
         }
-        return false;
     }
 
     /**
@@ -162,226 +237,128 @@ public class Chunk extends StaticEntity implements Comparable<Chunk>, Externaliz
         if (isFresh() || !isLightDirty())
             return;
 
-        for (int x = 0; x < CHUNK_DIMENSION_X; x++) {
-            for (int z = 0; z < CHUNK_DIMENSION_Z; z++) {
-                for (int y = CHUNK_DIMENSION_Y - 1; y >= 0; y--) {
-                    byte blockValue = getBlock(x, y, z);
-                    byte lightValue = getLight(x, y, z, LIGHT_TYPE.SUN);
+        ChunkLightPropagator sunlight = new ChunkLightPropagator(this, LIGHT_TYPE.SUN);
+        ChunkLightPropagator blockLight = new ChunkLightPropagator(this, LIGHT_TYPE.BLOCK);
+        seedLight(sunlight, blockLight);
 
-                    if (!BlockManager.getInstance().getBlock(blockValue).isTranslucent()) {
-                        continue;
-                    }
+        // Light leaving the chunk is spread by the propagators of the neighbors
+        long key = MathHelper.packCoordinates((int) getPosition().x, (int) getPosition().z);
 
-                    // Spread the sunlight in translucent blocks with a light value greater than zero.
-                    if (lightValue > 0) {
-                        spreadLight(x, y, z, lightValue, LIGHT_TYPE.SUN);
-                    }
-                }
-            }
-        }
+        HashMap<Long, ChunkLightPropagator> propagators = new HashMap<Long, ChunkLightPropagator>();
+        propagators.put(key, sunlight);
+        ChunkLightPropagator.propagate(propagators);
 
-        setLightDirty(false);
-    }
+        propagators.clear();
+        propagators.put(key, blockLight);
+        ChunkLightPropagator.propagate(propagators);
 
-    /**
-     * Generates the initial sunlight.
-     */
-    private void generateSunlight() {
-        for (int x = 0; x < CHUNK_DIMENSION_X; x++) {
-            for (int z = 0; z < CHUNK_DIMENSION_Z; z++) {
-                refreshSunlightAtLocalPos(x, z, false, false);
-            }
-        }
+        setLightDirty(false);
     }
 
     /**
-     * Calculates the sunlight at a given column within the chunk.
+     * Queues the light sources of this chunk: translucent voxels lit by the sun and luminous blocks.
      *
-     * @param x               Local block position on the x-axis
-     * @param z               Local block position on the z-axis
-     * @param spreadLight     Spread light if a light value is greater than the old one
-     * @param refreshSunlight Refreshes the sunlight using the surrounding chunks when the light value is lower than before
+     * @param sunlight   The sunlight propagator of this chunk
+     * @param blockLight The block light propagator of this chunk
      */
-    public void refreshSunlightAtLocalPos(int x, int z, boolean spreadLight, boolean refreshSunlight) {
-        boolean covered = false;
-
-        for (int y = CHUNK_DIMENSION_Y - 1; y >= 0; y--) {
-            byte blockId = _blocks.get(x, y, z);
-            Block b = BlockManager.getInstance().getBlock(blockId);
-
-            // Remember if this "column" is covered
-            if ((!b.isInvisible() && b.getBlockForm() != Block.BLOCK_FORM.BILLBOARD) && !covered) {
-                covered = true;
-            }
-
-            byte oldValue = _sunlight.get(x, y, z);
-            byte newValue;
+    void seedLight(ChunkLightPropagator sunlight, ChunkLightPropagator blockLight) {
+        for (int i = SECTION_COUNT - 1; i >= 0; i--) {
+            ChunkSection section = _sections[i];
+            int bottom = i * ChunkSection.SECTION_DIMENSION_Y;
+            int top = bottom + ChunkSection.SECTION_DIMENSION_Y - 1;
 
-            // If the column is not covered...
-            if (!covered) {
-                if (b.isInvisible() || b.getBlockForm() == Block.BLOCK_FORM.BILLBOARD)
-                    _sunlight.set(x, y, z, (byte) 15);
-                else
-                    _sunlight.set(x, y, z, (byte) 0x0);
+            // The inner voxels of a uniform section can't light anything their neighbors don't
+            boolean skipInner = false;
 
-                newValue = _sunlight.get(x, y, z);
+            if (section.isUniform()) {
+                Block b = BlockManager.getInstance().getBlock(section.getBlock(0, 0, 0));
 
-                // Otherwise the column is covered. Don't generate any light in the cells...
-            } else {
-                _sunlight.set(x, y, z, (byte) 0);
+                if (b.getLuminance() == 0) {
+                    // Nothing to spread in dark or opaque sections
+                    if (section.getLight(0, 0, 0, LIGHT_TYPE.SUN) <= 0 || !b.isTranslucent())
+                        continue;
 
-                // Update the sunlight at the current position (check the surrounding cells)
-                if (refreshSunlight) {
-                    refreshLightAtLocalPos(x, y, z, LIGHT_TYPE.SUN);
+                    skipInner = true;
                 }
-
-                newValue = _sunlight.get(x, y, z);
             }
 
+            for (int x = 0; x < CHUNK_DIMENSION_X; x++) {
+                for (int z = 0; z < CHUNK_DIMENSION_Z; z++) {
+                    boolean border = x == 0 || z == 0 || x == CHUNK_DIMENSION_X - 1 || z == CHUNK_DIMENSION_Z - 1;
 
-            if (spreadLight && oldValue > newValue)
-                unspreadLight(x, y, z, oldValue, Chunk.LIGHT_TYPE.SUN);
-            else if (spreadLight && oldValue < newValue) {
-                /*
-                * Spread sunlight if the new light value is more intense
-                * than the old value.
-                */
-                spreadLight(x, y, z, newValue, LIGHT_TYPE.SUN);
-            }
-        }
-    }
+                    for (int y = top; y >= bottom; y--) {
+                        if (skipInner && !border && y != top && y != bottom)
+                            continue;
 
-    /**
-     * @param x    Local block position on the x-axis
-     * @param y    Local block position on the y-axis
-     * @param z    Local block position on the z-axis
-     * @param type The type of the light
-     */
-    public void refreshLightAtLocalPos(int x, int y, int z, LIGHT_TYPE type) {
-        int blockPosX = getBlockWorldPosX(x);
-        int blockPosZ = getBlockWorldPosZ(z);
-
-        byte bType = getBlock(x, y, z);
-
-        // If a block was just placed, remove the light value at this point
-        if (!BlockManager.getInstance().getBlock(bType).isTranslucent()) {
-            setLight(x, y, z, (byte) 0, type);
-        } else {
-            // If the block was removed: Find the brightest neighbor and
-            // set the current light value to this value - 1
-            byte val = getParent().getLight(blockPosX, y, blockPosZ, type);
-            byte val1 = getParent().getLight(blockPosX + 1, y, blockPosZ, type);
-            byte val2 = getParent().getLight(blockPosX - 1, y, blockPosZ, type);
-            byte val3 = getParent().getLight(blockPosX, y, blockPosZ + 1, type);
-            byte val4 = getParent().getLight(blockPosX, y, blockPosZ - 1, type);
-            byte val5 = getParent().getLight(blockPosX, y + 1, blockPosZ, type);
-            byte val6 = getParent().getLight(blockPosX, y - 1, blockPosZ, type);
-
-            byte max = (byte) (Math.max(Math.max(Math.max(val1, val2), Math.max(val3, val4)), Math.max(val5, val6)) - 1);
-
-            if (max < 0) {
-                max = 0;
-            }
+                        Block b = BlockManager.getInstance().getBlock(getBlock(x, y, z));
 
-            // Do nothing if the current light value is brighter
-            byte res = (byte) Math.max(max, val);
+                        if (b.getLuminance() > 0)
+                            blockLight.addLight(x, y, z, b.getLuminance());
 
-            // Finally set the new light value
-            setLight(x, y, z, res, type);
+                        // Spread the sunlight in translucent blocks with a light value greater than zero.
+                        if (b.isTranslucent() && getLight(x, y, z, LIGHT_TYPE.SUN) > 0)
+                            sunlight.spreadLight(x, y, z);
+                    }
+                }
+            }
         }
     }
 
     /**
-     * Recursive light calculation.
-     *
-     * @param x          Local block position on the x-axis
-     * @param y          Local block position on the y-axis
-     * @param z          Local block position on the z-axis
-     * @param lightValue The light value used to spread the light
-     * @param type       The type of the light
+     * Generates the initial sunlight. Voxels above the sunlight heightmap get full sunlight, all others none.
+     * Sections completely above or below the heightmap are filled as a whole. Spreading the light is up
+     * to updateLight().
      */
-    public void unspreadLight(int x, int y, int z, byte lightValue, LIGHT_TYPE type) {
-        ArrayList<Vector3d> brightSpots = new ArrayList<Vector3d>();
-        unspreadLight(x, y, z, lightValue, 0, type, brightSpots);
+    private void generateSunlight() {
+        int lowest = CHUNK_DIMENSION_Y, highest = -1;
 
-        for (Vector3d pos : brightSpots) {
-            getParent().spreadLight((int) pos.x, (int) pos.y, (int) pos.z, _parent.getLight((int) pos.x, (int) pos.y, (int) pos.z, type), 0, type);
+        for (short height : _sunlightHeightmap) {
+            lowest = Math.min(lowest, height);
+            highest = Math.max(highest, height);
         }
-    }
-
-    /**
-     * Recursive light calculation.
-     *
-     * @param x           Local block position on the x-axis
-     * @param y           Local block position on the y-axis
-     * @param z           Local block position on the z-axis
-     * @param lightValue  The light value used to spread the light
-     * @param depth       Depth of the recursion
-     * @param type        The type of the light
-     * @param brightSpots Log of light spots, which where brighter than the current light node
-     */
-    public void unspreadLight(int x, int y, int z, byte lightValue, int depth, LIGHT_TYPE type, ArrayList<Vector3d> brightSpots) {
-        int blockPosX = getBlockWorldPosX(x);
-        int blockPosZ = getBlockWorldPosZ(z);
 
-        // Remove the light at this point
-        getParent().setLight(blockPosX, y, blockPosZ, (byte) 0x0, type);
+        for (int i = 0; i < SECTION_COUNT; i++) {
+            int bottom = i * ChunkSection.SECTION_DIMENSION_Y;
+            int top = bottom + ChunkSection.SECTION_DIMENSION_Y - 1;
 
-        for (int i = 0; i < 6; i++) {
+            if (bottom > highest) {
+                fillSunlight(i, (byte) 15);
+            } else if (top <= lowest) {
+                fillSunlight(i, (byte) 0);
+            } else {
+                ChunkSection section = getModifiableSection(bottom);
 
-            byte neighborValue = getParent().getLight(blockPosX + (int) LIGHT_DIRECTIONS[i].x, y + (int) LIGHT_DIRECTIONS[i].y, blockPosZ + (int) LIGHT_DIRECTIONS[i].z, type);
-            byte neighborType = getParent().getBlock(blockPosX + (int) LIGHT_DIRECTIONS[i].x, y + (int) LIGHT_DIRECTIONS[i].y, blockPosZ + (int) LIGHT_DIRECTIONS[i].z);
+                for (int x = 0; x < CHUNK_DIMENSION_X; x++) {
+                    for (int z = 0; z < CHUNK_DIMENSION_Z; z++) {
+                        int start = Math.max(_sunlightHeightmap[x * CHUNK_DIMENSION_Z + z] + 1 - bottom, 0);
 
-            if (neighborValue < lightValue && neighborValue > 0 && BlockManager.getInstance().getBlock(neighborType).isTranslucent()) {
-                getParent().unspreadLight(blockPosX + (int) LIGHT_DIRECTIONS[i].x, y + (int) LIGHT_DIRECTIONS[i].y, blockPosZ + (int) LIGHT_DIRECTIONS[i].z, (byte) (lightValue - 1), depth + 1, type, brightSpots);
-            } else if (neighborValue >= lightValue) {
-                brightSpots.add(new Vector3d(blockPosX + (int) LIGHT_DIRECTIONS[i].x, y + (int) LIGHT_DIRECTIONS[i].y, blockPosZ + (int) LIGHT_DIRECTIONS[i].z));
+                        section.fillLightColumn(x, z, 0, start, (byte) 0, LIGHT_TYPE.SUN);
+                        section.fillLightColumn(x, z, start, ChunkSection.SECTION_DIMENSION_Y, (byte) 15, LIGHT_TYPE.SUN);
+                    }
+                }
             }
         }
-    }
 
-    /**
-     * Recursive light calculation.
-     *
-     * @param x          Local block position on the x-axis
-     * @param y          Local block position on the y-axis
-     * @param z          Local block position on the z-axis
-     * @param lightValue The light value used to spread the light
-     * @param type       The type of the light
-     */
-    public void spreadLight(int x, int y, int z, byte lightValue, LIGHT_TYPE type) {
-        spreadLight(x, y, z, lightValue, 0, type);
+        markModified();
     }
 
     /**
-     * Recursive light calculation.
-     *
-     * @param x          Local block position on the x-axis
-     * @param y          Local block position on the y-axis
-     * @param z          Local block position on the z-axis
-     * @param lightValue The light value used to spread the light
-     * @param depth      Depth of the recursion
-     * @param type       The type of the light
+     * Sets the sunlight of all voxels of the given section. Uniform sections stay uniform.
      */
-    public void spreadLight(int x, int y, int z, byte lightValue, int depth, LIGHT_TYPE type) {
-        if (depth > lightValue || lightValue - depth < 1) {
-            return;
-        }
+    private void fillSunlight(int index, byte value) {
+        synchronized (_sections) {
+            ChunkSection section = _sections[index];
 
-        int blockPosX = getBlockWorldPosX(x);
-        int blockPosZ = getBlockWorldPosZ(z);
+            if (section.isUniform()) {
+                if (section.getLight(0, 0, 0, LIGHT_TYPE.SUN) != value)
+                    _sections[index] = ChunkSection.uniform(section.getBlock(0, 0, 0), value, section.getLight(0, 0, 0, LIGHT_TYPE.BLOCK), section.getState(0, 0, 0));
 
-        byte newLightValue;
-        newLightValue = (byte) (lightValue - depth);
-
-        getParent().setLight(blockPosX, y, blockPosZ, newLightValue, type);
-
-        for (int i = 0; i < 6; i++) {
-            byte neighborValue = getParent().getLight(blockPosX + (int) LIGHT_DIRECTIONS[i].x, y + (int) LIGHT_DIRECTIONS[i].y, blockPosZ + (int) LIGHT_DIRECTIONS[i].z, type);
-            byte neighborType = getParent().getBlock(blockPosX + (int) LIGHT_DIRECTIONS[i].x, y + (int) LIGHT_DIRECTIONS[i].y, blockPosZ + (int) LIGHT_DIRECTIONS[i].z);
+                return;
+            }
 
-            if (neighborValue < newLightValue - 1 && BlockManager.getInstance().getBlock(neighborType).isTranslucent()) {
-                getParent().spreadLight(blockPosX + (int) LIGHT_DIRECTIONS[i].x, y + (int) LIGHT_DIRECTIONS[i].y, blockPosZ + (int) LIGHT_DIRECTIONS[i].z, lightValue, depth + 1, type);
+            for (int x = 0; x < CHUNK_DIMENSION_X; x++) {
+                for (int z = 0; z < CHUNK_DIMENSION_Z; z++)
+                    section.fillLightColumn(x, z, 0, ChunkSection.SECTION_DIMENSION_Y, value, LIGHT_TYPE.SUN);
             }
         }
     }
@@ -396,19 +373,11 @@ public class Chunk extends StaticEntity implements Comparable<Chunk>, Externaliz
      * @return The light intensity
      */
     public byte getLight(int x, int y, int z, LIGHT_TYPE type) {
-        byte result;
-
-        if (type == LIGHT_TYPE.SUN) {
-            result = _sunlight.get(x, y, z);
-        } else {
-            result = _light.get(x, y, z);
+        if (!isInBounds(x, y, z)) {
+            return 15;
         }
 
-        if (result >= 0) {
-            return result;
-        }
-
-        return 15;
+        return _sections[y / ChunkSection.SECTION_DIMENSION_Y].getLight(x, y % ChunkSection.SECTION_DIMENSION_Y, z, type);
     }
 
     /**
@@ -421,25 +390,29 @@ public class Chunk extends StaticEntity implements Comparable<Chunk>, Externaliz
      * @param type      The type of the light
      */
     public void setLight(int x, int y, int z, byte intensity, LIGHT_TYPE type) {
-        TeraSmartArray lSource;
-        if (type == LIGHT_TYPE.SUN) {
-            lSource = _sunlight;
-        } else if (type == LIGHT_TYPE.BLOCK) {
-            lSource = _light;
-        } else {
-            return;
-        }
-
-        byte oldValue = lSource.get(x, y, z);
-        lSource.set(x, y, z, intensity);
-
-        if (oldValue != intensity) {
+        if (setLightValue(x, y, z, intensity, type)) {
             setDirty(true);
             // Mark the neighbors as dirty
             markNeighborsDirty(x, z);
         }
     }
 
+    /**
+     * Sets the light value at the given position without marking the chunk dirty.
+     *
+     * @return True if the light value has changed
+     */
+    boolean setLightValue(int x, int y, int z, byte intensity, LIGHT_TYPE type) {
+        if (!isInBounds(x, y, z) || getLight(x, y, z, type) == intensity) {
+            return false;
+        }
+
+        getModifiableSection(y).setLight(x, y % ChunkSection.SECTION_DIMENSION_Y, z, intensity, type);
+        markModified();
+
+        return true;
+    }
+
     /**
      * Returns the block type at a given local block position.
      *
@@ -449,7 +422,11 @@ public class Chunk extends StaticEntity implements Comparable<Chunk>, Externaliz
      * @return The block type
      */
     public byte getBlock(int x, int y, int z) {
-        byte result = _blocks.get(x, y, z);
+        if (!isInBounds(x, y, z)) {
+            return 0;
+        }
+
+        byte result = _sections[y / ChunkSection.SECTION_DIMENSION_Y].getBlock(x, y % ChunkSection.SECTION_DIMENSION_Y, z);
 
         if (result >= 0) {
             return result;
@@ -467,16 +444,117 @@ public class Chunk extends StaticEntity implements Comparable<Chunk>, Externaliz
      * @return The block type
      */
     public byte getState(int x, int y, int z) {
-        return _states.get(x, y, z);
+        if (!isInBounds(x, y, z)) {
+            return -1;
+        }
+
+        return _sections[y / ChunkSection.SECTION_DIMENSION_Y].getState(x, y % ChunkSection.SECTION_DIMENSION_Y, z);
     }
 
     public boolean canBlockSeeTheSky(int x, int y, int z) {
-        for (int y1 = y + 1; y1 < CHUNK_DIMENSION_Y; y1++) {
-            if (!BlockManager.getInstance().getBlock(getBlock(x, y1, z)).isTranslucent())
-                return false;
+        return getSurfaceHeight(x, z) <= y;
+    }
+
+    /**
+     * Returns the height of the highest non-translucent block in the given column.
+     *
+     * @param x Local block position on the x-axis
+     * @param z Local block position on the z-axis
+     * @return The height of the surface, -1 if the column contains only translucent blocks
+     */
+    public int getSurfaceHeight(int x, int z) {
+        if (x < 0 || z < 0 || x >= CHUNK_DIMENSION_X || z >= CHUNK_DIMENSION_Z) {
+            return -1;
         }
 
-        return true;
+        return _heightmap[x * CHUNK_DIMENSION_Z + z];
+    }
+
+    /**
+     * Returns the height of the highest block keeping the sunlight from passing in the given column.
+     * All voxels above can see the sky.
+     *
+     * @param x Local block position on the x-axis
+     * @param z Local block position on the z-axis
+     * @return The height, -1 if the sunlight reaches the bottom of the column
+     */
+    public int getSunlightHeight(int x, int z) {
+        if (x < 0 || z < 0 || x >= CHUNK_DIMENSION_X || z >= CHUNK_DIMENSION_Z) {
+            return -1;
+        }
+
+        return _sunlightHeightmap[x * CHUNK_DIMENSION_Z + z];
+    }
+
+    /**
+     * Returns true if the given block keeps the sunlight from passing. Only invisible blocks and billboards
+     * let it through, all other blocks cast a shadow.
+     *
+     * @param block The block
+     * @return True if the block casts a shadow
+     */
+    public static boolean blocksSunlight(Block block) {
+        return !block.isInvisible() && block.getBlockForm() != Block.BLOCK_FORM.BILLBOARD;
+    }
+
+    /**
+     * Updates the heightmaps after the block at the given position has changed.
+     */
+    private void updateHeightmap(int x, int y, int z, byte type) {
+        int index = x * CHUNK_DIMENSION_Z + z;
+        Block block = BlockManager.getInstance().getBlock(type);
+
+        if (!block.isTranslucent()) {
+            if (y > _heightmap[index])
+                _heightmap[index] = (short) y;
+        } else if (y == _heightmap[index]) {
+            // The surface block was removed, look for the next one below
+            _heightmap[index] = (short) findSurfaceHeight(x, y - 1, z, false);
+        }
+
+        if (blocksSunlight(block)) {
+            if (y > _sunlightHeightmap[index])
+                _sunlightHeightmap[index] = (short) y;
+        } else if (y == _sunlightHeightmap[index]) {
+            _sunlightHeightmap[index] = (short) findSurfaceHeight(x, y - 1, z, true);
+        }
+    }
+
+    /**
+     * Recalculates the whole heightmaps from the block data.
+     */
+    private void rebuildHeightmap() {
+        for (int x = 0; x < CHUNK_DIMENSION_X; x++) {
+            for (int z = 0; z < CHUNK_DIMENSION_Z; z++) {
+                _heightmap[x * CHUNK_DIMENSION_Z + z] = (short) findSurfaceHeight(x, CHUNK_DIMENSION_Y - 1, z, false);
+                _sunlightHeightmap[x * CHUNK_DIMENSION_Z + z] = (short) findSurfaceHeight(x, CHUNK_DIMENSION_Y - 1, z, true);
+            }
+        }
+    }
+
+    /**
+     * Returns the height of the highest non-translucent block, or the highest block casting a shadow
+     * if sunlight is set, at or below the given height.
+     */
+    private int findSurfaceHeight(int x, int startY, int z, boolean sunlight) {
+        for (int y = startY; y >= 0; y--) {
+            ChunkSection section = _sections[y / ChunkSection.SECTION_DIMENSION_Y];
+
+            // Skip sections consisting of a single block which doesn't count
+            if (section.isUniform() && !isSurfaceBlock(BlockManager.getInstance().getBlock(section.getBlock(0, 0, 0)), sunlight)) {
+                y -= y % ChunkSection.SECTION_DIMENSION_Y;
+                continue;
+            }
+
+            if (isSurfaceBlock(BlockManager.getInstance().getBlock(getBlock(x, y, z)), sunlight))
+                return y;
+        }
+
+        return -1;
+    }
+
+    private static boolean isSurfaceBlock(Block block, boolean sunlight) {
+        return sunlight ? blocksSunlight(block) : !block.isTranslucent();
     }
 
     /**
@@ -488,15 +566,18 @@ public class Chunk extends StaticEntity implements Comparable<Chunk>, Externaliz
      * @param type The block type
      */
     public void setBlock(int x, int y, int z, byte type) {
-        byte oldValue = _blocks.get(x, y, z);
-        _blocks.set(x, y, z, type);
-
-        if (oldValue != type) {
-            // Update vertex arrays and light
-            setDirty(true);
-            // Mark the neighbors as dirty
-            markNeighborsDirty(x, z);
+        if (!isInBounds(x, y, z) || getBlock(x, y, z) == type) {
+            return;
         }
+
+        getModifiableSection(y).setBlock(x, y % ChunkSection.SECTION_DIMENSION_Y, z, type);
+        updateHeightmap(x, y, z, type);
+        markModified();
+
+        // Update vertex arrays and light
+        setDirty(true);
+        // Mark the neighbors as dirty
+        markNeighborsDirty(x, z);
     }
 
     /**
@@ -508,7 +589,67 @@ public class Chunk extends StaticEntity implements Comparable<Chunk>, Externaliz
      * @param type The block type
      */
     public void setState(int x, int y, int z, byte type) {
-        _states.set(x, y, z, type);
+        if (!isInBounds(x, y, z) || getState(x, y, z) == type) {
+            return;
+        }
+
+        getModifiableSection(y).setState(x, y % ChunkSection.SECTION_DIMENSION_Y, z, type);
+        markModified();
+    }
+
+    /**
+     * Returns the section containing the given local block position on the y-axis. Uniform sections
+     * are replaced with a modifiable copy first.
+     *
+     * @param y Local block position on the y-axis
+     * @return The modifiable section
+     */
+    private ChunkSection getModifiableSection(int y) {
+        int index = y / ChunkSection.SECTION_DIMENSION_Y;
+        ChunkSection section = _sections[index];
+
+        if (section.isUniform()) {
+            synchronized (_sections) {
+                section = _sections[index];
+
+                if (section.isUniform()) {
+                    section = section.materialize();
+                    _sections[index] = section;
+                }
+            }
+        }
+
+        return section;
+    }
+
+    /**
+     * Replaces all sections containing only one kind of voxel with the shared uniform sections.
+     */
+    public void compactSections() {
+        synchronized (_sections) {
+            for (int i = 0; i < SECTION_COUNT; i++) {
+                ChunkSection section = _sections[i].compact();
+
+                if (section != _sections[i] && ChunkSection.getAllocator() != null)
+                    _replacedSections.add(_sections[i]);
+
+                _sections[i] = section;
+            }
+        }
+    }
+
+    /**
+     * Returns the section with the given index. Section 0 is the lowest one.
+     *
+     * @param index The index of the section
+     * @return The section
+     */
+    public ChunkSection getSection(int index) {
+        return _sections[index];
+    }
+
+    private static boolean isInBounds(int x, int y, int z) {
+        return x >= 0 && y >= 0 && z >= 0 && x < CHUNK_DIMENSION_X && y < CHUNK_DIMENSION_Y && z < CHUNK_DIMENSION_Z;
     }
 
     /**
@@ -552,6 +693,14 @@ public class Chunk extends StaticEntity implements Comparable<Chunk>, Externaliz
      * @param z Local block position on the z-axis
      */
     private void markNeighborsDirty(int x, int z) {
+        // Chunks not bound to a world (like the baselines of delta encoded chunks) have no neighbors
+        if (_parent == null)
+            return;
+
+        // Only blocks at the border affect the meshes of the neighbors
+        if (x > 0 && z > 0 && x < CHUNK_DIMENSION_X - 1 && z < CHUNK_DIMENSION_Z - 1)
+            return;
+
         Chunk[] neighbors = loadOrCreateNeighbors();
 
         if (x == 0 && neighbors[1] != null) {
@@ -665,6 +814,38 @@ public class Chunk extends StaticEntity implements Comparable<Chunk>, Externaliz
     }
 
     public void writeExternal(ObjectOutput out) throws IOException {
+        writeData(out);
+    }
+
+    public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
+        readData(in);
+    }
+
+    /**
+     * Returns the data written by writeData as a byte array.
+     *
+     * @return The data
+     */
+    public byte[] serialize() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(SERIALIZED_SIZE);
+
+        try {
+            writeData(new DataOutputStream(bytes));
+        } catch (IOException e) {
+            // Byte array streams do not throw
+            throw new IllegalStateException(e);
+        }
+
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Writes the position, flags and voxel data of this chunk to the given output.
+     *
+     * @param out The output
+     * @throws IOException If writing to the output failed
+     */
+    public void writeData(DataOutput out) throws IOException {
         out.writeInt((int) getPosition().x);
         out.writeInt((int) getPosition().z);
 
@@ -680,20 +861,41 @@ public class Chunk extends StaticEntity implements Comparable<Chunk>, Externaliz
         // The flags are stored in the first byte of the file...
         out.writeByte(flags);
 
-        for (int i = 0; i < _blocks.size(); i++)
-            out.writeByte(_blocks.getRawByte(i));
+        // Collect the values first, so they can be written as a whole
+        byte[] data = new byte[BLOCK_COUNT];
+
+        for (int i = 0; i < BLOCK_COUNT; i++)
+            data[i] = getBlock(rawPosX(i), rawPosY(i), rawPosZ(i));
+
+        out.write(data);
+
+        // Light values and states are packed as two nibbles; the low nibbles hold the first half of the chunk
+        int half = BLOCK_COUNT / 2;
+
+        for (int i = 0; i < half; i++)
+            data[i] = packNibbles(getLight(rawPosX(i), rawPosY(i), rawPosZ(i), LIGHT_TYPE.SUN), getLight(rawPosX(i + half), rawPosY(i + half), rawPosZ(i + half), LIGHT_TYPE.SUN));
 
-        for (int i = 0; i < _sunlight.sizePacked(); i++)
-            out.writeByte(_sunlight.getRawByte(i));
+        out.write(data, 0, half);
 
-        for (int i = 0; i < _light.sizePacked(); i++)
-            out.writeByte(_light.getRawByte(i));
+        for (int i = 0; i < half; i++)
+            data[i] = packNibbles(getLight(rawPosX(i), rawPosY(i), rawPosZ(i), LIGHT_TYPE.BLOCK), getLight(rawPosX(i + half), rawPosY(i + half), rawPosZ(i + half), LIGHT_TYPE.BLOCK));
 
-        for (int i = 0; i < _states.sizePacked(); i++)
-            out.writeByte(_states.getRawByte(i));
+        out.write(data, 0, half);
+
+        for (int i = 0; i < half; i++)
+            data[i] = packNibbles(getState(rawPosX(i), rawPosY(i), rawPosZ(i)), getState(rawPosX(i + half), rawPosY(i + half), rawPosZ(i + half)));
+
+        out.write(data, 0, half);
     }
 
-    public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
+    /**
+     * Reads the position, flags and voxel data written by writeData. The chunk has to contain
+     * nothing but air, like freshly created chunks do.
+     *
+     * @param in The input
+     * @throws IOException If reading from the input failed
+     */
+    public void readData(DataInput in) throws IOException {
         getPosition().x = in.readInt();
         getPosition().z = in.readInt();
 
@@ -703,17 +905,80 @@ public class Chunk extends StaticEntity implements Comparable<Chunk>, Externaliz
         setLightDirty(Helper.isFlagSet(flags, (short) 0));
         setFresh(Helper.isFlagSet(flags, (short) 1));
 
-        for (int i = 0; i < _blocks.size(); i++)
-            _blocks.setRawByte(i, in.readByte());
+        byte[] blocks = new byte[BLOCK_COUNT];
+        in.readFully(blocks);
+
+        for (int i = 0; i < BLOCK_COUNT; i++)
+            setBlockValue(rawPosX(i), rawPosY(i), rawPosZ(i), blocks[i]);
+
+        rebuildHeightmap();
+
+        // Light values and states are persisted in the layout of the former TeraSmartArrays
+        TeraNibbleArray sunlight = readSmartArrayLayout(in);
+        TeraNibbleArray light = readSmartArrayLayout(in);
+        TeraNibbleArray states = readSmartArrayLayout(in);
+
+        byte[] column = new byte[CHUNK_DIMENSION_Y];
+
+        for (int i = 0; i < SECTION_COUNT; i++) {
+            getModifiableSection(i * ChunkSection.SECTION_DIMENSION_Y);
+        }
+
+        for (int x = 0; x < CHUNK_DIMENSION_X; x++) {
+            for (int z = 0; z < CHUNK_DIMENSION_Z; z++) {
+                sunlight.getColumn(x, z, column, 0);
+                for (int i = 0; i < SECTION_COUNT; i++)
+                    _sections[i].setLightColumn(x, z, column, i * ChunkSection.SECTION_DIMENSION_Y, LIGHT_TYPE.SUN);
+
+                light.getColumn(x, z, column, 0);
+                for (int i = 0; i < SECTION_COUNT; i++)
+                    _sections[i].setLightColumn(x, z, column, i * ChunkSection.SECTION_DIMENSION_Y, LIGHT_TYPE.BLOCK);
+
+                states.getColumn(x, z, column, 0);
+                for (int i = 0; i < SECTION_COUNT; i++)
+                    _sections[i].setStateColumn(x, z, column, i * ChunkSection.SECTION_DIMENSION_Y);
+            }
+        }
+
+        compactSections();
 
-        for (int i = 0; i < _sunlight.sizePacked(); i++)
-            _sunlight.setRawByte(i, in.readByte());
+        // Matches the persisted data now
+        setModified(false);
+    }
 
-        for (int i = 0; i < _light.sizePacked(); i++)
-            _light.setRawByte(i, in.readByte());
+    private static TeraNibbleArray readSmartArrayLayout(DataInput in) throws IOException {
+        byte[] packed = new byte[BLOCK_COUNT / 2];
+        in.readFully(packed);
 
-        for (int i = 0; i < _states.sizePacked(); i++)
-            _states.setRawByte(i, in.readByte());
+        return TeraNibbleArray.fromSmartArrayLayout(CHUNK_DIMENSION_X, CHUNK_DIMENSION_Y, CHUNK_DIMENSION_Z, packed);
+    }
+
+    /**
+     * Sets the block value at the given position without marking the chunk or its neighbors dirty.
+     */
+    private void setBlockValue(int x, int y, int z, byte type) {
+        if (getBlock(x, y, z) != type) {
+            getModifiableSection(y).setBlock(x, y % ChunkSection.SECTION_DIMENSION_Y, z, type);
+        }
+    }
+
+    /*
+    * The serialized arrays are ordered like the former flat chunk arrays: x * DIM_X * DIM_Y + y * DIM_X + z
+    */
+    private static int rawPosX(int i) {
+        return i / (CHUNK_DIMENSION_X * CHUNK_DIMENSION_Y);
+    }
+
+    private static int rawPosY(int i) {
+        return (i / CHUNK_DIMENSION_X) % CHUNK_DIMENSION_Y;
+    }
+
+    private static int rawPosZ(int i) {
+        return i % CHUNK_DIMENSION_X;
+    }
+
+    private static byte packNibbles(byte low, byte high) {
+        return (byte) ((low & 0x0F) | ((high & 0x0F) << 4));
     }
 
     /**
@@ -892,6 +1157,25 @@ public class Chunk extends StaticEntity implements Comparable<Chunk>, Externaliz
         return z + getChunkWorldPosZ();
     }
 
+    /**
+     * Returns the chunk containing the given block position. Positions within this chunk are resolved
+     * right away, so loops working on the blocks of a chunk and its borders rarely have to look up
+     * chunks in the chunk provider.
+     *
+     * @param x Block position on the x-axis in world space
+     * @param z Block position on the z-axis in world space
+     * @return The chunk
+     */
+    public Chunk getChunkForWorldPos(int x, int z) {
+        int localX = x - getChunkWorldPosX();
+        int localZ = z - getChunkWorldPosZ();
+
+        if (localX >= 0 && localX < CHUNK_DIMENSION_X && localZ >= 0 && localZ < CHUNK_DIMENSION_Z)
+            return this;
+
+        return _parent.getChunkProvider().loadOrCreateChunk(MathHelper.calcChunkPosX(x), MathHelper.calcChunkPosZ(z));
+    }
+
     public LocalWorldProvider getParent() {
         return _parent;
     }
@@ -908,6 +1192,14 @@ public class Chunk extends StaticEntity implements Comparable<Chunk>, Externaliz
         return _lightDirty;
     }
 
+    /**
+     * Returns true if the blocks, light values or states of this chunk have been changed since
+     * it was loaded or handed over for saving.
+     */
+    public boolean isModified() {
+        return _modified;
+    }
+
     public void setFresh(boolean fresh) {
         _fresh = fresh;
     }
@@ -920,6 +1212,54 @@ public class Chunk extends StaticEntity implements Comparable<Chunk>, Externaliz
         _lightDirty = lightDirty;
     }
 
+    public void setModified(boolean modified) {
+        _modified = modified;
+    }
+
+    /**
+     * Returns the estimated amount of bytes occupied by this chunk: the materialized voxel data and the
+     * CPU-side data of the active and pending meshes.
+     *
+     * @return The amount of bytes
+     */
+    public long estimateMemoryUsage() {
+        long result = FIXED_MEMORY_USAGE;
+
+        for (int i = 0; i < SECTION_COUNT; i++)
+            result += _sections[i].estimateMemoryUsage();
+
+        result += estimateMemoryUsage(_activeMeshes);
+        result += estimateMemoryUsage(_newMeshes);
+
+        return result;
+    }
+
+    private static long estimateMemoryUsage(ChunkMesh[] meshes) {
+        if (meshes == null)
+            return 0;
+
+        long result = 0;
+
+        for (ChunkMesh mesh : meshes)
+            result += mesh.estimateMemoryUsage();
+
+        return result;
+    }
+
+    int getLastAccess() {
+        return _lastAccess;
+    }
+
+    void setLastAccess(int lastAccess) {
+        _lastAccess = lastAccess;
+    }
+
+    private void markModified() {
+        // Avoid the volatile write on the hot path
+        if (!_modified)
+            _modified = true;
+    }
+
     public void setPosition(Vector3d position) {
         super.setPosition(position);
     }
@@ -956,7 +1296,8 @@ public class Chunk extends StaticEntity implements Comparable<Chunk>, Externaliz
 
 
     /**
-     * Disposes this chunk. Can NOT be undone.
+     * Disposes this chunk. Can NOT be undone. The chunk is retired and reclaimed by the ChunkReclaimer as soon as
+     * no thread can reach it anymore.
      */
     public void dispose() {
         synchronized (this) {
@@ -973,6 +1314,77 @@ public class Chunk extends StaticEntity implements Comparable<Chunk>, Externaliz
 
             _disposed = true;
         }
+
+        ChunkReclaimer.retire(this);
+    }
+
+    /**
+     * Releases the voxel data of this disposed chunk and returns it to its pool. Only called by the ChunkReclaimer,
+     * so neither the eviction, a pin nor any section of the reclaimer can reach the released sections anymore.
+     */
+    void reclaim() {
+        synchronized (_sections) {
+            for (int i = 0; i < SECTION_COUNT; i++) {
+                _sections[i].release();
+                _sections[i] = ChunkSection.uniform((byte) 0, (byte) 15, (byte) 0, (byte) 0);
+            }
+
+            for (ChunkSection section : _replacedSections)
+                section.release();
+
+            _replacedSections.clear();
+        }
+
+        Arrays.fill(_heightmap, (short) -1);
+        Arrays.fill(_sunlightHeightmap, (short) -1);
+
+        if (_pool != null)
+            _pool.free(this);
+    }
+
+    /**
+     * Keeps this chunk in the cache until it is unpinned again. Needed by everybody holding on to the chunk
+     * beyond a section of the ChunkReclaimer, like the chunks around the player or queued chunk updates.
+     *
+     * @return False if the chunk is leaving the cache or has been disposed, the chunk must not be used then
+     */
+    public boolean pin() {
+        while (true) {
+            int pins = _pins.get();
+
+            if (pins < 0 || _disposed)
+                return false;
+
+            if (_pins.compareAndSet(pins, pins + 1))
+                return true;
+        }
+    }
+
+    /**
+     * Releases a pin taken by pin().
+     */
+    public void unpin() {
+        _pins.decrementAndGet();
+    }
+
+    /**
+     * Returns true if this chunk is pinned and can't be evicted.
+     */
+    public boolean isPinned() {
+        return _pins.get() > 0;
+    }
+
+    /**
+     * Keeps this chunk from being pinned while it leaves the cache.
+     *
+     * @return False if the chunk is pinned and has to stay in the cache
+     */
+    boolean claimForEviction() {
+        return _pins.compareAndSet(0, -1);
+    }
+
+    void setPool(ChunkPool pool) {
+        _pool = pool;
     }
 
     public boolean isReadyForRendering() {
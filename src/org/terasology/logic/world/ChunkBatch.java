@@ -0,0 +1,205 @@
+/*
+ * Copyright 2011 Benjamin Glatzel <benjamin.glatzel@me.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.logic.world;
+
+import org.terasology.game.Terasology;
+import org.terasology.utilities.MathHelper;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Generates and lights many chunks at once, using all processors. Used for the initial world instead of
+ * processing the chunks one by one.
+ * <p/>
+ * The work is scheduled in colored phases, so no two tasks ever write the same chunk at the same time:
+ * chunks of one color are processed in parallel, the colors one after another.
+ *
+ * @author Benjamin Glatzel <benjamin.glatzel@me.com>
+ */
+public final class ChunkBatch {
+
+    /* CONST */
+    private static final int THREADS = Runtime.getRuntime().availableProcessors();
+
+    private interface Task {
+        void run(int index);
+    }
+
+    private ChunkBatch() {
+    }
+
+    /**
+     * Generates all fresh chunks of the given collection. Generators also place blocks in the adjacent chunks,
+     * so the chunks are colored in a 3x3 pattern.
+     *
+     * @param chunks The chunks
+     */
+    public static void generate(Collection<Chunk> chunks) {
+        ArrayList<ArrayList<Chunk>> colors = new ArrayList<ArrayList<Chunk>>();
+
+        for (int i = 0; i < 9; i++)
+            colors.add(new ArrayList<Chunk>());
+
+        for (Chunk c : chunks) {
+            if (c.isFresh()) {
+                int x = ((int) c.getPosition().x % 3 + 3) % 3, z = ((int) c.getPosition().z % 3 + 3) % 3;
+                colors.get(x * 3 + z).add(c);
+            }
+        }
+
+        for (final ArrayList<Chunk> color : colors) {
+            runParallel(color.size(), new Task() {
+                public void run(int index) {
+                    color.get(index).generate();
+                }
+            });
+        }
+    }
+
+    /**
+     * Lights all generated chunks of the given collection whose light is dirty. The chunks are seeded and lit
+     * in parallel. Afterwards the light crossing chunk borders is exchanged in a checkerboard schedule until
+     * no light is left to spread.
+     *
+     * @param chunks The chunks
+     * @return The amount of processed voxels
+     */
+    public static long light(Collection<Chunk> chunks) {
+        final ArrayList<Chunk> batch = new ArrayList<Chunk>();
+
+        for (Chunk c : chunks) {
+            if (!c.isFresh() && c.isLightDirty())
+                batch.add(c);
+        }
+
+        final HashMap<Long, ChunkLightPropagator> sunlight = new HashMap<Long, ChunkLightPropagator>();
+        final HashMap<Long, ChunkLightPropagator> blockLight = new HashMap<Long, ChunkLightPropagator>();
+
+        final ChunkLightPropagator[] sunlightPropagators = new ChunkLightPropagator[batch.size()];
+        final ChunkLightPropagator[] blockLightPropagators = new ChunkLightPropagator[batch.size()];
+
+        for (int i = 0; i < batch.size(); i++) {
+            Chunk c = batch.get(i);
+            long key = MathHelper.packCoordinates((int) c.getPosition().x, (int) c.getPosition().z);
+
+            sunlightPropagators[i] = new ChunkLightPropagator(c, Chunk.LIGHT_TYPE.SUN);
+            blockLightPropagators[i] = new ChunkLightPropagator(c, Chunk.LIGHT_TYPE.BLOCK);
+
+            sunlight.put(key, sunlightPropagators[i]);
+            blockLight.put(key, blockLightPropagators[i]);
+        }
+
+        // Every task only touches its own chunk
+        runParallel(batch.size(), new Task() {
+            public void run(int index) {
+                batch.get(index).seedLight(sunlightPropagators[index], blockLightPropagators[index]);
+                sunlightPropagators[index].propagate();
+                blockLightPropagators[index].propagate();
+            }
+        });
+
+        exchangeHalos(sunlight);
+        exchangeHalos(blockLight);
+
+        ChunkLightPropagator.markDirty(sunlight);
+        ChunkLightPropagator.markDirty(blockLight);
+
+        for (Chunk c : batch)
+            c.setLightDirty(false);
+
+        long processedVoxels = 0;
+
+        for (ChunkLightPropagator propagator : sunlight.values())
+            processedVoxels += propagator.getProcessedVoxels();
+
+        for (ChunkLightPropagator propagator : blockLight.values())
+            processedVoxels += propagator.getProcessedVoxels();
+
+        return processedVoxels;
+    }
+
+    private static void exchangeHalos(final HashMap<Long, ChunkLightPropagator> propagators) {
+        int color = 0, idleColors = 0;
+
+        // Adjacent chunks never share a color, so a receiver is the only one accessing the halos leading into it
+        while (idleColors < 2) {
+            final ArrayList<ChunkLightPropagator> receivers = new ArrayList<ChunkLightPropagator>();
+
+            for (ChunkLightPropagator receiver : ChunkLightPropagator.collectReceivers(propagators)) {
+                if (receiver.getColor() == color)
+                    receivers.add(receiver);
+            }
+
+            if (receivers.isEmpty()) {
+                idleColors++;
+            } else {
+                idleColors = 0;
+
+                runParallel(receivers.size(), new Task() {
+                    public void run(int index) {
+                        receivers.get(index).receiveHalos(propagators);
+                        receivers.get(index).propagate();
+                    }
+                });
+            }
+
+            color ^= 1;
+        }
+    }
+
+    /**
+     * Runs the given task for all indices, using the calling thread and the thread pool.
+     */
+    private static void runParallel(final int count, final Task task) {
+        final AtomicInteger next = new AtomicInteger();
+
+        Runnable worker = new Runnable() {
+            public void run() {
+                for (int i = next.getAndIncrement(); i < count; i = next.getAndIncrement())
+                    task.run(i);
+            }
+        };
+
+        int threads = Math.min(THREADS, count);
+        ArrayList<FutureTask<Object>> workers = new ArrayList<FutureTask<Object>>();
+
+        for (int i = 1; i < threads; i++) {
+            FutureTask<Object> future = new FutureTask<Object>(worker, null);
+            Terasology.getInstance().getThreadPool().execute(future);
+            workers.add(future);
+        }
+
+        worker.run();
+
+        for (FutureTask<Object> future : workers) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for the chunk batch.", e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException)
+                    throw (RuntimeException) e.getCause();
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+    }
+}
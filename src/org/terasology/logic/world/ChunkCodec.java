@@ -0,0 +1,313 @@
+/*
+ * Copyright 2011 Benjamin Glatzel <benjamin.glatzel@me.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.logic.world;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Encodes the persisted data of chunks. Encoded data starts with a header containing a magic number, the
+ * format version, the codec type, the length of the decoded data and a CRC32 checksum of the decoded data.
+ * <p/>
+ * The codec type is stored per chunk, so every codec is able to decode the data of all other codecs.
+ * Data without the header (written before codecs were introduced) is passed through unchanged.
+ *
+ * @author Benjamin Glatzel <benjamin.glatzel@me.com>
+ */
+public final class ChunkCodec {
+
+    /* The ordinal is persisted, so new types have to be appended */
+    public enum CODEC_TYPE {
+        NONE, DEFLATE, RLE_DEFLATE
+    }
+
+    /* CONSTANT VALUES */
+    private static final int MAGIC = 0x54455241; // "TERA"
+    private static final byte VERSION = 1;
+    private static final int HEADER_SIZE = 14;
+
+    private final CODEC_TYPE _type;
+
+    /* STATISTICS */
+    private final AtomicLong _encodedChunks = new AtomicLong(), _rawBytesEncoded = new AtomicLong(), _encodedBytes = new AtomicLong();
+    private final AtomicLong _rawBytesDecoded = new AtomicLong();
+    private final AtomicLong _encodeTime = new AtomicLong(), _decodeTime = new AtomicLong();
+
+    /**
+     * Init. a new codec.
+     *
+     * @param type The codec type used for encoding
+     */
+    public ChunkCodec(CODEC_TYPE type) {
+        _type = type;
+    }
+
+    /**
+     * Encodes the given data.
+     *
+     * @param data   The data
+     * @param length The amount of bytes to encode
+     * @return The encoded data including the header
+     */
+    public byte[] encode(byte[] data, int length) {
+        long start = System.nanoTime();
+
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, length);
+
+        byte[] body;
+
+        switch (_type) {
+            case DEFLATE:
+                body = deflate(data, length);
+                break;
+            case RLE_DEFLATE:
+                byte[] rle = encodeRunLength(data, length);
+                body = deflate(rle, rle.length);
+                break;
+            default:
+                body = null;
+        }
+
+        int bodyLength = body != null ? body.length : length;
+
+        ByteBuffer result = ByteBuffer.allocate(HEADER_SIZE + bodyLength);
+        result.putInt(MAGIC);
+        result.put(VERSION);
+        result.put((byte) _type.ordinal());
+        result.putInt(length);
+        result.putInt((int) crc.getValue());
+        result.put(body != null ? body : data, 0, bodyLength);
+
+        _encodeTime.addAndGet(System.nanoTime() - start);
+        _encodedChunks.incrementAndGet();
+        _rawBytesEncoded.addAndGet(length);
+        _encodedBytes.addAndGet(result.capacity());
+
+        return result.array();
+    }
+
+    /**
+     * Decodes data written by any codec.
+     *
+     * @param data The encoded data
+     * @return The decoded data
+     * @throws IOException If the data is damaged or was written by an unknown codec
+     */
+    public byte[] decode(byte[] data) throws IOException {
+        ByteBuffer in = ByteBuffer.wrap(data);
+
+        if (data.length < HEADER_SIZE || in.getInt() != MAGIC)
+            return data;
+
+        long start = System.nanoTime();
+
+        byte version = in.get();
+        int type = in.get();
+        int length = in.getInt();
+        int checksum = in.getInt();
+
+        if (version != VERSION)
+            throw new IOException("Unknown chunk data version: " + version);
+        if (type < 0 || type >= CODEC_TYPE.values().length)
+            throw new IOException("Unknown chunk codec: " + type);
+
+        byte[] result;
+
+        switch (CODEC_TYPE.values()[type]) {
+            case DEFLATE:
+                result = inflate(data, HEADER_SIZE, length);
+                break;
+            case RLE_DEFLATE:
+                result = decodeRunLength(inflate(data, HEADER_SIZE, -1), length);
+                break;
+            default:
+                if (data.length - HEADER_SIZE != length)
+                    throw new IOException("Chunk data has been truncated.");
+
+                result = new byte[length];
+                System.arraycopy(data, HEADER_SIZE, result, 0, length);
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(result);
+
+        if ((int) crc.getValue() != checksum)
+            throw new IOException("Checksum mismatch in chunk data.");
+
+        _decodeTime.addAndGet(System.nanoTime() - start);
+        _rawBytesDecoded.addAndGet(length);
+
+        return result;
+    }
+
+    private static byte[] deflate(byte[] data, int length) {
+        Deflater deflater = new Deflater();
+        deflater.setInput(data, 0, length);
+        deflater.finish();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(length / 4 + 64);
+        byte[] buffer = new byte[8192];
+
+        while (!deflater.finished()) {
+            int n = deflater.deflate(buffer);
+            out.write(buffer, 0, n);
+        }
+
+        deflater.end();
+        return out.toByteArray();
+    }
+
+    /**
+     * Inflates the data starting at the given offset.
+     *
+     * @param length The expected length of the result, -1 if unknown
+     */
+    private static byte[] inflate(byte[] data, int offset, int length) throws IOException {
+        Inflater inflater = new Inflater();
+        inflater.setInput(data, offset, data.length - offset);
+
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(length > 0 ? length : 4 * (data.length - offset));
+            byte[] buffer = new byte[8192];
+
+            while (!inflater.finished()) {
+                int n = inflater.inflate(buffer);
+
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                    throw new IOException("Chunk data has been truncated.");
+
+                out.write(buffer, 0, n);
+            }
+
+            if (length >= 0 && out.size() != length)
+                throw new IOException("Unexpected length of chunk data.");
+
+            return out.toByteArray();
+        } catch (DataFormatException e) {
+            throw new IOException(e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Encodes runs of equal bytes (PackBits). A control byte n in [0, 127] is followed by n + 1 literal bytes,
+     * a control byte n in [-127, -1] is followed by a single byte repeated 1 - n times.
+     */
+    private static byte[] encodeRunLength(byte[] data, int length) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(length / 8 + 64);
+
+        int i = 0;
+        while (i < length) {
+            int run = 1;
+            while (i + run < length && run < 128 && data[i + run] == data[i])
+                run++;
+
+            if (run > 1) {
+                out.write(1 - run);
+                out.write(data[i]);
+                i += run;
+                continue;
+            }
+
+            // Collect literals until the next run of at least two equal bytes starts
+            int literals = 1;
+            while (i + literals < length && literals < 128 && (i + literals + 1 >= length || data[i + literals] != data[i + literals + 1]))
+                literals++;
+
+            out.write(literals - 1);
+            out.write(data, i, literals);
+            i += literals;
+        }
+
+        return out.toByteArray();
+    }
+
+    private static byte[] decodeRunLength(byte[] data, int length) throws IOException {
+        byte[] result = new byte[length];
+
+        int pos = 0;
+        int i = 0;
+
+        try {
+            while (i < data.length) {
+                int n = data[i++];
+
+                if (n >= 0) {
+                    System.arraycopy(data, i, result, pos, n + 1);
+                    i += n + 1;
+                    pos += n + 1;
+                } else if (n != -128) {
+                    byte b = data[i++];
+                    for (int j = 0; j < 1 - n; j++)
+                        result[pos++] = b;
+                }
+            }
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("Damaged run length encoded chunk data.");
+        }
+
+        if (pos != length)
+            throw new IOException("Unexpected length of chunk data.");
+
+        return result;
+    }
+
+    /**
+     * Returns the codec type used for encoding.
+     */
+    public CODEC_TYPE getType() {
+        return _type;
+    }
+
+    /**
+     * Returns the ratio between the encoded and the original size of all chunks encoded so far.
+     */
+    public double getCompressionRatio() {
+        long decoded = _rawBytesEncoded.get();
+        return decoded > 0 ? (double) _encodedBytes.get() / decoded : 1.0;
+    }
+
+    /**
+     * Returns the amount of original data encoded per second in MB.
+     */
+    public double getEncodeThroughput() {
+        return throughput(_rawBytesEncoded.get(), _encodeTime.get());
+    }
+
+    /**
+     * Returns the amount of original data decoded per second in MB.
+     */
+    public double getDecodeThroughput() {
+        return throughput(_rawBytesDecoded.get(), _decodeTime.get());
+    }
+
+    private static double throughput(long bytes, long nanos) {
+        return nanos > 0 ? (bytes / (1024.0 * 1024.0)) / (nanos / 1e9) : 0.0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("chunk codec (type: %s, chunks: %d, ratio: %.3f, encode: %.1f MB/s, decode: %.1f MB/s)", _type, _encodedChunks.get(), getCompressionRatio(), getEncodeThroughput(), getDecodeThroughput());
+    }
+}
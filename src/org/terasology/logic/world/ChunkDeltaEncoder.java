@@ -0,0 +1,205 @@
+/*
+ * Copyright 2011 Benjamin Glatzel <benjamin.glatzel@me.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.logic.world;
+
+import org.terasology.logic.generators.ChunkGenerator;
+
+import javax.vecmath.Vector3d;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stores chunks as the difference to the terrain generated from the seed of the world. Only the blocks
+ * and states which differ from the regenerated baseline are kept, the light values are kept as they are
+ * (they compress well and can't be derived from the blocks of a single chunk).
+ * <p/>
+ * Works on the data written by Chunk.writeData. Chunks with too many differences are kept unchanged,
+ * the same goes for all chunks if encoding is disabled. Decoding is always possible.
+ *
+ * @author Benjamin Glatzel <benjamin.glatzel@me.com>
+ */
+public final class ChunkDeltaEncoder {
+
+    /* CONSTANT VALUES */
+    private static final int MAGIC = 0x444C5441; // "DLTA"
+    private static final int HEADER_SIZE = 9;
+    private static final int BLOCKS_OFFSET = HEADER_SIZE;
+    private static final int SUNLIGHT_OFFSET = BLOCKS_OFFSET + Chunk.BLOCK_COUNT;
+    private static final int LIGHT_OFFSET = SUNLIGHT_OFFSET + Chunk.BLOCK_COUNT / 2;
+    private static final int STATES_OFFSET = LIGHT_OFFSET + Chunk.BLOCK_COUNT / 2;
+
+    /* Beyond this amount of differences storing the whole chunk is cheaper */
+    private static final int MAX_DIFFERENCES = Chunk.BLOCK_COUNT / 16;
+
+    private final ChunkGenerator _terrainGenerator;
+    private final boolean _enabled;
+
+    /* STATISTICS */
+    private final AtomicLong _deltaChunks = new AtomicLong(), _fullChunks = new AtomicLong(), _differences = new AtomicLong();
+
+    /**
+     * Init. a new delta encoder.
+     *
+     * @param terrainGenerator The generator creating the baseline
+     * @param enabled          False to keep all chunks unchanged
+     */
+    public ChunkDeltaEncoder(ChunkGenerator terrainGenerator, boolean enabled) {
+        _terrainGenerator = terrainGenerator;
+        _enabled = enabled;
+    }
+
+    /**
+     * Encodes the given chunk data as difference to the baseline.
+     *
+     * @param data The data written by Chunk.writeData
+     * @return The encoded data, the given data if the difference is too large
+     */
+    public byte[] encode(byte[] data) {
+        if (!_enabled)
+            return data;
+
+        ByteBuffer in = ByteBuffer.wrap(data);
+        byte[] baseline = generateBaseline(in.getInt(0), in.getInt(4));
+
+        int blockDifferences = 0;
+        for (int i = 0; i < Chunk.BLOCK_COUNT; i++) {
+            if (data[BLOCKS_OFFSET + i] != baseline[BLOCKS_OFFSET + i])
+                blockDifferences++;
+        }
+
+        // The baseline has no states at all
+        int stateDifferences = 0;
+        for (int i = 0; i < Chunk.BLOCK_COUNT / 2; i++) {
+            if ((data[STATES_OFFSET + i] & 0x0F) != 0)
+                stateDifferences++;
+            if ((data[STATES_OFFSET + i] & 0xF0) != 0)
+                stateDifferences++;
+        }
+
+        if (blockDifferences + stateDifferences > MAX_DIFFERENCES) {
+            _fullChunks.incrementAndGet();
+            return data;
+        }
+
+        ByteBuffer out = ByteBuffer.allocate(4 + HEADER_SIZE + 8 + 3 * (blockDifferences + stateDifferences) + Chunk.BLOCK_COUNT);
+        out.putInt(MAGIC);
+        out.put(data, 0, HEADER_SIZE);
+
+        out.putInt(blockDifferences);
+        for (int i = 0; i < Chunk.BLOCK_COUNT; i++) {
+            if (data[BLOCKS_OFFSET + i] != baseline[BLOCKS_OFFSET + i]) {
+                out.putShort((short) i);
+                out.put(data[BLOCKS_OFFSET + i]);
+            }
+        }
+
+        out.putInt(stateDifferences);
+        for (int i = 0; i < Chunk.BLOCK_COUNT; i++) {
+            byte state = getNibble(data, STATES_OFFSET, i);
+
+            if (state != 0) {
+                out.putShort((short) i);
+                out.put(state);
+            }
+        }
+
+        out.put(data, SUNLIGHT_OFFSET, Chunk.BLOCK_COUNT);
+
+        _deltaChunks.incrementAndGet();
+        _differences.addAndGet(blockDifferences + stateDifferences);
+
+        return out.array();
+    }
+
+    /**
+     * Restores the chunk data from the given data.
+     *
+     * @param data The encoded data
+     * @return The data as written by Chunk.writeData
+     * @throws IOException If the data is damaged
+     */
+    public byte[] decode(byte[] data) throws IOException {
+        ByteBuffer in = ByteBuffer.wrap(data);
+
+        if (data.length < 4 + HEADER_SIZE || in.getInt() != MAGIC)
+            return data;
+
+        try {
+            byte[] result = generateBaseline(in.getInt(4), in.getInt(8));
+            in.get(result, 0, HEADER_SIZE);
+
+            int blockDifferences = in.getInt();
+            for (int i = 0; i < blockDifferences; i++) {
+                int index = in.getShort() & 0xFFFF;
+                result[BLOCKS_OFFSET + index] = in.get();
+            }
+
+            int stateDifferences = in.getInt();
+            for (int i = 0; i < stateDifferences; i++) {
+                int index = in.getShort() & 0xFFFF;
+                setNibble(result, STATES_OFFSET, index, in.get());
+            }
+
+            in.get(result, SUNLIGHT_OFFSET, Chunk.BLOCK_COUNT);
+            return result;
+        } catch (RuntimeException e) {
+            // Buffer under- and overflows
+            throw new IOException("Damaged chunk delta.", e);
+        }
+    }
+
+    /**
+     * Generates the terrain of the chunk at the given position, without any light values or states.
+     */
+    private byte[] generateBaseline(int x, int z) {
+        Chunk baseline = new Chunk();
+        baseline.setPosition(new Vector3d(x, 0, z));
+
+        _terrainGenerator.generate(baseline);
+
+        byte[] result = baseline.serialize();
+        baseline.dispose();
+
+        return result;
+    }
+
+    /*
+     * The nibble arrays are persisted like the former TeraSmartArrays: the low nibbles hold the first half
+     */
+    private static byte getNibble(byte[] data, int offset, int index) {
+        int half = Chunk.BLOCK_COUNT / 2;
+
+        if (index < half)
+            return (byte) (data[offset + index] & 0x0F);
+
+        return (byte) ((data[offset + index - half] >> 4) & 0x0F);
+    }
+
+    private static void setNibble(byte[] data, int offset, int index, byte value) {
+        int half = Chunk.BLOCK_COUNT / 2;
+
+        if (index < half)
+            data[offset + index] = (byte) ((data[offset + index] & 0xF0) | (value & 0x0F));
+        else
+            data[offset + index - half] = (byte) ((data[offset + index - half] & 0x0F) | ((value & 0x0F) << 4));
+    }
+
+    @Override
+    public String toString() {
+        return String.format("chunk delta encoder (enabled: %s, delta chunks: %d, full chunks: %d, differences: %d)", _enabled, _deltaChunks.get(), _fullChunks.get(), _differences.get());
+    }
+}
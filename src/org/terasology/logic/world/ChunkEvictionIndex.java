@@ -0,0 +1,313 @@
+/*
+ * Copyright 2011 Benjamin Glatzel <benjamin.glatzel@me.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.logic.world;
+
+import java.util.ArrayList;
+
+/**
+ * Keeps track of the eviction order of the cached chunks. Chunks are grouped into buckets by their
+ * distance to the rendering reference point, each bucket is a linked list in least recently used order.
+ * Evicting a chunk thus only touches the chunks at the heads of the farthest buckets instead of
+ * sorting the whole cache.
+ * <p/>
+ * Accesses are tracked with a coarse tick: the cache advances the tick once per flush and stamps
+ * chunks with the current tick when they are accessed. Chunks accessed since they were queued get
+ * a second chance and are moved to the tail of their bucket. Pinned chunks are never evicted.
+ * <p/>
+ * The index also keeps the estimated memory usage of every chunk. The estimates are taken when a chunk
+ * is added and refreshed by calling updateMemoryUsage(), since meshes are attached to chunks later on.
+ *
+ * @author Benjamin Glatzel <benjamin.glatzel@me.com>
+ */
+final class ChunkEvictionIndex {
+
+    /* Width of a bucket in chunks */
+    private static final int BUCKET_WIDTH = 4;
+    private static final int BUCKET_COUNT = 16;
+
+    private static final class Node {
+        final Chunk chunk;
+        final int x, z;
+        int bucket, queuedTick;
+        long memoryUsage;
+        Node prev, next;
+
+        Node(Chunk chunk, int x, int z) {
+            this.chunk = chunk;
+            this.x = x;
+            this.z = z;
+        }
+    }
+
+    private final Node[] _heads = new Node[BUCKET_COUNT];
+    private final Node[] _tails = new Node[BUCKET_COUNT];
+    private final int[] _sizes = new int[BUCKET_COUNT];
+
+    private volatile int _tick;
+    private int _size;
+    private long _memoryUsage;
+
+    /* Reference chunk the buckets have been computed for */
+    private int _referenceX, _referenceZ;
+
+    /* STATISTICS */
+    private long _evicted, _evictedBytes, _secondChances, _pinnedSkipped, _rebuckets;
+
+    /**
+     * Advances the access tick. Called once per cache flush.
+     */
+    public void tick() {
+        _tick++;
+    }
+
+    /**
+     * Marks the given chunk as accessed. Only writes to the chunk if the tick has changed since
+     * the last access, so frequent accesses stay cheap.
+     *
+     * @param c The accessed chunk
+     */
+    public void touch(Chunk c) {
+        int tick = _tick;
+
+        if (c.getLastAccess() != tick)
+            c.setLastAccess(tick);
+    }
+
+    /**
+     * Adds a chunk which has just been put into the cache.
+     *
+     * @param c The chunk
+     * @param x X-coordinate of the chunk
+     * @param z Z-coordinate of the chunk
+     */
+    public synchronized void add(Chunk c, int x, int z) {
+        Node node = new Node(c, x, z);
+        node.queuedTick = _tick;
+        node.memoryUsage = c.estimateMemoryUsage();
+        c.setLastAccess(node.queuedTick);
+
+        append(node, bucketFor(x, z));
+        _size++;
+        _memoryUsage += node.memoryUsage;
+    }
+
+    /**
+     * Estimates the memory usage of all chunks again.
+     *
+     * @return The estimated amount of bytes occupied by all chunks
+     */
+    public synchronized long updateMemoryUsage() {
+        long result = 0;
+
+        for (int b = 0; b < BUCKET_COUNT; b++) {
+            for (Node node = _heads[b]; node != null; node = node.next) {
+                node.memoryUsage = node.chunk.estimateMemoryUsage();
+                result += node.memoryUsage;
+            }
+        }
+
+        _memoryUsage = result;
+        return result;
+    }
+
+    /**
+     * Removes and returns the chunks which should leave the cache first. The farthest buckets are
+     * processed first, recently accessed chunks are skipped as long as there are other candidates.
+     * Pinned chunks are always skipped.
+     * Chunks are evicted until both the requested amount of chunks and bytes have been freed.
+     *
+     * @param count      The amount of chunks to evict
+     * @param bytes      The estimated amount of bytes to free
+     * @param referenceX X-coordinate of the chunk containing the rendering reference point
+     * @param referenceZ Z-coordinate of the chunk containing the rendering reference point
+     * @return The evicted chunks
+     */
+    public synchronized ArrayList<Chunk> evict(int count, long bytes, int referenceX, int referenceZ) {
+        ArrayList<Chunk> result = new ArrayList<Chunk>(Math.max(0, Math.min(count, _size)));
+        long target = _memoryUsage - bytes;
+
+        // Buckets are coarse, so they only have to be recomputed after the reference point moved a bit
+        if (Math.max(Math.abs(referenceX - _referenceX), Math.abs(referenceZ - _referenceZ)) >= BUCKET_WIDTH / 2)
+            rebucket(referenceX, referenceZ);
+
+        int tick = _tick;
+
+        for (int b = BUCKET_COUNT - 1; b >= 0 && !isDone(result, count, target); b--) {
+            // Every chunk is looked at once per pass, so second chances can not loop forever
+            for (int i = _sizes[b]; i > 0 && !isDone(result, count, target); i--) {
+                Node node = _heads[b];
+                unlink(node);
+
+                if (node.chunk.isPinned()) {
+                    append(node, b);
+                    _pinnedSkipped++;
+                } else if (node.chunk.getLastAccess() - node.queuedTick > 0) {
+                    node.queuedTick = tick;
+                    append(node, b);
+                    _secondChances++;
+                } else {
+                    remove(node, result);
+                }
+            }
+        }
+
+        // All remaining chunks have been accessed recently, so fall back to plain distance order
+        for (int b = BUCKET_COUNT - 1; b >= 0 && !isDone(result, count, target); b--) {
+            for (int i = _sizes[b]; i > 0 && !isDone(result, count, target); i--) {
+                Node node = _heads[b];
+                unlink(node);
+
+                if (node.chunk.isPinned())
+                    append(node, b);
+                else
+                    remove(node, result);
+            }
+        }
+
+        _evicted += result.size();
+        return result;
+    }
+
+    private boolean isDone(ArrayList<Chunk> evicted, int count, long targetMemoryUsage) {
+        return evicted.size() >= count && _memoryUsage <= targetMemoryUsage;
+    }
+
+    private void remove(Node node, ArrayList<Chunk> evicted) {
+        evicted.add(node.chunk);
+
+        _size--;
+        _memoryUsage -= node.memoryUsage;
+        _evictedBytes += node.memoryUsage;
+    }
+
+    /**
+     * Removes all chunks from the index.
+     */
+    public synchronized void clear() {
+        for (int b = 0; b < BUCKET_COUNT; b++) {
+            _heads[b] = _tails[b] = null;
+            _sizes[b] = 0;
+        }
+
+        _size = 0;
+        _memoryUsage = 0;
+    }
+
+    /**
+     * Returns the amount of chunks in the index.
+     *
+     * @return The amount of chunks
+     */
+    public synchronized int size() {
+        return _size;
+    }
+
+    /**
+     * Returns the estimated amount of bytes occupied by the chunks in the index.
+     *
+     * @return The amount of bytes
+     */
+    public synchronized long getMemoryUsage() {
+        return _memoryUsage;
+    }
+
+    /**
+     * Returns the amount of chunks evicted so far.
+     *
+     * @return The amount of chunks
+     */
+    public synchronized long getEvictedChunks() {
+        return _evicted;
+    }
+
+    /**
+     * Returns the estimated amount of bytes freed by evictions so far.
+     *
+     * @return The amount of bytes
+     */
+    public synchronized long getEvictedBytes() {
+        return _evictedBytes;
+    }
+
+    /**
+     * Moves all chunks into the buckets matching the new reference chunk. Keeps the relative access
+     * order of chunks which end up in the same bucket.
+     */
+    private void rebucket(int referenceX, int referenceZ) {
+        _referenceX = referenceX;
+        _referenceZ = referenceZ;
+        _rebuckets++;
+
+        Node[] heads = _heads.clone();
+
+        for (int b = 0; b < BUCKET_COUNT; b++) {
+            _heads[b] = _tails[b] = null;
+            _sizes[b] = 0;
+        }
+
+        for (int b = 0; b < BUCKET_COUNT; b++) {
+            Node node = heads[b];
+
+            while (node != null) {
+                Node next = node.next;
+                node.prev = node.next = null;
+                append(node, bucketFor(node.x, node.z));
+                node = next;
+            }
+        }
+    }
+
+    private int bucketFor(int x, int z) {
+        int distance = Math.max(Math.abs(x - _referenceX), Math.abs(z - _referenceZ));
+        return Math.min(distance / BUCKET_WIDTH, BUCKET_COUNT - 1);
+    }
+
+    private void append(Node node, int bucket) {
+        node.bucket = bucket;
+        node.prev = _tails[bucket];
+        node.next = null;
+
+        if (_tails[bucket] != null)
+            _tails[bucket].next = node;
+        else
+            _heads[bucket] = node;
+
+        _tails[bucket] = node;
+        _sizes[bucket]++;
+    }
+
+    private void unlink(Node node) {
+        int b = node.bucket;
+
+        if (node.prev != null)
+            node.prev.next = node.next;
+        else
+            _heads[b] = node.next;
+
+        if (node.next != null)
+            node.next.prev = node.prev;
+        else
+            _tails[b] = node.prev;
+
+        node.prev = node.next = null;
+        _sizes[b]--;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("Eviction index (size: %d, evicted: %d (%d KB), second chances: %d, pinned chunks skipped: %d, rebuckets: %d)", _size, _evicted, _evictedBytes / 1024, _secondChances, _pinnedSkipped, _rebuckets);
+    }
+}
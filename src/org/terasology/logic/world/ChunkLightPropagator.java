@@ -0,0 +1,333 @@
+/*
+ * Copyright 2011 Benjamin Glatzel <benjamin.glatzel@me.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.logic.world;
+
+import org.terasology.model.blocks.Block;
+import org.terasology.model.blocks.BlockManager;
+import org.terasology.model.structures.TeraIntQueue;
+import org.terasology.utilities.MathHelper;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Spreads light within a single chunk. The propagator only reads and writes the voxels of its own
+ * chunk, using local coordinates; light leaving the chunk is queued as a halo for the adjacent chunk
+ * instead. The halos are handed over to the propagators of the neighbors in a separate exchange phase,
+ * see propagate(Map), so the propagators of different chunks can safely run in parallel.
+ * <p/>
+ * Only adds light. Removing light has to follow the light across chunk borders and is up to the
+ * LightPropagator.
+ * <p/>
+ * NOTE: Not thread-safe. A propagator is only used by one thread at a time.
+ *
+ * @author Benjamin Glatzel <benjamin.glatzel@me.com>
+ */
+public final class ChunkLightPropagator {
+
+    /* CONST */
+    private static final int SIZE_X = Chunk.CHUNK_DIMENSION_X;
+    private static final int SIZE_Y = Chunk.CHUNK_DIMENSION_Y;
+    private static final int SIZE_Z = Chunk.CHUNK_DIMENSION_Z;
+
+    /* Neighbors in the order of Chunk.loadOrCreateNeighbors() */
+    private static final int[] NEIGHBOR_CHUNK_X = {1, -1, 0, 0, 1, -1, -1, 1};
+    private static final int[] NEIGHBOR_CHUNK_Z = {0, 0, 1, -1, 1, -1, 1, -1};
+
+    private final Chunk _chunk;
+    private final Chunk.LIGHT_TYPE _type;
+    private final int _chunkPosX, _chunkPosZ;
+
+    /* Local positions packed as (x << 12) | (z << 8) | y */
+    private final TeraIntQueue _queue = new TeraIntQueue(64);
+
+    /* Light leaving the chunk, one halo per adjacent chunk: positions in the neighbor and the light value */
+    private final TeraIntQueue[] _halos = new TeraIntQueue[4];
+
+    /* Neighbors whose meshes depend on changed voxels at the border, one bit per neighbor */
+    private int _dirtyNeighbors;
+    private boolean _changed;
+
+    /* Blocks by their unsigned id, looked up on first use */
+    private final Block[] _blocks = new Block[256];
+
+    /* STATISTICS */
+    private long _processedVoxels;
+
+    /**
+     * Init. a new propagator for the given chunk.
+     *
+     * @param chunk The chunk
+     * @param type  The type of the light to propagate
+     */
+    public ChunkLightPropagator(Chunk chunk, Chunk.LIGHT_TYPE type) {
+        _chunk = chunk;
+        _type = type;
+        _chunkPosX = (int) chunk.getPosition().x;
+        _chunkPosZ = (int) chunk.getPosition().z;
+
+        for (int i = 0; i < _halos.length; i++)
+            _halos[i] = new TeraIntQueue(16);
+    }
+
+    /**
+     * Queues the current light at the given local position for spreading to its neighbors.
+     *
+     * @param x Local block position on the x-axis
+     * @param y Local block position on the y-axis
+     * @param z Local block position on the z-axis
+     */
+    public void spreadLight(int x, int y, int z) {
+        if (_chunk.getLight(x, y, z, _type) <= 1)
+            return;
+
+        _queue.add(pack(x, y, z));
+    }
+
+    /**
+     * Raises the light at the given local position to the given value and queues it for spreading.
+     * Does nothing if the position is already at least as bright.
+     *
+     * @param x     Local block position on the x-axis
+     * @param y     Local block position on the y-axis
+     * @param z     Local block position on the z-axis
+     * @param value The light value
+     */
+    public void addLight(int x, int y, int z, byte value) {
+        if (value <= _chunk.getLight(x, y, z, _type))
+            return;
+
+        setLight(x, y, z, value);
+        _queue.add(pack(x, y, z));
+    }
+
+    /**
+     * Spreads all queued light within the chunk. Light leaving the chunk is collected in the halos.
+     */
+    public void propagate() {
+        while (!_queue.isEmpty()) {
+            int pos = _queue.poll();
+            int x = pos >> 12, y = pos & 0xFF, z = (pos >> 8) & 0xF;
+            _processedVoxels++;
+
+            byte light = _chunk.getLight(x, y, z, _type);
+
+            if (light <= 1)
+                continue;
+
+            byte value = (byte) (light - 1);
+
+            spreadTo(x + 1, y, z, value);
+            spreadTo(x - 1, y, z, value);
+            spreadTo(x, y, z + 1, value);
+            spreadTo(x, y, z - 1, value);
+
+            if (y + 1 < SIZE_Y)
+                spreadTo(x, y + 1, z, value);
+
+            if (y > 0)
+                spreadTo(x, y - 1, z, value);
+        }
+    }
+
+    private void spreadTo(int x, int y, int z, byte value) {
+        if (x < 0) {
+            _halos[1].add(pack(SIZE_X - 1, y, z) | (value << 16));
+        } else if (x >= SIZE_X) {
+            _halos[0].add(pack(0, y, z) | (value << 16));
+        } else if (z < 0) {
+            _halos[3].add(pack(x, y, SIZE_Z - 1) | (value << 16));
+        } else if (z >= SIZE_Z) {
+            _halos[2].add(pack(x, y, 0) | (value << 16));
+        } else if (_chunk.getLight(x, y, z, _type) < value && getBlock(_chunk.getBlock(x, y, z)).isTranslucent()) {
+            setLight(x, y, z, value);
+            _queue.add(pack(x, y, z));
+        }
+    }
+
+    /**
+     * Returns the color of the chunk in a checkerboard pattern. Adjacent chunks never share the same color.
+     */
+    int getColor() {
+        return (_chunkPosX + _chunkPosZ) & 1;
+    }
+
+    /**
+     * Returns the amount of voxels processed so far.
+     *
+     * @return The amount of voxels
+     */
+    public long getProcessedVoxels() {
+        return _processedVoxels;
+    }
+
+    /**
+     * Spreads the queued light of the given propagators until no light is left to spread. Each round
+     * hands the halos over to the neighbors, creating propagators for neighbors reached for the first time,
+     * and propagates the received light. Chunks whose light has changed are marked dirty at the end.
+     *
+     * @param propagators The propagators by their packed chunk positions, receives the created propagators
+     */
+    public static void propagate(Map<Long, ChunkLightPropagator> propagators) {
+        for (ChunkLightPropagator propagator : propagators.values())
+            propagator.propagate();
+
+        ArrayList<ChunkLightPropagator> receivers = collectReceivers(propagators);
+
+        while (!receivers.isEmpty()) {
+            for (ChunkLightPropagator receiver : receivers) {
+                receiver.receiveHalos(propagators);
+                receiver.propagate();
+            }
+
+            receivers = collectReceivers(propagators);
+        }
+
+        markDirty(propagators);
+    }
+
+    /**
+     * Returns the propagators of all chunks adjacent to a non-empty halo. Propagators for neighbors reached for
+     * the first time are created, halos leading into fresh chunks are dropped.
+     *
+     * @param propagators All propagators by their packed chunk positions, receives the created propagators
+     * @return The propagators with light to receive
+     */
+    static ArrayList<ChunkLightPropagator> collectReceivers(Map<Long, ChunkLightPropagator> propagators) {
+        LinkedHashMap<Long, ChunkLightPropagator> receivers = new LinkedHashMap<Long, ChunkLightPropagator>();
+
+        // Created propagators have no halos yet, so they don't need to be visited
+        for (ChunkLightPropagator source : new ArrayList<ChunkLightPropagator>(propagators.values())) {
+            for (int i = 0; i < source._halos.length; i++) {
+                if (source._halos[i].isEmpty())
+                    continue;
+
+                long key = MathHelper.packCoordinates(source._chunkPosX + NEIGHBOR_CHUNK_X[i], source._chunkPosZ + NEIGHBOR_CHUNK_Z[i]);
+                ChunkLightPropagator target = propagators.get(key);
+
+                if (target == null) {
+                    Chunk c = source._chunk.getParent().getChunkProvider().loadOrCreateChunk(MathHelper.unpackX(key), MathHelper.unpackZ(key));
+
+                    // Fresh chunks generate their light from scratch
+                    if (c == null || c.isFresh()) {
+                        source._halos[i].clear();
+                        continue;
+                    }
+
+                    target = new ChunkLightPropagator(c, source._type);
+                    propagators.put(key, target);
+                }
+
+                receivers.put(key, target);
+            }
+        }
+
+        return new ArrayList<ChunkLightPropagator>(receivers.values());
+    }
+
+    /**
+     * Takes the light the neighbors passed into this chunk and queues it for spreading. Only accesses the
+     * halos of the neighbors leading into this chunk.
+     *
+     * @param propagators All propagators by their packed chunk positions
+     */
+    void receiveHalos(Map<Long, ChunkLightPropagator> propagators) {
+        for (int i = 0; i < _halos.length; i++) {
+            ChunkLightPropagator source = propagators.get(MathHelper.packCoordinates(_chunkPosX + NEIGHBOR_CHUNK_X[i], _chunkPosZ + NEIGHBOR_CHUNK_Z[i]));
+
+            if (source == null)
+                continue;
+
+            // The halo of the neighbor on the opposite side
+            TeraIntQueue halo = source._halos[i ^ 1];
+
+            while (!halo.isEmpty()) {
+                int item = halo.poll();
+                int x = item >> 12 & 0xF, y = item & 0xFF, z = (item >> 8) & 0xF;
+
+                if (getBlock(_chunk.getBlock(x, y, z)).isTranslucent())
+                    addLight(x, y, z, (byte) (item >> 16));
+            }
+        }
+    }
+
+    /**
+     * Marks the chunks of the given propagators dirty if their light has changed, together with the
+     * neighbors affected by changes at the borders.
+     *
+     * @param propagators The propagators by their packed chunk positions
+     */
+    static void markDirty(Map<Long, ChunkLightPropagator> propagators) {
+        for (ChunkLightPropagator propagator : propagators.values()) {
+            if (!propagator._changed)
+                continue;
+
+            propagator._chunk.setDirty(true);
+
+            for (int i = 0; i < NEIGHBOR_CHUNK_X.length; i++) {
+                if ((propagator._dirtyNeighbors & (1 << i)) == 0)
+                    continue;
+
+                Chunk c = propagator._chunk.getParent().getChunkProvider().loadOrCreateChunk(propagator._chunkPosX + NEIGHBOR_CHUNK_X[i], propagator._chunkPosZ + NEIGHBOR_CHUNK_Z[i]);
+
+                if (c != null)
+                    c.setDirty(true);
+            }
+        }
+    }
+
+    private void setLight(int x, int y, int z, byte value) {
+        _chunk.setLightValue(x, y, z, value, _type);
+        _changed = true;
+
+        // Same neighbors as Chunk.markNeighborsDirty()
+        if (x > 0 && z > 0 && x < SIZE_X - 1 && z < SIZE_Z - 1)
+            return;
+
+        if (x == SIZE_X - 1)
+            _dirtyNeighbors |= 1;
+        if (x == 0)
+            _dirtyNeighbors |= 1 << 1;
+        if (z == SIZE_Z - 1)
+            _dirtyNeighbors |= 1 << 2;
+        if (z == 0)
+            _dirtyNeighbors |= 1 << 3;
+        if (x == SIZE_X - 1 && z == SIZE_Z - 1)
+            _dirtyNeighbors |= 1 << 4;
+        if (x == 0 && z == 0)
+            _dirtyNeighbors |= 1 << 5;
+        if (x == 0 && z == SIZE_Z - 1)
+            _dirtyNeighbors |= 1 << 6;
+        if (x == SIZE_X - 1 && z == 0)
+            _dirtyNeighbors |= 1 << 7;
+    }
+
+    private Block getBlock(byte type) {
+        Block result = _blocks[type & 0xFF];
+
+        if (result == null) {
+            result = BlockManager.getInstance().getBlock(type);
+            _blocks[type & 0xFF] = result;
+        }
+
+        return result;
+    }
+
+    private static int pack(int x, int y, int z) {
+        return (x << 12) | (z << 8) | y;
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2011 Benjamin Glatzel <benjamin.glatzel@me.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.logic.world;
+
+import javax.vecmath.Vector3d;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded pool of reclaimed chunks. Chunks handed out by the pool return to it once they have been
+ * disposed and the ChunkReclaimer made sure no thread can reach them anymore. They are reset and handed
+ * out again instead of allocating new chunks together with their tessellators and arrays.
+ *
+ * @author Benjamin Glatzel <benjamin.glatzel@me.com>
+ */
+public final class ChunkPool {
+
+    private final ArrayBlockingQueue<Chunk> _freeChunks;
+
+    /* STATISTICS */
+    private final AtomicLong _hits = new AtomicLong(), _misses = new AtomicLong();
+
+    /**
+     * Init. a new chunk pool.
+     *
+     * @param capacity The maximum amount of pooled chunks
+     */
+    public ChunkPool(int capacity) {
+        _freeChunks = new ArrayBlockingQueue<Chunk>(Math.max(capacity, 1));
+    }
+
+    /**
+     * Returns a fresh chunk at the given position. Reuses a pooled chunk if one is available.
+     *
+     * @param parent   The parent world
+     * @param position The position of the chunk
+     * @return The chunk
+     */
+    public Chunk obtain(LocalWorldProvider parent, Vector3d position) {
+        Chunk c = _freeChunks.poll();
+
+        if (c == null) {
+            _misses.incrementAndGet();
+
+            c = new Chunk(parent, position);
+            c.setPool(this);
+
+            return c;
+        }
+
+        _hits.incrementAndGet();
+        c.recycle(parent, position);
+
+        return c;
+    }
+
+    /**
+     * Keeps the given reclaimed chunk for later reuse if the pool is not full yet. Only called by the
+     * ChunkReclaimer.
+     *
+     * @param c The chunk
+     */
+    void free(Chunk c) {
+        _freeChunks.offer(c);
+    }
+
+    /**
+     * Returns the amount of chunks currently held by the pool.
+     */
+    public int size() {
+        return _freeChunks.size();
+    }
+
+    /**
+     * Returns the amount of requests served with a pooled chunk.
+     */
+    public long getHits() {
+        return _hits.get();
+    }
+
+    /**
+     * Returns the amount of requests which had to allocate a new chunk.
+     */
+    public long getMisses() {
+        return _misses.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("chunk pool (size: %d, hits: %d, misses: %d)", size(), getHits(), getMisses());
+    }
+}
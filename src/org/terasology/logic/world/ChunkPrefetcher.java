@@ -0,0 +1,260 @@
+/*
+ * Copyright 2011 Benjamin Glatzel <benjamin.glatzel@me.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.logic.world;
+
+import org.terasology.game.Terasology;
+import org.terasology.logic.manager.ConfigurationManager;
+import org.terasology.model.structures.TeraConcurrentLongMap;
+import org.terasology.utilities.MathHelper;
+
+import javax.vecmath.Vector3d;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Loads and generates the chunks the player is about to see on a background thread, so the render thread
+ * finds them in the cache instead of reading them from the disk or generating them on its own. Generation runs
+ * through Chunk.generate(), like in the chunk update pipeline, so its lock keeps every chunk from being
+ * generated twice.
+ * <p/>
+ * The direction of the prediction follows the horizontal velocity of the player. If the player is not moving,
+ * the viewing direction is used instead. All chunks of the viewing area around the predicted position which are
+ * not part of the current viewing area are prefetched, closest ones first. Prefetching pauses as soon as
+ * "System.maxPrefetchedChunks" chunks have been prefetched which the player has not reached yet. The chunks in
+ * the viewing area are pinned, so making room for prefetched chunks in a full cache never evicts them.
+ *
+ * @author Benjamin Glatzel <benjamin.glatzel@me.com>
+ */
+public final class ChunkPrefetcher {
+
+    private static final int PREFETCH_DISTANCE = (Integer) ConfigurationManager.getInstance().getConfig().get("System.chunkPrefetchDistance");
+    private static final int MAX_PREFETCHED_CHUNKS = (Integer) ConfigurationManager.getInstance().getConfig().get("System.maxPrefetchedChunks");
+
+    private final ChunkProvider _chunkProvider;
+
+    /* Prefetched chunks which have not been requested yet */
+    private final TeraConcurrentLongMap<Chunk> _prefetchedChunks = new TeraConcurrentLongMap<Chunk>();
+
+    private int _targetX = Integer.MIN_VALUE, _targetZ = Integer.MIN_VALUE;
+    private volatile int _generation;
+    private int _submittedGeneration = -1;
+    private boolean _running, _disposed;
+
+    /* STATISTICS */
+    private final AtomicLong _prefetched = new AtomicLong(), _hits = new AtomicLong(), _misses = new AtomicLong();
+
+    /**
+     * Init. a new chunk prefetcher.
+     *
+     * @param chunkProvider The chunk provider used to load the chunks
+     */
+    public ChunkPrefetcher(ChunkProvider chunkProvider) {
+        _chunkProvider = chunkProvider;
+    }
+
+    /**
+     * Predicts the next viewing area of the player and starts prefetching its chunks if the prediction changed.
+     *
+     * @param chunkX           The chunk position of the player on the x-axis
+     * @param chunkZ           The chunk position of the player on the z-axis
+     * @param velocity         The velocity of the player
+     * @param viewingDirection The viewing direction of the player
+     * @param viewingDistance  The width of the viewing area in chunks
+     */
+    public synchronized void update(int chunkX, int chunkZ, Vector3d velocity, Vector3d viewingDirection, int viewingDistance) {
+        if (PREFETCH_DISTANCE <= 0 || _disposed)
+            return;
+
+        double dirX = velocity.x, dirZ = velocity.z;
+
+        // Standing still, so guess the player is going to walk where the player is looking
+        if (dirX * dirX + dirZ * dirZ < 1.0E-6) {
+            dirX = viewingDirection.x;
+            dirZ = viewingDirection.z;
+        }
+
+        double length = Math.sqrt(dirX * dirX + dirZ * dirZ);
+
+        // Looking straight up or down
+        if (length < 1.0E-3)
+            return;
+
+        int targetX = chunkX + (int) Math.round(dirX / length * PREFETCH_DISTANCE);
+        int targetZ = chunkZ + (int) Math.round(dirZ / length * PREFETCH_DISTANCE);
+
+        if (targetX != _targetX || targetZ != _targetZ) {
+            // Stop prefetching for the outdated prediction
+            _generation++;
+            _targetX = targetX;
+            _targetZ = targetZ;
+
+            removeDistantChunks(chunkX, chunkZ, viewingDistance);
+        }
+
+        // Each prediction is only prefetched once, a new one has to wait for the running task to stop
+        if (_running || _submittedGeneration == _generation)
+            return;
+
+        _submittedGeneration = _generation;
+
+        final ArrayList<int[]> chunks = collectChunks(chunkX, chunkZ, targetX, targetZ, viewingDistance);
+
+        if (chunks.isEmpty())
+            return;
+
+        _running = true;
+        final int generation = _generation;
+
+        Runnable r = new Runnable() {
+            public void run() {
+                try {
+                    prefetch(chunks, generation);
+                } finally {
+                    synchronized (ChunkPrefetcher.this) {
+                        _running = false;
+                        ChunkPrefetcher.this.notifyAll();
+                    }
+                }
+            }
+        };
+
+        Terasology.getInstance().getThreadPool().execute(r);
+    }
+
+    /**
+     * Returns the chunks of the viewing area around the target position which are not part of the viewing
+     * area around the player and have not been prefetched yet, sorted by the distance to the player.
+     */
+    private ArrayList<int[]> collectChunks(final int chunkX, final int chunkZ, int targetX, int targetZ, int viewingDistance) {
+        int half = viewingDistance / 2;
+        ArrayList<int[]> result = new ArrayList<int[]>();
+
+        for (int x = targetX - half; x < targetX + half; x++) {
+            for (int z = targetZ - half; z < targetZ + half; z++) {
+                if (x >= chunkX - half && x < chunkX + half && z >= chunkZ - half && z < chunkZ + half)
+                    continue;
+
+                if (_prefetchedChunks.containsKey(chunkId(x, z)))
+                    continue;
+
+                result.add(new int[]{x, z});
+            }
+        }
+
+        Collections.sort(result, new Comparator<int[]>() {
+            public int compare(int[] a, int[] b) {
+                int distA = (a[0] - chunkX) * (a[0] - chunkX) + (a[1] - chunkZ) * (a[1] - chunkZ);
+                int distB = (b[0] - chunkX) * (b[0] - chunkX) + (b[1] - chunkZ) * (b[1] - chunkZ);
+
+                return distA < distB ? -1 : (distA == distB ? 0 : 1);
+            }
+        });
+
+        return result;
+    }
+
+    private void prefetch(ArrayList<int[]> chunks, int generation) {
+        for (int[] pos : chunks) {
+            // Stop if a newer prediction is available or the budget is used up
+            if (generation != _generation || _prefetchedChunks.size() >= MAX_PREFETCHED_CHUNKS)
+                return;
+
+            long epoch = ChunkReclaimer.enter();
+
+            try {
+                Chunk c = _chunkProvider.loadOrCreateChunk(pos[0], pos[1]);
+                c.generate();
+
+                _prefetchedChunks.put(chunkId(pos[0], pos[1]), c);
+                _prefetched.incrementAndGet();
+            } finally {
+                ChunkReclaimer.exit(epoch);
+            }
+        }
+    }
+
+    /**
+     * Forgets about prefetched chunks the player has left behind.
+     */
+    private void removeDistantChunks(int chunkX, int chunkZ, int viewingDistance) {
+        int maxDistance = viewingDistance / 2 + PREFETCH_DISTANCE;
+
+        for (long chunkId : _prefetchedChunks.keys()) {
+            if (Math.abs(MathHelper.unpackX(chunkId) - chunkX) > maxDistance || Math.abs(MathHelper.unpackZ(chunkId) - chunkZ) > maxDistance)
+                _prefetchedChunks.remove(chunkId);
+        }
+    }
+
+    /**
+     * Notifies the prefetcher that the given chunk entered the viewing area of the player.
+     *
+     * @param c The chunk
+     */
+    public void chunkRequested(Chunk c) {
+        if (PREFETCH_DISTANCE <= 0)
+            return;
+
+        Vector3d pos = c.getPosition();
+
+        // Prefetched chunks evicted before the player reached them had to be loaded again and don't count
+        if (_prefetchedChunks.remove(chunkId((int) pos.x, (int) pos.z)) == c)
+            _hits.incrementAndGet();
+        else
+            _misses.incrementAndGet();
+    }
+
+    /**
+     * Stops prefetching and waits for the running prefetch task to finish.
+     */
+    public synchronized void dispose() {
+        _disposed = true;
+        _generation++;
+
+        while (_running) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+
+        _prefetchedChunks.clear();
+    }
+
+    /**
+     * Returns the share of chunks entering the viewing area which have already been prefetched.
+     *
+     * @return The hit rate between 0 and 1
+     */
+    public double getHitRate() {
+        long hits = _hits.get();
+        long total = hits + _misses.get();
+
+        return total > 0 ? (double) hits / total : 0.0;
+    }
+
+    private static long chunkId(int x, int z) {
+        return MathHelper.packCoordinates(x, z);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("chunk prefetcher (prefetched: %d, hits: %d, misses: %d, hit rate: %.2f)", _prefetched.get(), _hits.get(), _misses.get(), getHitRate());
+    }
+}
@@ -33,6 +33,24 @@ public interface ChunkProvider {
      */
     public Chunk loadOrCreateChunk(int x, int z);
 
+    /**
+     * Returns the chunk at the given position if it is cached. Never loads or creates a chunk.
+     *
+     * @param x The chunk position on the x-axis
+     * @param z The chunk position on the z-axis
+     * @return The chunk, null if it is not cached
+     */
+    public Chunk getCachedChunk(int x, int z);
+
+    /**
+     * Returns the chunk at the given position and pins it, so it stays in the cache until it is unpinned.
+     *
+     * @param x The chunk position on the x-axis
+     * @param z The chunk position on the z-axis
+     * @return The pinned chunk
+     */
+    public Chunk loadAndPinChunk(int x, int z);
+
     /**
      * Frees obsolete chunks.
      */
@@ -43,6 +61,19 @@ public interface ChunkProvider {
      */
     public void dispose();
 
+    /**
+     * Blocks until all chunks handed over for saving have been written.
+     */
+    public void flush();
+
+    /**
+     * Saves all chunks modified since the last snapshot and blocks until they have been written
+     * to the storage device.
+     *
+     * @return True if all chunks have been written
+     */
+    public boolean snapshot();
+
     /**
      * Returns the amount of chunks managed by this chunk provider.
      *
@@ -50,6 +81,13 @@ public interface ChunkProvider {
      */
     public int size();
 
+    /**
+     * Returns the estimated amount of bytes occupied by the managed chunks.
+     *
+     * @return The amount of bytes
+     */
+    public long getMemoryUsage();
+
     /**
      * Returns the cached chunks as an array.
      *
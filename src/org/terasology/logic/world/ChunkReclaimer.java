@@ -0,0 +1,152 @@
+/*
+ * Copyright 2011 Benjamin Glatzel <benjamin.glatzel@me.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.logic.world;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decides when disposed chunks can be reused, using epoch based reclamation.
+ * <p/>
+ * Threads accessing chunks they looked up in a chunk cache do so within a section opened by enter() and closed
+ * by exit(): the main loop opens one section per frame, background tasks one per task. Work handed to other
+ * threads and awaited within a section is covered by the section as well. Disposed chunks are retired with the
+ * current epoch. The epoch only advances once no thread is within a section opened two epochs ago, so a chunk
+ * retired in epoch e can't be reached anymore as soon as the epoch e + 2 has been reached: every section which
+ * might have looked the chunk up before it left the cache has been closed by then.
+ * <p/>
+ * Reclaimed chunks release their voxel data and return to the pool they were taken from.
+ * <p/>
+ * Chunks kept across sections, like the chunks around the player, have to be pinned instead, see Chunk.pin().
+ *
+ * @author Benjamin Glatzel <benjamin.glatzel@me.com>
+ */
+public final class ChunkReclaimer {
+
+    private static volatile long _epoch;
+    /* Threads within a section, by the epoch they entered modulo three */
+    private static final AtomicInteger[] _activeThreads = {new AtomicInteger(), new AtomicInteger(), new AtomicInteger()};
+
+    /* Guarded by _retiredChunks, retired chunks by the epoch they have been retired in modulo three */
+    private static final ArrayList<ArrayList<Chunk>> _retiredChunks = new ArrayList<ArrayList<Chunk>>(3);
+
+    /* STATISTICS */
+    private static long _retired, _reclaimed;
+
+    static {
+        for (int i = 0; i < 3; i++)
+            _retiredChunks.add(new ArrayList<Chunk>());
+    }
+
+    private ChunkReclaimer() {
+    }
+
+    /**
+     * Opens a section within which chunks looked up in a chunk cache stay valid.
+     *
+     * @return The epoch of the section, to be passed to exit()
+     */
+    public static long enter() {
+        while (true) {
+            long epoch = _epoch;
+            _activeThreads[slot(epoch)].incrementAndGet();
+
+            // The epoch might have advanced before the thread was counted
+            if (_epoch == epoch)
+                return epoch;
+
+            _activeThreads[slot(epoch)].decrementAndGet();
+        }
+    }
+
+    /**
+     * Closes the section opened by enter().
+     *
+     * @param epoch The epoch returned by enter()
+     */
+    public static void exit(long epoch) {
+        _activeThreads[slot(epoch)].decrementAndGet();
+    }
+
+    /**
+     * Retires the given chunk, which has been disposed and will never be handed out by a chunk cache again.
+     *
+     * @param c The chunk
+     */
+    static void retire(Chunk c) {
+        synchronized (_retiredChunks) {
+            _retiredChunks.get(slot(_epoch)).add(c);
+            _retired++;
+        }
+
+        reclaim();
+    }
+
+    /**
+     * Advances the epoch if possible and reclaims all chunks nobody can reach anymore.
+     */
+    public static void reclaim() {
+        ArrayList<Chunk> reclaimable;
+
+        synchronized (_retiredChunks) {
+            long epoch = _epoch;
+
+            // Threads within a section of the previous epoch might still see chunks retired in this one
+            if (_activeThreads[slot(epoch + 2)].get() > 0)
+                return;
+
+            _epoch = epoch + 1;
+
+            // Retired two epochs ago, the bucket is reused for the chunks retired in the next epoch
+            reclaimable = _retiredChunks.get(slot(epoch + 2));
+
+            if (reclaimable.isEmpty())
+                return;
+
+            _retiredChunks.set(slot(epoch + 2), new ArrayList<Chunk>());
+            _reclaimed += reclaimable.size();
+        }
+
+        for (Chunk c : reclaimable)
+            c.reclaim();
+    }
+
+    private static int slot(long epoch) {
+        return (int) (epoch % 3);
+    }
+
+    /**
+     * Returns the amount of retired chunks which have not been reclaimed yet.
+     *
+     * @return The amount of chunks
+     */
+    public static long getPendingChunks() {
+        synchronized (_retiredChunks) {
+            return _retired - _reclaimed;
+        }
+    }
+
+    /**
+     * Returns a short summary of the state of the reclaimer.
+     *
+     * @return The summary
+     */
+    public static String getStatistics() {
+        synchronized (_retiredChunks) {
+            return String.format("chunk reclaimer (epoch: %d, retired: %d, reclaimed: %d)", _epoch, _retired, _reclaimed);
+        }
+    }
+}
@@ -0,0 +1,260 @@
+/*
+ * Copyright 2011 Benjamin Glatzel <benjamin.glatzel@me.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.logic.world;
+
+import org.terasology.game.Terasology;
+import org.terasology.utilities.MathHelper;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.logging.Level;
+
+/**
+ * Writes chunks to a chunk store on a background thread. Chunks are serialized when they are queued: while the
+ * write is pending, the chunk might be edited further or evicted, so the writer never touches the chunk itself and
+ * always writes the state it had when it was queued. Queuing a chunk which is still waiting to be written replaces
+ * the queued data.
+ * <p/>
+ * The queue is bounded: queuing blocks while it is full, slowing down the eviction of chunks until the
+ * writer has caught up. Queued chunks are written in batches, sorted by region.
+ *
+ * @author Benjamin Glatzel <benjamin.glatzel@me.com>
+ */
+public final class ChunkSaveQueue {
+
+    private static final class PendingSave {
+        final int x, z;
+        final byte[] data;
+
+        PendingSave(int x, int z, byte[] data) {
+            this.x = x;
+            this.z = z;
+            this.data = data;
+        }
+
+        int getRegionX() {
+            return x >> RegionFile.REGION_SHIFT;
+        }
+
+        int getRegionZ() {
+            return z >> RegionFile.REGION_SHIFT;
+        }
+    }
+
+    private static final Comparator<PendingSave> REGION_ORDER = new Comparator<PendingSave>() {
+        public int compare(PendingSave a, PendingSave b) {
+            if (a.getRegionX() != b.getRegionX())
+                return a.getRegionX() < b.getRegionX() ? -1 : 1;
+            if (a.getRegionZ() != b.getRegionZ())
+                return a.getRegionZ() < b.getRegionZ() ? -1 : 1;
+            if (a.z != b.z)
+                return a.z < b.z ? -1 : 1;
+
+            return a.x < b.x ? -1 : (a.x == b.x ? 0 : 1);
+        }
+    };
+
+    private final ChunkStore _store;
+    private final int _capacity;
+    private final Thread _writer;
+
+    /* Guarded by this */
+    private HashMap<Long, PendingSave> _pending = new HashMap<Long, PendingSave>();
+    private HashMap<Long, PendingSave> _writing = new HashMap<Long, PendingSave>();
+    private boolean _running = true;
+
+    /* STATISTICS */
+    private long _queued, _coalesced, _written, _failed, _batches;
+
+    /**
+     * Init. a new save queue and starts the writer thread.
+     *
+     * @param store    The chunk store to write to
+     * @param capacity The maximum amount of queued chunks
+     */
+    public ChunkSaveQueue(ChunkStore store, int capacity) {
+        _store = store;
+        _capacity = Math.max(capacity, 1);
+
+        _writer = new Thread(new Runnable() {
+            public void run() {
+                writeBatches();
+            }
+        }, "Chunk Saver");
+
+        _writer.setDaemon(true);
+        _writer.start();
+    }
+
+    /**
+     * Queues the given chunk for saving. Blocks while the queue is full.
+     *
+     * @param c The chunk to save
+     */
+    public void save(Chunk c) {
+        int x = (int) c.getPosition().x;
+        int z = (int) c.getPosition().z;
+
+        PendingSave save = new PendingSave(x, z, c.serialize());
+        Long key = key(x, z);
+
+        synchronized (this) {
+            if (!_running)
+                throw new IllegalStateException("The save queue has been disposed.");
+
+            while (_pending.size() >= _capacity && !_pending.containsKey(key)) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+
+            _queued++;
+
+            if (_pending.put(key, save) != null)
+                _coalesced++;
+
+            notifyAll();
+        }
+    }
+
+    /**
+     * Returns the serialized data of the chunk at the given position if it has not been written yet.
+     *
+     * @param x The chunk position on the x-axis
+     * @param z The chunk position on the z-axis
+     * @return The data, null if the chunk is not waiting to be written
+     */
+    public synchronized byte[] getPendingData(int x, int z) {
+        Long key = key(x, z);
+
+        // Chunks waiting in the queue are newer than the ones currently written
+        PendingSave save = _pending.get(key);
+
+        if (save == null)
+            save = _writing.get(key);
+
+        return save != null ? save.data : null;
+    }
+
+    /**
+     * Waits until all chunks queued so far have been written. If the queue has been disposed, this
+     * also waits for the chunk store to be closed.
+     */
+    public void flush() {
+        try {
+            synchronized (this) {
+                while (!_pending.isEmpty() || !_writing.isEmpty())
+                    wait();
+
+                if (_running)
+                    return;
+            }
+
+            _writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Stops the writer thread as soon as all queued chunks have been written and disposes the chunk store.
+     * Does not wait for the writer to finish, use flush for that.
+     */
+    public synchronized void dispose() {
+        _running = false;
+        notifyAll();
+    }
+
+    private void writeBatches() {
+        while (true) {
+            ArrayList<PendingSave> batch;
+
+            synchronized (this) {
+                while (_pending.isEmpty() && _running) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        // Keep writing, queued chunks must not get lost
+                    }
+                }
+
+                if (_pending.isEmpty())
+                    break;
+
+                batch = new ArrayList<PendingSave>(_pending.values());
+
+                // Hand the queued chunks over, the queue can be refilled in the meantime
+                HashMap<Long, PendingSave> writing = _writing;
+                _writing = _pending;
+                _pending = writing;
+                notifyAll();
+            }
+
+            Collections.sort(batch, REGION_ORDER);
+
+            int failed = 0;
+
+            for (PendingSave save : batch) {
+                try {
+                    _store.saveChunkData(save.x, save.z, save.data);
+                } catch (IOException e) {
+                    Terasology.getInstance().getLogger().log(Level.SEVERE, "Could not save chunk.", e);
+                    failed++;
+                }
+            }
+
+            synchronized (this) {
+                _written += batch.size() - failed;
+                _failed += failed;
+                _batches++;
+
+                _writing.clear();
+                notifyAll();
+            }
+        }
+
+        _store.dispose();
+    }
+
+    private static Long key(int x, int z) {
+        return MathHelper.packCoordinates(x, z);
+    }
+
+    /**
+     * Returns the amount of chunks which could not be written.
+     */
+    public synchronized long getFailedCount() {
+        return _failed;
+    }
+
+    /**
+     * Returns the amount of chunks waiting to be written.
+     */
+    public synchronized int size() {
+        return _pending.size() + _writing.size();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("chunk save queue (size: %d, queued: %d, coalesced: %d, written: %d, failed: %d, batches: %d)", _pending.size() + _writing.size(), _queued, _coalesced, _written, _failed, _batches);
+    }
+}
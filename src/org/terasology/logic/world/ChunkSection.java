@@ -0,0 +1,332 @@
+/*
+ * Copyright 2011 Benjamin Glatzel <benjamin.glatzel@me.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.logic.world;
+
+import org.terasology.logic.manager.ConfigurationManager;
+import org.terasology.model.structures.TeraNibbleArray;
+import org.terasology.model.structures.TeraPaletteArray;
+import org.terasology.model.structures.TeraSlabAllocator;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A horizontal slice of a chunk. Sections are either uniform - a single block, light and state
+ * value for every voxel, shared between all chunks and never modified - or backed by real arrays.
+ * Chunks replace uniform sections with a materialized copy on the first write that changes a value.
+ * <p/>
+ * If "System.offHeapChunkStorage" is enabled, the arrays of materialized sections are carved from pooled
+ * direct buffers. The chunk owning the section releases them once the chunk has been reclaimed.
+ *
+ * @author Benjamin Glatzel <benjamin.glatzel@me.com>
+ */
+public final class ChunkSection {
+
+    /* CONSTANT VALUES */
+    public static final int SECTION_DIMENSION_X = Chunk.CHUNK_DIMENSION_X;
+    public static final int SECTION_DIMENSION_Y = 16;
+    public static final int SECTION_DIMENSION_Z = Chunk.CHUNK_DIMENSION_Z;
+
+    private static final boolean OFF_HEAP_STORAGE = (Boolean) ConfigurationManager.getInstance().getConfig().get("System.offHeapChunkStorage");
+
+    /* DIRECT MEMORY */
+    private static final TeraSlabAllocator _allocator = OFF_HEAP_STORAGE ? new TeraSlabAllocator(1 << 20) : null;
+
+    /* SHARED UNIFORM SECTIONS */
+    private static final ConcurrentHashMap<Integer, ChunkSection> _uniformSections = new ConcurrentHashMap<Integer, ChunkSection>();
+
+    /* ------ */
+    private final boolean _uniform;
+    private final byte _block, _sunlight, _light, _state;
+    /* ------ */
+    private final TeraPaletteArray _blocks;
+    private final TeraNibbleArray _sunlightArray, _lightArray, _states;
+
+    /**
+     * Returns the shared uniform section for the given values.
+     *
+     * @param block    The block type of every voxel
+     * @param sunlight The sunlight value of every voxel
+     * @param light    The block light value of every voxel
+     * @param state    The state of every voxel
+     * @return The uniform section
+     */
+    public static ChunkSection uniform(byte block, byte sunlight, byte light, byte state) {
+        int key = ((block & 0xFF) << 24) | ((sunlight & 0xFF) << 16) | ((light & 0xFF) << 8) | (state & 0xFF);
+
+        ChunkSection section = _uniformSections.get(key);
+
+        if (section == null) {
+            section = new ChunkSection(block, sunlight, light, state);
+            ChunkSection present = _uniformSections.putIfAbsent(key, section);
+
+            if (present != null)
+                return present;
+        }
+
+        return section;
+    }
+
+    private ChunkSection(byte block, byte sunlight, byte light, byte state) {
+        _uniform = true;
+        _block = block;
+        _sunlight = sunlight;
+        _light = light;
+        _state = state;
+
+        _blocks = null;
+        _sunlightArray = null;
+        _lightArray = null;
+        _states = null;
+    }
+
+    private ChunkSection() {
+        _uniform = false;
+        _block = _sunlight = _light = _state = 0;
+
+        _blocks = new TeraPaletteArray(SECTION_DIMENSION_X, SECTION_DIMENSION_Y, SECTION_DIMENSION_Z, _allocator);
+        _sunlightArray = new TeraNibbleArray(SECTION_DIMENSION_X, SECTION_DIMENSION_Y, SECTION_DIMENSION_Z, _allocator);
+        _lightArray = new TeraNibbleArray(SECTION_DIMENSION_X, SECTION_DIMENSION_Y, SECTION_DIMENSION_Z, _allocator);
+        _states = new TeraNibbleArray(SECTION_DIMENSION_X, SECTION_DIMENSION_Y, SECTION_DIMENSION_Z, _allocator);
+    }
+
+    /**
+     * Returns a new, modifiable section containing the same values as this section.
+     *
+     * @return The materialized section
+     */
+    public ChunkSection materialize() {
+        ChunkSection result = new ChunkSection();
+
+        if (_uniform) {
+            // Palette arrays start out filled with zero
+            if (_block != 0) {
+                for (int i = 0; i < result._blocks.size(); i++)
+                    result._blocks.setRawByte(i, _block);
+            }
+
+            result._sunlightArray.fill(_sunlight);
+            result._lightArray.fill(_light);
+            result._states.fill(_state);
+            return result;
+        }
+
+        for (int i = 0; i < _blocks.size(); i++)
+            result._blocks.setRawByte(i, _blocks.getRawByte(i));
+
+        for (int i = 0; i < _sunlightArray.sizePacked(); i++) {
+            result._sunlightArray.setRawByte(i, _sunlightArray.getRawByte(i));
+            result._lightArray.setRawByte(i, _lightArray.getRawByte(i));
+            result._states.setRawByte(i, _states.getRawByte(i));
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns the shared uniform section if all voxels of this section hold the same values.
+     *
+     * @return The uniform section or this section
+     */
+    public ChunkSection compact() {
+        if (_uniform)
+            return this;
+
+        byte block = getBlock(0, 0, 0);
+        byte sunlight = getLight(0, 0, 0, Chunk.LIGHT_TYPE.SUN);
+        byte light = getLight(0, 0, 0, Chunk.LIGHT_TYPE.BLOCK);
+        byte state = getState(0, 0, 0);
+
+        for (int x = 0; x < SECTION_DIMENSION_X; x++) {
+            for (int y = 0; y < SECTION_DIMENSION_Y; y++) {
+                for (int z = 0; z < SECTION_DIMENSION_Z; z++) {
+                    if (getBlock(x, y, z) != block || getLight(x, y, z, Chunk.LIGHT_TYPE.SUN) != sunlight
+                            || getLight(x, y, z, Chunk.LIGHT_TYPE.BLOCK) != light || getState(x, y, z) != state)
+                        return this;
+                }
+            }
+        }
+
+        return uniform(block, sunlight, light, state);
+    }
+
+    /**
+     * Returns the direct buffers of this section to the allocator. The section must not be used anymore
+     * afterwards. Does nothing for uniform sections and sections stored on the heap.
+     */
+    public void release() {
+        if (_uniform)
+            return;
+
+        _blocks.release();
+        _sunlightArray.release();
+        _lightArray.release();
+        _states.release();
+    }
+
+    /**
+     * Returns the estimated amount of bytes occupied by the voxel data of this section. Uniform sections
+     * are shared between all chunks and do not count.
+     *
+     * @return The amount of bytes
+     */
+    public int estimateMemoryUsage() {
+        if (_uniform)
+            return 0;
+
+        return _blocks.sizePacked() + _sunlightArray.sizePacked() + _lightArray.sizePacked() + _states.sizePacked();
+    }
+
+    /**
+     * Returns the allocator providing the direct memory of all sections.
+     *
+     * @return The allocator, null if sections are stored on the heap
+     */
+    public static TeraSlabAllocator getAllocator() {
+        return _allocator;
+    }
+
+    /**
+     * Returns true if all voxels of this section share the same values.
+     */
+    public boolean isUniform() {
+        return _uniform;
+    }
+
+    /**
+     * Returns the block type at the given position within the section.
+     */
+    public byte getBlock(int x, int y, int z) {
+        if (_uniform)
+            return _block;
+
+        return _blocks.get(x, y, z);
+    }
+
+    /**
+     * Returns the light value at the given position within the section.
+     */
+    public byte getLight(int x, int y, int z, Chunk.LIGHT_TYPE type) {
+        if (type == Chunk.LIGHT_TYPE.SUN)
+            return _uniform ? _sunlight : _sunlightArray.get(x, y, z);
+
+        return _uniform ? _light : _lightArray.get(x, y, z);
+    }
+
+    /**
+     * Copies the light values of the column at the given position into the target array.
+     *
+     * @param x      Position on the x-axis
+     * @param z      Position on the z-axis
+     * @param target The target array
+     * @param offset The start offset within the target array
+     * @param type   The type of the light
+     */
+    public void getLightColumn(int x, int z, byte[] target, int offset, Chunk.LIGHT_TYPE type) {
+        if (_uniform) {
+            Arrays.fill(target, offset, offset + SECTION_DIMENSION_Y, type == Chunk.LIGHT_TYPE.SUN ? _sunlight : _light);
+            return;
+        }
+
+        (type == Chunk.LIGHT_TYPE.SUN ? _sunlightArray : _lightArray).getColumn(x, z, target, offset);
+    }
+
+    /**
+     * Returns the state at the given position within the section.
+     */
+    public byte getState(int x, int y, int z) {
+        if (_uniform)
+            return _state;
+
+        return _states.get(x, y, z);
+    }
+
+    /**
+     * Sets the block type at the given position. Must not be called on uniform sections.
+     */
+    public void setBlock(int x, int y, int z, byte type) {
+        checkModifiable();
+        _blocks.set(x, y, z, type);
+    }
+
+    /**
+     * Sets the light value at the given position. Must not be called on uniform sections.
+     */
+    public void setLight(int x, int y, int z, byte intensity, Chunk.LIGHT_TYPE type) {
+        checkModifiable();
+
+        if (type == Chunk.LIGHT_TYPE.SUN)
+            _sunlightArray.set(x, y, z, intensity);
+        else
+            _lightArray.set(x, y, z, intensity);
+    }
+
+    /**
+     * Sets the light values of the column at the given position. Must not be called on uniform sections.
+     *
+     * @param x      Position on the x-axis
+     * @param z      Position on the z-axis
+     * @param source The source array
+     * @param offset The start offset within the source array
+     * @param type   The type of the light
+     */
+    public void setLightColumn(int x, int z, byte[] source, int offset, Chunk.LIGHT_TYPE type) {
+        checkModifiable();
+        (type == Chunk.LIGHT_TYPE.SUN ? _sunlightArray : _lightArray).setColumn(x, z, source, offset);
+    }
+
+    /**
+     * Fills a part of the light column at the given position with the given value. Must not be called on
+     * uniform sections.
+     *
+     * @param x      Position on the x-axis
+     * @param z      Position on the z-axis
+     * @param yStart The first y-coordinate to fill (inclusive)
+     * @param yEnd   The last y-coordinate to fill (exclusive)
+     * @param value  The light value
+     * @param type   The type of the light
+     */
+    public void fillLightColumn(int x, int z, int yStart, int yEnd, byte value, Chunk.LIGHT_TYPE type) {
+        checkModifiable();
+        (type == Chunk.LIGHT_TYPE.SUN ? _sunlightArray : _lightArray).fillColumn(x, z, yStart, yEnd, value);
+    }
+
+    /**
+     * Sets the states of the column at the given position. Must not be called on uniform sections.
+     *
+     * @param x      Position on the x-axis
+     * @param z      Position on the z-axis
+     * @param source The source array
+     * @param offset The start offset within the source array
+     */
+    public void setStateColumn(int x, int z, byte[] source, int offset) {
+        checkModifiable();
+        _states.setColumn(x, z, source, offset);
+    }
+
+    /**
+     * Sets the state at the given position. Must not be called on uniform sections.
+     */
+    public void setState(int x, int y, int z, byte state) {
+        checkModifiable();
+        _states.set(x, y, z, state);
+    }
+
+    private void checkModifiable() {
+        if (_uniform)
+            throw new IllegalStateException("Uniform chunk sections are shared and can not be modified.");
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2011 Benjamin Glatzel <benjamin.glatzel@me.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.logic.world;
+
+import java.io.IOException;
+
+/**
+ * Basic interface for anything persisting chunks.
+ *
+ * @author Benjamin Glatzel <benjamin.glatzel@me.com>
+ */
+public interface ChunkStore {
+
+    /**
+     * Loads the persisted data of the chunk at the position of the given chunk into it. The chunk has to
+     * contain nothing but air, like freshly created chunks do.
+     *
+     * @param c The chunk to fill
+     * @return True if the chunk was found
+     * @throws IOException If the persisted data could not be read
+     */
+    public boolean loadChunk(Chunk c) throws IOException;
+
+    /**
+     * Persists the given chunk.
+     *
+     * @param c The chunk to save
+     * @throws IOException If the chunk could not be written
+     */
+    public void saveChunk(Chunk c) throws IOException;
+
+    /**
+     * Persists the serialized data of the chunk at the given position.
+     *
+     * @param x    The chunk position on the x-axis
+     * @param z    The chunk position on the z-axis
+     * @param data The data as returned by Chunk.serialize
+     * @throws IOException If the chunk could not be written
+     */
+    public void saveChunkData(int x, int z, byte[] data) throws IOException;
+
+    /**
+     * Returns true if the chunk at the given position has been persisted.
+     *
+     * @param x The chunk position on the x-axis
+     * @param z The chunk position on the z-axis
+     * @return True if the chunk is present
+     */
+    public boolean containsChunk(int x, int z);
+
+    /**
+     * Writes all persisted chunks to the storage device.
+     *
+     * @throws IOException If the chunks could not be written
+     */
+    public void sync() throws IOException;
+
+    /**
+     * Closes all files opened by this chunk store.
+     */
+    public void dispose();
+}
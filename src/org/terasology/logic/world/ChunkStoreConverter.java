@@ -0,0 +1,100 @@
+/*
+ * Copyright 2011 Benjamin Glatzel <benjamin.glatzel@me.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.logic.world;
+
+import org.terasology.game.Terasology;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.logging.Level;
+
+/**
+ * Moves chunks saved by the FileChunkStore into another chunk store. Converted chunk files and
+ * the emptied directories are deleted, files which could not be converted are kept.
+ *
+ * @author Benjamin Glatzel <benjamin.glatzel@me.com>
+ */
+public final class ChunkStoreConverter {
+
+    private ChunkStoreConverter() {
+    }
+
+    /**
+     * Converts all chunk files found within the given world directory.
+     *
+     * @param worldPath The save directory of the world
+     * @param target    The chunk store receiving the chunks
+     * @return The amount of converted chunks
+     */
+    public static int convertChunkFiles(File worldPath, ChunkStore target) {
+        File[] files = worldPath.listFiles();
+
+        if (files == null)
+            return 0;
+
+        int converted = 0;
+
+        for (File f : files) {
+            // Chunk files are stored in one directory per x and z coordinate
+            if (f.isDirectory())
+                converted += convertDirectory(f, target);
+        }
+
+        if (converted > 0)
+            Terasology.getInstance().getLogger().log(Level.INFO, "Converted {0} chunk files in \"{1}\".", new Object[]{converted, worldPath});
+
+        return converted;
+    }
+
+    private static int convertDirectory(File dir, ChunkStore target) {
+        File[] files = dir.listFiles();
+
+        if (files == null)
+            return 0;
+
+        int converted = 0;
+
+        for (File f : files) {
+            if (f.isDirectory()) {
+                converted += convertDirectory(f, target);
+            } else if (FileChunkStore.isChunkFile(f) && convertChunkFile(f, target)) {
+                converted++;
+            }
+        }
+
+        // Only succeeds if all files have been converted
+        dir.delete();
+
+        return converted;
+    }
+
+    private static boolean convertChunkFile(File f, ChunkStore target) {
+        try {
+            Chunk c = FileChunkStore.readChunkFile(f);
+
+            // Never overwrite chunks which have already been saved in the new format
+            if (!target.containsChunk((int) c.getPosition().x, (int) c.getPosition().z))
+                target.saveChunk(c);
+
+            c.dispose();
+        } catch (IOException e) {
+            Terasology.getInstance().getLogger().log(Level.SEVERE, "Could not convert chunk file \"" + f + "\".", e);
+            return false;
+        }
+
+        return f.delete();
+    }
+}
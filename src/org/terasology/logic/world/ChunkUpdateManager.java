@@ -50,6 +50,10 @@ public final class ChunkUpdateManager implements BlockObserver {
     public boolean queueChunkUpdate(Chunk chunk, final UPDATE_TYPE type) {
 
         if (!_currentlyProcessedChunks.contains(chunk) && (_currentlyProcessedChunks.size() < MAX_THREADS || type != UPDATE_TYPE.DEFAULT)) {
+            // The chunk must not leave the cache before it has been processed
+            if (!chunk.pin())
+                return false;
+
             executeChunkUpdate(chunk);
             return true;
         }
@@ -63,8 +67,15 @@ public final class ChunkUpdateManager implements BlockObserver {
         // Create a new thread and start processing
         Runnable r = new Runnable() {
             public void run() {
-                c.processChunk();
-                _currentlyProcessedChunks.remove(c);
+                long epoch = ChunkReclaimer.enter();
+
+                try {
+                    c.processChunk();
+                } finally {
+                    ChunkReclaimer.exit(epoch);
+                    c.unpin();
+                    _currentlyProcessedChunks.remove(c);
+                }
             }
         };
 
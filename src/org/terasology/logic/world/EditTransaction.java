@@ -0,0 +1,140 @@
+/*
+ * Copyright 2011 Benjamin Glatzel <benjamin.glatzel@me.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.logic.world;
+
+import org.terasology.model.structures.BlockPosition;
+import org.terasology.utilities.MathHelper;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Collects the block changes of one edit transaction and updates the light of all of them in a
+ * single pass: one sunlight and one block light propagator process the union of the changed
+ * positions, so overlapping light removals and additions are only calculated once. Chunks touched
+ * by the light update are marked dirty once when the transaction is committed.
+ * <p/>
+ * NOTE: Not thread-safe. Each thread uses its own transaction.
+ *
+ * @author Benjamin Glatzel <benjamin.glatzel@me.com>
+ */
+final class EditTransaction {
+
+    /* CONST */
+    /* Changes farther away from the origin are handled by a new propagation pass */
+    private static final int MAX_DISTANCE = 1024;
+
+    private final LocalWorldProvider _parent;
+
+    /* Nested transactions only commit when the outermost one ends */
+    private int _depth;
+
+    /* Changed positions and the blocks which occupied them before the transaction */
+    private final LinkedHashMap<BlockPosition, Byte> _changes = new LinkedHashMap<BlockPosition, Byte>();
+    private final HashSet<Long> _columns = new HashSet<Long>();
+    private int _originX, _originZ;
+
+    EditTransaction(LocalWorldProvider parent) {
+        _parent = parent;
+    }
+
+    void begin() {
+        _depth++;
+    }
+
+    /**
+     * Ends the transaction. The light is updated when the outermost transaction ends.
+     */
+    void end() {
+        if (_depth == 0)
+            throw new IllegalStateException("No edit transaction to commit.");
+
+        if (--_depth == 0)
+            commit();
+    }
+
+    boolean isOpen() {
+        return _depth > 0;
+    }
+
+    /**
+     * Records that the block at the given position has been replaced.
+     *
+     * @param x        The X-coordinate
+     * @param y        The Y-coordinate
+     * @param z        The Z-coordinate
+     * @param oldBlock The type of the replaced block
+     */
+    void blockChanged(int x, int y, int z, byte oldBlock) {
+        if (_changes.isEmpty()) {
+            _originX = x;
+            _originZ = z;
+        } else if (Math.abs(x - _originX) > MAX_DISTANCE || Math.abs(z - _originZ) > MAX_DISTANCE) {
+            commit();
+            _originX = x;
+            _originZ = z;
+        }
+
+        BlockPosition pos = new BlockPosition(x, y, z);
+
+        // Only the block present before the transaction matters for the light
+        if (!_changes.containsKey(pos))
+            _changes.put(pos, oldBlock);
+
+        _columns.add(MathHelper.packCoordinates(x, z));
+    }
+
+    /**
+     * Updates the light of all recorded changes and marks the affected chunks dirty.
+     */
+    void commit() {
+        if (_changes.isEmpty())
+            return;
+
+        HashSet<Long> dirtyChunks = new HashSet<Long>();
+
+        LightPropagator sunlight = new LightPropagator(_parent, Chunk.LIGHT_TYPE.SUN, _originX, _originZ);
+        sunlight.deferDirtyMarking(dirtyChunks);
+
+        for (long column : _columns)
+            sunlight.updateSunlightColumn(MathHelper.unpackX(column), MathHelper.unpackZ(column));
+
+        for (Map.Entry<BlockPosition, Byte> change : _changes.entrySet())
+            sunlight.blockChanged(change.getKey().x, change.getKey().y, change.getKey().z, change.getValue());
+
+        sunlight.propagate();
+
+        LightPropagator blockLight = new LightPropagator(_parent, Chunk.LIGHT_TYPE.BLOCK, _originX, _originZ);
+        blockLight.deferDirtyMarking(dirtyChunks);
+
+        for (Map.Entry<BlockPosition, Byte> change : _changes.entrySet())
+            blockLight.blockChanged(change.getKey().x, change.getKey().y, change.getKey().z, change.getValue());
+
+        blockLight.propagate();
+
+        // Chunks which have left the cache in the meantime are tessellated from scratch once they are loaded again
+        for (long chunkPos : dirtyChunks) {
+            Chunk c = _parent.getChunkProvider().getCachedChunk(MathHelper.unpackX(chunkPos), MathHelper.unpackZ(chunkPos));
+
+            if (c != null)
+                c.setDirty(true);
+        }
+
+        _changes.clear();
+        _columns.clear();
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2011 Benjamin Glatzel <benjamin.glatzel@me.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.logic.world;
+
+import javax.vecmath.Vector3d;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+/**
+ * Stores every chunk in a file of its own, written using Java serialization. This is the format
+ * worlds were saved in before region files were introduced.
+ *
+ * @author Benjamin Glatzel <benjamin.glatzel@me.com>
+ */
+public final class FileChunkStore implements ChunkStore {
+
+    private final File _worldPath;
+
+    /**
+     * Init. a new chunk store.
+     *
+     * @param worldPath The save directory of the world
+     */
+    public FileChunkStore(File worldPath) {
+        _worldPath = worldPath;
+    }
+
+    public synchronized boolean loadChunk(Chunk c) throws IOException {
+        File f = getChunkFile(c.getPosition());
+
+        if (!f.exists())
+            return false;
+
+        Chunk loaded = readChunkFile(f);
+
+        // Deserialization always creates a new chunk, so copy the data over
+        byte[] data = loaded.serialize();
+        loaded.dispose();
+
+        c.readData(new DataInputStream(new ByteArrayInputStream(data)));
+        return true;
+    }
+
+    public synchronized void saveChunk(Chunk c) throws IOException {
+        File f = getChunkFile(c.getPosition());
+        File dirPath = f.getParentFile();
+
+        if (!dirPath.exists()) {
+            if (!dirPath.mkdirs()) {
+                throw new IOException("Could not create save directory.");
+            }
+        }
+
+        ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(f)));
+
+        try {
+            out.writeObject(c);
+        } finally {
+            out.close();
+        }
+    }
+
+    public void saveChunkData(int x, int z, byte[] data) throws IOException {
+        // Serialization needs a chunk object
+        Chunk c = new Chunk();
+        c.readData(new DataInputStream(new ByteArrayInputStream(data)));
+
+        try {
+            saveChunk(c);
+        } finally {
+            c.dispose();
+        }
+    }
+
+    public boolean containsChunk(int x, int z) {
+        return getChunkFile(new Vector3d(x, 0, z)).exists();
+    }
+
+    public void sync() {
+        // Files are closed right after writing, which is as far as this format goes
+    }
+
+    public void dispose() {
+        // Files are closed right after reading and writing
+    }
+
+    private File getChunkFile(Vector3d position) {
+        return new File(_worldPath, Chunk.getChunkSavePathForPosition(position) + "/" + Chunk.getChunkFileNameForPosition(position));
+    }
+
+    /**
+     * Reads a chunk written by this chunk store.
+     *
+     * @param f The chunk file
+     * @return The chunk, not bound to any world
+     * @throws IOException If the file could not be read
+     */
+    public static Chunk readChunkFile(File f) throws IOException {
+        ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(f)));
+
+        try {
+            return (Chunk) in.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IOException(e);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Returns true if the given file was written by this chunk store.
+     */
+    public static boolean isChunkFile(File f) {
+        return f.isFile() && f.getName().startsWith("bc_");
+    }
+}
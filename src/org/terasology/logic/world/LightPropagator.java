@@ -0,0 +1,354 @@
+/*
+ * Copyright 2011 Benjamin Glatzel <benjamin.glatzel@me.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.logic.world;
+
+import org.terasology.model.blocks.Block;
+import org.terasology.model.blocks.BlockManager;
+import org.terasology.model.structures.TeraIntQueue;
+import org.terasology.utilities.MathHelper;
+
+import java.util.HashSet;
+
+/**
+ * Propagates changes of light values through the world with an iterative breadth-first search.
+ * <p/>
+ * Light is removed with the common two queue approach: the removal pass darkens every voxel which
+ * received its light from a darkened voxel and collects the brighter voxels found at the border of the
+ * darkened area. Those are spread again by the addition pass, together with all new light sources.
+ * Sunlight and block light are handled by the same code and only differ in their sources: voxels which
+ * can see the sky and luminous blocks.
+ * <p/>
+ * Positions are queued as ints packed relative to an origin, so all positions touched by one
+ * propagator have to be within 2000 blocks of the origin on the horizontal axes.
+ * <p/>
+ * NOTE: Not thread-safe. A propagator collects the changes of one update and is discarded afterwards.
+ *
+ * @author Benjamin Glatzel <benjamin.glatzel@me.com>
+ */
+public final class LightPropagator {
+
+    /* CONST */
+    private static final byte MAX_LIGHT = 15;
+    /* Horizontal offsets to the origin are stored as 12 bit values */
+    private static final int MAX_OFFSET = (1 << 11) - 1;
+
+    private static final int[] NEIGHBOR_X = {1, -1, 0, 0, 0, 0};
+    private static final int[] NEIGHBOR_Y = {0, 0, 1, -1, 0, 0};
+    private static final int[] NEIGHBOR_Z = {0, 0, 0, 0, 1, -1};
+
+    private final LocalWorldProvider _parent;
+    private final Chunk.LIGHT_TYPE _type;
+    private final int _originX, _originZ;
+
+    /* Positions followed by the light value they had before they were darkened */
+    private final TeraIntQueue _removalQueue = new TeraIntQueue(64);
+    private final TeraIntQueue _additionQueue = new TeraIntQueue(64);
+
+    /* Blocks by their unsigned id, looked up on first use */
+    private final Block[] _blocks = new Block[256];
+
+    /* The chunk accessed last */
+    private Chunk _chunk;
+    private int _chunkPosX, _chunkPosZ, _chunkWorldPosX, _chunkWorldPosZ;
+
+    /* Positions of the chunks which need new meshes, null to mark them dirty on each write */
+    private HashSet<Long> _dirtyChunks;
+    private Chunk _lastDirtyChunk;
+
+    /* STATISTICS */
+    private long _processedVoxels;
+
+    /**
+     * Init. a new light propagator.
+     *
+     * @param parent  The world
+     * @param type    The type of the light to propagate
+     * @param originX The X-coordinate positions are stored relative to
+     * @param originZ The Z-coordinate positions are stored relative to
+     */
+    public LightPropagator(LocalWorldProvider parent, Chunk.LIGHT_TYPE type, int originX, int originZ) {
+        _parent = parent;
+        _type = type;
+        _originX = originX;
+        _originZ = originZ;
+    }
+
+    /**
+     * Collects the positions of all chunks whose meshes are affected by the light changes of this propagator
+     * in the given set, instead of marking them dirty on every write.
+     *
+     * @param dirtyChunks The set receiving the packed chunk positions
+     */
+    public void deferDirtyMarking(HashSet<Long> dirtyChunks) {
+        _dirtyChunks = dirtyChunks;
+    }
+
+    /**
+     * Queues the light updates needed after the block at the given position has been replaced. Sunlight
+     * columns are not refreshed, see updateSunlightColumn().
+     *
+     * @param x        The X-coordinate
+     * @param y        The Y-coordinate
+     * @param z        The Z-coordinate
+     * @param oldBlock The type of the replaced block
+     */
+    public void blockChanged(int x, int y, int z, byte oldBlock) {
+        Block block = getBlockAt(x, y, z);
+        Block previous = getBlock(oldBlock);
+
+        // Light passing through the position or emitted by the old block has to be removed first
+        if (!block.isTranslucent() || getSourceLight(previous) > 0)
+            removeLight(x, y, z);
+
+        addLight(x, y, z, getSourceLight(block));
+
+        // Let the surrounding light flow into the opened position
+        if (block.isTranslucent() && !previous.isTranslucent()) {
+            for (int i = 0; i < 6; i++)
+                spreadLight(x + NEIGHBOR_X[i], y + NEIGHBOR_Y[i], z + NEIGHBOR_Z[i]);
+        }
+    }
+
+    /**
+     * Queues the sunlight updates of the given column after the sunlight heightmap has changed: voxels above
+     * the heightmap which lost their full sunlight get it back, voxels at or below it which still have full
+     * sunlight are darkened. Only the part of the column between the old and the new height is visited.
+     *
+     * @param x The X-coordinate
+     * @param z The Z-coordinate
+     */
+    public void updateSunlightColumn(int x, int z) {
+        if (_type != Chunk.LIGHT_TYPE.SUN)
+            throw new IllegalStateException("Only sunlight is emitted by the sky.");
+
+        Chunk c = getChunk(x, z);
+        int height = c.getSunlightHeight(x - _chunkWorldPosX, z - _chunkWorldPosZ);
+
+        // Only voxels seeing the sky have full sunlight and they form a single run from the top
+        for (int y = height + 1; y < Chunk.CHUNK_DIMENSION_Y && getLight(x, y, z) != MAX_LIGHT; y++)
+            addLight(x, y, z, MAX_LIGHT);
+
+        for (int y = height; y >= 0 && getLight(x, y, z) == MAX_LIGHT; y--)
+            removeLight(x, y, z);
+    }
+
+    /**
+     * Raises the light at the given position to the given value and queues it for spreading.
+     * Does nothing if the position is already at least as bright.
+     *
+     * @param x     The X-coordinate
+     * @param y     The Y-coordinate
+     * @param z     The Z-coordinate
+     * @param value The light value
+     */
+    public void addLight(int x, int y, int z, byte value) {
+        if (value <= getLight(x, y, z))
+            return;
+
+        setLight(x, y, z, value);
+        _additionQueue.add(pack(x, y, z));
+    }
+
+    /**
+     * Queues the current light at the given position for spreading to its neighbors.
+     *
+     * @param x The X-coordinate
+     * @param y The Y-coordinate
+     * @param z The Z-coordinate
+     */
+    public void spreadLight(int x, int y, int z) {
+        if (y < 0 || y >= Chunk.CHUNK_DIMENSION_Y || getLight(x, y, z) <= 1)
+            return;
+
+        _additionQueue.add(pack(x, y, z));
+    }
+
+    /**
+     * Darkens the given position and queues the removal of all light which originated from it.
+     *
+     * @param x The X-coordinate
+     * @param y The Y-coordinate
+     * @param z The Z-coordinate
+     */
+    public void removeLight(int x, int y, int z) {
+        byte light = getLight(x, y, z);
+
+        if (light <= 0)
+            return;
+
+        setLight(x, y, z, (byte) 0);
+        _removalQueue.add(pack(x, y, z));
+        _removalQueue.add(light);
+    }
+
+    /**
+     * Processes all queued removals and afterwards all queued additions.
+     */
+    public void propagate() {
+        while (!_removalQueue.isEmpty()) {
+            int pos = _removalQueue.poll();
+            byte light = (byte) _removalQueue.poll();
+
+            int x = unpackX(pos), y = unpackY(pos), z = unpackZ(pos);
+            _processedVoxels++;
+
+            for (int i = 0; i < 6; i++) {
+                int neighborX = x + NEIGHBOR_X[i], neighborY = y + NEIGHBOR_Y[i], neighborZ = z + NEIGHBOR_Z[i];
+
+                if (neighborY < 0 || neighborY >= Chunk.CHUNK_DIMENSION_Y)
+                    continue;
+
+                byte neighborLight = getLight(neighborX, neighborY, neighborZ);
+
+                if (neighborLight == 0)
+                    continue;
+
+                if (neighborLight < light) {
+                    // The neighbor might have received its light from here
+                    removeLight(neighborX, neighborY, neighborZ);
+                    addLight(neighborX, neighborY, neighborZ, getSourceLight(getBlockAt(neighborX, neighborY, neighborZ)));
+                } else {
+                    // Brighter light from somewhere else fills the darkened area again
+                    _additionQueue.add(pack(neighborX, neighborY, neighborZ));
+                }
+            }
+        }
+
+        while (!_additionQueue.isEmpty()) {
+            int pos = _additionQueue.poll();
+            int x = unpackX(pos), y = unpackY(pos), z = unpackZ(pos);
+            _processedVoxels++;
+
+            byte light = getLight(x, y, z);
+
+            if (light <= 1)
+                continue;
+
+            for (int i = 0; i < 6; i++) {
+                int neighborX = x + NEIGHBOR_X[i], neighborY = y + NEIGHBOR_Y[i], neighborZ = z + NEIGHBOR_Z[i];
+
+                if (neighborY < 0 || neighborY >= Chunk.CHUNK_DIMENSION_Y)
+                    continue;
+
+                if (getLight(neighborX, neighborY, neighborZ) < light - 1 && getBlockAt(neighborX, neighborY, neighborZ).isTranslucent()) {
+                    setLight(neighborX, neighborY, neighborZ, (byte) (light - 1));
+                    _additionQueue.add(pack(neighborX, neighborY, neighborZ));
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the amount of voxels processed by the removal and the addition passes so far.
+     *
+     * @return The amount of voxels
+     */
+    public long getProcessedVoxels() {
+        return _processedVoxels;
+    }
+
+    private byte getSourceLight(Block block) {
+        // The sky is handled per column
+        return _type == Chunk.LIGHT_TYPE.BLOCK ? block.getLuminance() : 0;
+    }
+
+    private Block getBlock(byte type) {
+        Block result = _blocks[type & 0xFF];
+
+        if (result == null) {
+            result = BlockManager.getInstance().getBlock(type);
+            _blocks[type & 0xFF] = result;
+        }
+
+        return result;
+    }
+
+    private Block getBlockAt(int x, int y, int z) {
+        Chunk c = getChunk(x, z);
+        return getBlock(c.getBlock(x - _chunkWorldPosX, y, z - _chunkWorldPosZ));
+    }
+
+    private byte getLight(int x, int y, int z) {
+        Chunk c = getChunk(x, z);
+        return c.getLight(x - _chunkWorldPosX, y, z - _chunkWorldPosZ, _type);
+    }
+
+    private void setLight(int x, int y, int z, byte value) {
+        Chunk c = getChunk(x, z);
+        int localX = x - _chunkWorldPosX, localZ = z - _chunkWorldPosZ;
+
+        if (_dirtyChunks == null) {
+            c.setLight(localX, y, localZ, value, _type);
+            return;
+        }
+
+        if (!c.setLightValue(localX, y, localZ, value, _type))
+            return;
+
+        if (c != _lastDirtyChunk) {
+            _dirtyChunks.add(MathHelper.packCoordinates(_chunkPosX, _chunkPosZ));
+            _lastDirtyChunk = c;
+        }
+
+        // Blocks at the border affect the meshes of the neighbors
+        int minX = localX == 0 ? -1 : 0, maxX = localX == Chunk.CHUNK_DIMENSION_X - 1 ? 1 : 0;
+        int minZ = localZ == 0 ? -1 : 0, maxZ = localZ == Chunk.CHUNK_DIMENSION_Z - 1 ? 1 : 0;
+
+        for (int i = minX; i <= maxX; i++) {
+            for (int j = minZ; j <= maxZ; j++) {
+                if (i != 0 || j != 0)
+                    _dirtyChunks.add(MathHelper.packCoordinates(_chunkPosX + i, _chunkPosZ + j));
+            }
+        }
+    }
+
+    private Chunk getChunk(int x, int z) {
+        int chunkPosX = MathHelper.calcChunkPosX(x);
+        int chunkPosZ = MathHelper.calcChunkPosZ(z);
+
+        if (_chunk == null || chunkPosX != _chunkPosX || chunkPosZ != _chunkPosZ) {
+            _chunk = _parent.getChunkProvider().loadOrCreateChunk(chunkPosX, chunkPosZ);
+            _chunkPosX = chunkPosX;
+            _chunkPosZ = chunkPosZ;
+            _chunkWorldPosX = _chunk.getChunkWorldPosX();
+            _chunkWorldPosZ = _chunk.getChunkWorldPosZ();
+        }
+
+        return _chunk;
+    }
+
+    private int pack(int x, int y, int z) {
+        int offsetX = x - _originX;
+        int offsetZ = z - _originZ;
+
+        if (offsetX > MAX_OFFSET || offsetX < -MAX_OFFSET || offsetZ > MAX_OFFSET || offsetZ < -MAX_OFFSET)
+            throw new IllegalArgumentException("Light update too far away from its origin: " + x + ", " + z);
+
+        return ((offsetX & 0xFFF) << 20) | ((offsetZ & 0xFFF) << 8) | y;
+    }
+
+    private int unpackX(int pos) {
+        return _originX + (pos >> 20);
+    }
+
+    private int unpackY(int pos) {
+        return pos & 0xFF;
+    }
+
+    private int unpackZ(int pos) {
+        return _originZ + ((pos << 12) >> 20);
+    }
+}
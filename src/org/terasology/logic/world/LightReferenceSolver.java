@@ -0,0 +1,195 @@
+/*
+ * Copyright 2011 Benjamin Glatzel <benjamin.glatzel@me.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.logic.world;
+
+import org.terasology.game.Terasology;
+import org.terasology.model.blocks.Block;
+import org.terasology.model.blocks.BlockManager;
+
+import java.util.logging.Level;
+
+/**
+ * Calculates the light of a box shaped region of the world from scratch, ignoring the light values
+ * currently stored in the chunks. The solver only knows the rules of the light engine - sunlight covers
+ * everything above the first block blocking it, luminous blocks emit their luminance and light loses
+ * one level per step through translucent blocks - and relaxes the whole region until nothing changes
+ * anymore. Very slow, meant as the reference the propagators are tested and benchmarked against.
+ * <p/>
+ * Light from outside the region is not known to the solver, so only voxels at least 15 blocks away from
+ * the border of the region can be compared with the light of the world.
+ *
+ * @author Benjamin Glatzel <benjamin.glatzel@me.com>
+ */
+public final class LightReferenceSolver {
+
+    /* CONST */
+    private static final int MAX_LOGGED_MISMATCHES = 5;
+
+    private final WorldProvider _worldProvider;
+    private final int _minX, _minZ, _sizeX, _sizeZ;
+
+    private final byte[] _blocks;
+    private final boolean[] _translucent = new boolean[256];
+    private final boolean[] _blocksSunlight = new boolean[256];
+    private final byte[] _luminance = new byte[256];
+
+    /**
+     * Init. the solver with the blocks of the given region.
+     *
+     * @param worldProvider The world
+     * @param minX          The first block of the region on the x-axis
+     * @param minZ          The first block of the region on the z-axis
+     * @param sizeX         The size of the region on the x-axis
+     * @param sizeZ         The size of the region on the z-axis
+     */
+    public LightReferenceSolver(WorldProvider worldProvider, int minX, int minZ, int sizeX, int sizeZ) {
+        _worldProvider = worldProvider;
+        _minX = minX;
+        _minZ = minZ;
+        _sizeX = sizeX;
+        _sizeZ = sizeZ;
+
+        for (int i = 0; i < 256; i++) {
+            Block block = BlockManager.getInstance().getBlock((byte) i);
+
+            if (block == null)
+                continue;
+
+            _translucent[i] = block.isTranslucent();
+            _blocksSunlight[i] = Chunk.blocksSunlight(block);
+            _luminance[i] = block.getLuminance();
+        }
+
+        _blocks = new byte[_sizeX * _sizeZ * Chunk.CHUNK_DIMENSION_Y];
+
+        for (int x = 0; x < _sizeX; x++) {
+            for (int z = 0; z < _sizeZ; z++) {
+                for (int y = 0; y < Chunk.CHUNK_DIMENSION_Y; y++) {
+                    _blocks[index(x, y, z)] = worldProvider.getBlock(_minX + x, y, _minZ + z);
+                }
+            }
+        }
+    }
+
+    /**
+     * Calculates the light of the region.
+     *
+     * @param type The type of the light
+     * @return The light values, indexed like the voxels of the region (x-major, columns of y)
+     */
+    public byte[] solve(Chunk.LIGHT_TYPE type) {
+        byte[] light = new byte[_blocks.length];
+
+        // Seed the sunlight of the uncovered voxels and the light of all luminous blocks
+        for (int x = 0; x < _sizeX; x++) {
+            for (int z = 0; z < _sizeZ; z++) {
+                boolean covered = false;
+
+                for (int y = Chunk.CHUNK_DIMENSION_Y - 1; y >= 0; y--) {
+                    int i = index(x, y, z);
+                    int block = _blocks[i] & 0xFF;
+
+                    if (type == Chunk.LIGHT_TYPE.SUN) {
+                        covered |= _blocksSunlight[block];
+                        light[i] = covered ? 0 : (byte) 15;
+                    } else {
+                        light[i] = _luminance[block];
+                    }
+                }
+            }
+        }
+
+        // Alternate the sweep direction, so light travelling in any direction is carried along quickly
+        boolean changed = true;
+        for (int pass = 0; changed; pass++) {
+            changed = false;
+
+            for (int n = 0; n < light.length; n++) {
+                int i = (pass & 1) == 0 ? n : light.length - 1 - n;
+
+                if (!_translucent[_blocks[i] & 0xFF])
+                    continue;
+
+                int max = brightestNeighbor(light, i);
+
+                if (max - 1 > light[i]) {
+                    light[i] = (byte) (max - 1);
+                    changed = true;
+                }
+            }
+        }
+
+        return light;
+    }
+
+    private int brightestNeighbor(byte[] light, int i) {
+        int y = i % Chunk.CHUNK_DIMENSION_Y;
+        int z = (i / Chunk.CHUNK_DIMENSION_Y) % _sizeZ;
+        int x = i / (Chunk.CHUNK_DIMENSION_Y * _sizeZ);
+
+        int max = 0;
+
+        if (x > 0)
+            max = Math.max(max, light[i - Chunk.CHUNK_DIMENSION_Y * _sizeZ]);
+        if (x < _sizeX - 1)
+            max = Math.max(max, light[i + Chunk.CHUNK_DIMENSION_Y * _sizeZ]);
+        if (z > 0)
+            max = Math.max(max, light[i - Chunk.CHUNK_DIMENSION_Y]);
+        if (z < _sizeZ - 1)
+            max = Math.max(max, light[i + Chunk.CHUNK_DIMENSION_Y]);
+        if (y > 0)
+            max = Math.max(max, light[i - 1]);
+        if (y < Chunk.CHUNK_DIMENSION_Y - 1)
+            max = Math.max(max, light[i + 1]);
+
+        return max;
+    }
+
+    /**
+     * Compares the light of the world with the calculated light of the region. The first mismatches are logged.
+     *
+     * @param margin The amount of blocks along the horizontal border of the region which are not compared
+     * @return The amount of voxels with a differing sunlight or block light value
+     */
+    public int countMismatches(int margin) {
+        int mismatches = 0;
+
+        for (Chunk.LIGHT_TYPE type : Chunk.LIGHT_TYPE.values()) {
+            byte[] light = solve(type);
+
+            for (int x = margin; x < _sizeX - margin; x++) {
+                for (int z = margin; z < _sizeZ - margin; z++) {
+                    for (int y = 0; y < Chunk.CHUNK_DIMENSION_Y; y++) {
+                        int i = index(x, y, z);
+                        byte actual = _worldProvider.getLight(_minX + x, y, _minZ + z, type);
+
+                        if (actual == light[i])
+                            continue;
+
+                        if (mismatches++ < MAX_LOGGED_MISMATCHES)
+                            Terasology.getInstance().getLogger().log(Level.WARNING, "Light mismatch ({0}) at {1}, {2}, {3}: {4} instead of {5}.", new Object[]{type, _minX + x, y, _minZ + z, actual, light[i]});
+                    }
+                }
+            }
+        }
+
+        return mismatches;
+    }
+
+    private int index(int x, int y, int z) {
+        return (x * _sizeZ + z) * Chunk.CHUNK_DIMENSION_Y + y;
+    }
+}
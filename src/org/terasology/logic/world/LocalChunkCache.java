@@ -16,15 +16,22 @@
 package org.terasology.logic.world;
 
 import org.terasology.game.Terasology;
+import org.terasology.logic.generators.ChunkGenerator;
 import org.terasology.logic.manager.ConfigurationManager;
+import org.terasology.model.structures.TeraConcurrentLongMap;
 import org.terasology.utilities.MathHelper;
 
 import javax.vecmath.Vector3d;
-import java.io.*;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 
 /**
@@ -36,11 +43,30 @@ public final class LocalChunkCache implements ChunkProvider {
 
     private static final boolean SAVE_CHUNKS = (Boolean) ConfigurationManager.getInstance().getConfig().get("System.saveChunks");
     private static final int CACHE_SIZE = (Integer) ConfigurationManager.getInstance().getConfig().get("System.chunkCacheSize");
+    private static final long CACHE_BUDGET = 1024L * 1024L * (Integer) ConfigurationManager.getInstance().getConfig().get("System.chunkCacheBudget");
+    /* Interval in ms in which the memory usage of the cached chunks is estimated again */
+    private static final long ACCOUNTING_INTERVAL = 1000;
+    private static final String CHUNK_STORAGE = (String) ConfigurationManager.getInstance().getConfig().get("System.chunkStorage");
+    private static final int SAVE_QUEUE_SIZE = (Integer) ConfigurationManager.getInstance().getConfig().get("System.chunkSaveQueueSize");
+    private static final int POOL_SIZE = (Integer) ConfigurationManager.getInstance().getConfig().get("System.chunkPoolSize");
 
     private static boolean _running = false;
 
-    private final ConcurrentHashMap<Integer, Chunk> _chunkCache = new ConcurrentHashMap<Integer, Chunk>();
+    private final TeraConcurrentLongMap<Chunk> _chunkCache = new TeraConcurrentLongMap<Chunk>();
+    private final ChunkEvictionIndex _evictionIndex = new ChunkEvictionIndex();
+    /* Loads currently in progress, shared by all threads requesting the same chunk */
+    private final TeraConcurrentLongMap<FutureTask<Chunk>> _loadingChunks = new TeraConcurrentLongMap<FutureTask<Chunk>>();
     private final LocalWorldProvider _parent;
+    private final ChunkPool _chunkPool = new ChunkPool(POOL_SIZE);
+    private final ChunkStore _chunkStore;
+    private final ChunkSaveQueue _saveQueue;
+
+    /* STATISTICS */
+    private final AtomicLong _unmodifiedChunks = new AtomicLong();
+    private final AtomicLong _loadedChunks = new AtomicLong(), _createdChunks = new AtomicLong(), _duplicateLoadsAvoided = new AtomicLong();
+    private volatile long _memoryHighWaterMark, _lastAccounting;
+    private volatile double _evictionRate;
+    private long _lastEvictedChunks;
 
     /**
      * Init. a new local chunk cache.
@@ -49,6 +75,29 @@ public final class LocalChunkCache implements ChunkProvider {
      */
     public LocalChunkCache(LocalWorldProvider parent) {
         _parent = parent;
+        _chunkStore = createChunkStore();
+        _saveQueue = new ChunkSaveQueue(_chunkStore, SAVE_QUEUE_SIZE);
+    }
+
+    /**
+     * Creates the chunk store configured in "System.chunkStorage". Chunk files of worlds saved before
+     * region files were introduced are converted right away.
+     *
+     * @return The chunk store
+     */
+    private ChunkStore createChunkStore() {
+        File worldPath = new File(_parent.getWorldSavePath());
+
+        if (CHUNK_STORAGE.equals("file"))
+            return new FileChunkStore(worldPath);
+
+        ChunkGenerator terrainGenerator = _parent.getGeneratorManager().getChunkGenerators().get(0);
+        ChunkDeltaEncoder delta = new ChunkDeltaEncoder(terrainGenerator, _parent.isDeltaChunkStorage());
+
+        ChunkStore store = new RegionChunkStore(worldPath, new ChunkCodec(_parent.getChunkCodecType()), delta);
+        ChunkStoreConverter.convertChunkFiles(worldPath, store);
+
+        return store;
     }
 
     /**
@@ -56,62 +105,213 @@ public final class LocalChunkCache implements ChunkProvider {
      * <p/>
      * NOTE: This method ALWAYS returns a valid chunk since a new chunk is generated if none of the present
      * chunks fit the request.
+     * <p/>
+     * Every chunk is loaded or created exactly once: threads requesting a chunk which is currently being
+     * loaded wait for the pending load instead of starting another one.
      *
      * @param x X-coordinate of the chunk
      * @param z Z-coordinate of the chunk
      * @return The chunk
      */
-    public Chunk loadOrCreateChunk(int x, int z) {
-        int chunkId = MathHelper.cantorize(MathHelper.mapToPositive(x), MathHelper.mapToPositive(z));
+    public Chunk loadOrCreateChunk(final int x, final int z) {
+        final long chunkId = MathHelper.packCoordinates(x, z);
 
         // Try to load the chunk from the cache
         Chunk c = _chunkCache.get(chunkId);
 
         // We got a chunk! Already! Great!
         if (c != null) {
+            _evictionIndex.touch(c);
             return c;
         }
 
         // Okay, seems like we've got some more stuff to do...
+        FutureTask<Chunk> load = new FutureTask<Chunk>(new Callable<Chunk>() {
+            public Chunk call() throws Exception {
+                return loadChunkIntoCache(chunkId, x, z);
+            }
+        });
+
+        FutureTask<Chunk> pendingLoad = _loadingChunks.putIfAbsent(chunkId, load);
+
+        if (pendingLoad == null) {
+            try {
+                load.run();
+            } finally {
+                // The chunk is in the cache at this point, so later requests won't start another load
+                _loadingChunks.remove(chunkId, load);
+            }
+
+            pendingLoad = load;
+        } else {
+            _duplicateLoadsAvoided.incrementAndGet();
+        }
+
+        return awaitLoad(pendingLoad);
+    }
+
+    /**
+     * Returns the chunk at the given position if it is cached, without loading or creating it.
+     *
+     * @param x X-coordinate of the chunk
+     * @param z Z-coordinate of the chunk
+     * @return The chunk, null if it is not cached
+     */
+    public Chunk getCachedChunk(int x, int z) {
+        return _chunkCache.get(MathHelper.packCoordinates(x, z));
+    }
+
+    /**
+     * Loads a specified chunk like loadOrCreateChunk() and pins it, so it is not evicted until it is unpinned.
+     *
+     * @param x X-coordinate of the chunk
+     * @param z Z-coordinate of the chunk
+     * @return The pinned chunk
+     */
+    public Chunk loadAndPinChunk(int x, int z) {
+        while (true) {
+            Chunk c = loadOrCreateChunk(x, z);
+
+            if (c.pin())
+                return c;
+
+            // The chunk is just being removed from the cache, the next request loads it again
+            Thread.yield();
+        }
+    }
+
+    /**
+     * Loads the chunk from the disk or creates it and puts it into the cache. Only called by the
+     * thread owning the load of the chunk.
+     */
+    private Chunk loadChunkIntoCache(long chunkId, int x, int z) {
+        // Another load might have finished between the cache lookup and taking over the load
+        Chunk c = _chunkCache.get(chunkId);
+
+        if (c != null)
+            return c;
+
         Vector3d chunkPos = new Vector3d(x, 0, z);
 
-        // Try to load the chunk from the disk
-        c = loadChunkFromDisk(chunkPos);
+        c = _chunkPool.obtain(_parent, chunkPos);
+
+        // Try to load the chunk from the disk, otherwise the fresh chunk is generated from scratch
+        try {
+            byte[] pending = _saveQueue.getPendingData(x, z);
+
+            // Chunks waiting to be saved are newer than the ones on the disk
+            if (pending != null) {
+                c.readData(new DataInputStream(new ByteArrayInputStream(pending)));
+                _loadedChunks.incrementAndGet();
+            } else if (_chunkStore.loadChunk(c)) {
+                _loadedChunks.incrementAndGet();
+            } else {
+                _createdChunks.incrementAndGet();
+            }
+        } catch (IOException e) {
+            Terasology.getInstance().getLogger().log(Level.SEVERE, "Could not load chunk, generating it from scratch.", e);
 
-        // Check if chunk has been loaded, otherwise create fresh chunk from scratch
-        if (c == null) {
-            c = new Chunk(_parent, chunkPos);
+            // Loading might have failed halfway through, so start over with a clean chunk
+            c.dispose();
+            c = _chunkPool.obtain(_parent, chunkPos);
+            _createdChunks.incrementAndGet();
         }
 
         // Cache the chunk...
         _chunkCache.put(chunkId, c);
+        _evictionIndex.add(c, x, z);
 
         // ... and finally return it
         return c;
     }
 
     /**
-     * Removes old chunks from the cache if the size limit has been reached.
+     * Waits for the given load to finish. Interrupts are deferred until the chunk is available, since
+     * callers rely on always getting a valid chunk.
+     */
+    private static Chunk awaitLoad(FutureTask<Chunk> load) {
+        boolean interrupted = false;
+
+        try {
+            while (true) {
+                try {
+                    return load.get();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof RuntimeException)
+                        throw (RuntimeException) e.getCause();
+                    if (e.getCause() instanceof Error)
+                        throw (Error) e.getCause();
+
+                    throw new IllegalStateException("Could not load chunk.", e.getCause());
+                }
+            }
+        } finally {
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Removes old chunks from the cache if the size limit or the memory budget has been exceeded. The
+     * chunks farthest away from the rendering reference point which have not been accessed recently are
+     * removed first.
      */
     public void flushCache() {
-        if (_running || _chunkCache.size() <= CACHE_SIZE)
+        _evictionIndex.tick();
+
+        // Once per frame, so chunks evicted by the last flushes can be reused as soon as possible
+        ChunkReclaimer.reclaim();
+
+        if (_running)
+            return;
+
+        final long now = System.currentTimeMillis();
+        final boolean account = now - _lastAccounting >= ACCOUNTING_INTERVAL;
+
+        if (!account && _chunkCache.size() <= CACHE_SIZE && !isOverBudget())
             return;
 
         _running = true;
 
         Runnable r = new Runnable() {
             public void run() {
-                ArrayList<Chunk> cachedChunks = new ArrayList<Chunk>(_chunkCache.values());
-                Collections.sort(cachedChunks);
+                if (account)
+                    updateStatistics(now);
+
+                if (_chunkCache.size() <= CACHE_SIZE && !isOverBudget()) {
+                    _running = false;
+                    return;
+                }
+
+                Vector3d referencePoint = _parent.getRenderingReferencePoint();
+                int referenceX = MathHelper.calcChunkPosX((int) referencePoint.x);
+                int referenceZ = MathHelper.calcChunkPosZ((int) referencePoint.z);
 
                 synchronized (_chunkCache) {
-                    while (cachedChunks.size() > CACHE_SIZE) {
-                        Chunk chunkToDelete = cachedChunks.remove(cachedChunks.size() - 1);
-                        // Write the chunk to disk (but do not remove it from the cache just jet)
+                    long excessBytes = CACHE_BUDGET > 0 ? _evictionIndex.getMemoryUsage() - CACHE_BUDGET : 0;
+                    ArrayList<Chunk> chunksToDelete = _evictionIndex.evict(_chunkCache.size() - CACHE_SIZE, excessBytes, referenceX, referenceZ);
+
+                    for (Chunk chunkToDelete : chunksToDelete) {
+
+                        long chunkId = MathHelper.packCoordinates((int) chunkToDelete.getPosition().x, (int) chunkToDelete.getPosition().z);
+
+                        // The cache might have been disposed in the meantime
+                        if (_chunkCache.get(chunkId) != chunkToDelete)
+                            continue;
+
+                        // Queue the chunk for saving (but do not remove it from the cache just jet), blocks while the save queue is full
                         writeChunkToDisk(chunkToDelete);
-                        // When the chunk is written, finally remove it from the cache
-                        _chunkCache.values().remove(chunkToDelete);
 
+                        // Chunks pinned in the meantime stay in the cache
+                        if (!chunkToDelete.claimForEviction()) {
+                            _evictionIndex.add(chunkToDelete, (int) chunkToDelete.getPosition().x, (int) chunkToDelete.getPosition().z);
+                            continue;
+                        }
+
+                        // When the chunk is queued, finally remove it from the cache. It is reused once no thread can reach it anymore
+                        _chunkCache.remove(chunkId, chunkToDelete);
                         chunkToDelete.dispose();
                     }
                 }
@@ -123,83 +323,128 @@ public final class LocalChunkCache implements ChunkProvider {
         Terasology.getInstance().getThreadPool().execute(r);
     }
 
+    private boolean isOverBudget() {
+        return CACHE_BUDGET > 0 && _evictionIndex.getMemoryUsage() > CACHE_BUDGET;
+    }
+
     /**
-     * Writes all chunks to disk and disposes them.
+     * Estimates the memory usage of the cached chunks again and updates the high-water mark and
+     * the eviction rate. Only called by the flush task.
+     *
+     * @param now The current time in ms
      */
-    public void dispose() {
-        Runnable r = new Runnable() {
-            public void run() {
-                for (Chunk c : _chunkCache.values()) {
-                    writeChunkToDisk(c);
-                    c.dispose();
-                }
+    private void updateStatistics(long now) {
+        long usage = _evictionIndex.updateMemoryUsage();
 
-                _chunkCache.clear();
-            }
-        };
+        if (usage > _memoryHighWaterMark)
+            _memoryHighWaterMark = usage;
 
-        Terasology.getInstance().getThreadPool().submit(r);
+        long evictedChunks = _evictionIndex.getEvictedChunks();
+
+        if (_lastAccounting > 0)
+            _evictionRate = (evictedChunks - _lastEvictedChunks) * 1000.0 / (now - _lastAccounting);
+
+        _lastEvictedChunks = evictedChunks;
+        _lastAccounting = now;
     }
 
     /**
-     * Writes a given chunk to the disk.
-     *
-     * @param c The chunk to save
+     * Queues all chunks for saving and disposes them. The chunk store is closed as soon as the
+     * queued chunks have been written.
      */
-    private synchronized void writeChunkToDisk(Chunk c) {
-        if (!SAVE_CHUNKS) {
-            return;
-        }
-
-        File dirPath = new File(_parent.getWorldSavePath() + "/" + c.getChunkSavePath());
-        if (!dirPath.exists()) {
-            if (!dirPath.mkdirs()) {
-                Terasology.getInstance().getLogger().log(Level.SEVERE, "Could not create save directory.");
-                return;
+    public void dispose() {
+        synchronized (_chunkCache) {
+            for (Chunk c : _chunkCache.values()) {
+                writeChunkToDisk(c);
+                c.dispose();
             }
+
+            _chunkCache.clear();
+            _evictionIndex.clear();
         }
 
-        File f = new File(_parent.getWorldSavePath() + "/" + c.getChunkSavePath() + "/" + c.getChunkFileName());
+        _saveQueue.dispose();
+    }
 
-        try {
-            FileOutputStream fileOut = new FileOutputStream(f);
-            ObjectOutputStream out = new ObjectOutputStream(fileOut);
-            out.writeObject(c);
-            out.close();
-            fileOut.close();
-        } catch (Exception e) {
-            e.printStackTrace();
+    /**
+     * Blocks until all queued chunks have been written.
+     */
+    public void flush() {
+        _saveQueue.flush();
+
+        Terasology.getInstance().getLogger().log(Level.INFO, "{0}, unmodified chunks skipped: {1}", new Object[]{_saveQueue, _unmodifiedChunks.get()});
+        Terasology.getInstance().getLogger().log(Level.INFO, "{0}, {1}", new Object[]{this, _evictionIndex});
+        Terasology.getInstance().getLogger().log(Level.INFO, "{0}, {1}", new Object[]{_chunkPool, ChunkReclaimer.getStatistics()});
+
+        if (ChunkSection.getAllocator() != null)
+            Terasology.getInstance().getLogger().log(Level.INFO, ChunkSection.getAllocator().toString());
+
+        if (_chunkStore instanceof RegionChunkStore) {
+            Terasology.getInstance().getLogger().log(Level.INFO, ((RegionChunkStore) _chunkStore).getDeltaEncoder().toString());
+            Terasology.getInstance().getLogger().log(Level.INFO, ((RegionChunkStore) _chunkStore).getCodec().toString());
         }
     }
 
     /**
-     * Tries to load a chunk at the given position from disk.
+     * Saves all cached chunks modified since they were loaded or saved the last time and blocks until
+     * they have been written to the storage device. Chunks evicted in the meantime are covered as well,
+     * since they are queued for saving before they leave the cache.
      *
-     * @param chunkPos The position of the chunk
-     * @return The loaded chunk, null if none was found
+     * @return True if all chunks have been written
      */
-    private synchronized Chunk loadChunkFromDisk(Vector3d chunkPos) {
-        File f = new File(_parent.getWorldSavePath() + "/" + Chunk.getChunkSavePathForPosition(chunkPos) + "/" + Chunk.getChunkFileNameForPosition(chunkPos));
+    public boolean snapshot() {
+        if (!SAVE_CHUNKS)
+            return false;
+
+        long failed = _saveQueue.getFailedCount();
+        int count = 0;
+
+        // Called by the journal writer as well, which doesn't open sections on its own
+        long epoch = ChunkReclaimer.enter();
+
+        try {
+            for (Chunk c : _chunkCache.values()) {
+                if (c.isModified()) {
+                    writeChunkToDisk(c);
+                    count++;
+                }
+            }
+        } finally {
+            ChunkReclaimer.exit(epoch);
+        }
 
-        if (!f.exists())
-            return null;
+        _saveQueue.flush();
 
         try {
-            FileInputStream fileIn = new FileInputStream(f);
-            ObjectInputStream in = new ObjectInputStream(fileIn);
+            _chunkStore.sync();
+        } catch (IOException e) {
+            Terasology.getInstance().getLogger().log(Level.SEVERE, "Could not sync the chunk store.", e);
+            return false;
+        }
 
-            Chunk result = (Chunk) in.readObject();
-            result.setParent(_parent);
+        Terasology.getInstance().getLogger().log(Level.FINE, "Snapshot saved {0} modified chunks.", count);
+        return _saveQueue.getFailedCount() == failed;
+    }
 
-            in.close();
-            fileIn.close();
+    /**
+     * Queues a given chunk for writing it to the disk. Chunks which have not been modified since
+     * they were loaded or saved the last time are skipped.
+     *
+     * @param c The chunk to save
+     */
+    private void writeChunkToDisk(Chunk c) {
+        if (!SAVE_CHUNKS) {
+            return;
+        }
 
-            return result;
-        } catch (Exception e) {
-            e.printStackTrace();
+        if (!c.isModified()) {
+            _unmodifiedChunks.incrementAndGet();
+            return;
         }
 
-        return null;
+        // Reset the flag before taking the snapshot, so concurrent changes are not lost
+        c.setModified(false);
+        _saveQueue.save(c);
     }
 
     /**
@@ -211,7 +456,68 @@ public final class LocalChunkCache implements ChunkProvider {
         return _chunkCache.size();
     }
 
+    /**
+     * Returns the estimated amount of bytes occupied by the cached chunks. Meshes attached to chunks
+     * since the last accounting are not included yet.
+     *
+     * @return The amount of bytes
+     */
+    public long getMemoryUsage() {
+        return _evictionIndex.getMemoryUsage();
+    }
+
+    /**
+     * Returns the highest estimated memory usage of the cached chunks seen so far.
+     *
+     * @return The amount of bytes
+     */
+    public long getMemoryHighWaterMark() {
+        return Math.max(_memoryHighWaterMark, getMemoryUsage());
+    }
+
+    /**
+     * Returns the amount of chunks evicted per second, averaged over the last accounting interval.
+     *
+     * @return The eviction rate
+     */
+    public double getEvictionRate() {
+        return _evictionRate;
+    }
+
+    /**
+     * Returns the amount of requests which waited for a load already in progress instead of loading
+     * or creating the same chunk again.
+     *
+     * @return The amount of requests
+     */
+    public long getDuplicateLoadsAvoided() {
+        return _duplicateLoadsAvoided.get();
+    }
+
     public Collection<Chunk> getChunks() {
         return _chunkCache.values();
     }
+
+    /**
+     * Returns the pool recycling evicted chunks.
+     *
+     * @return The chunk pool
+     */
+    public ChunkPool getChunkPool() {
+        return _chunkPool;
+    }
+
+    /**
+     * Returns the chunk store used to persist chunks.
+     *
+     * @return The chunk store
+     */
+    public ChunkStore getChunkStore() {
+        return _chunkStore;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Chunk cache (chunks: %d, loaded: %d, created: %d, duplicate loads avoided: %d, memory: %d KB, budget: %d KB, high-water mark: %d KB, evictions/s: %.2f)", size(), _loadedChunks.get(), _createdChunks.get(), _duplicateLoadsAvoided.get(), getMemoryUsage() / 1024, CACHE_BUDGET / 1024, getMemoryHighWaterMark() / 1024, getEvictionRate());
+    }
 }
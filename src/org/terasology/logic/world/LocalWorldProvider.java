@@ -25,7 +25,6 @@ import org.terasology.logic.generators.GeneratorManager;
 import org.terasology.logic.manager.ConfigurationManager;
 import org.terasology.logic.simulators.GrowthSimulator;
 import org.terasology.logic.simulators.LiquidSimulator;
-import org.terasology.model.blocks.BlockManager;
 import org.terasology.utilities.FastRandom;
 import org.terasology.utilities.MathHelper;
 import org.xml.sax.InputSource;
@@ -35,7 +34,6 @@ import javax.vecmath.Vector3d;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
-import java.util.ArrayList;
 import java.util.logging.Level;
 
 /**
@@ -51,12 +49,19 @@ public class LocalWorldProvider implements WorldProvider {
     /* CHUNK PROVIDER */
     protected final ChunkProvider _chunkProvider;
 
+    /* CRASH RECOVERY */
+    protected final WorldJournal _journal;
+
     /* CONST */
+    protected final boolean SAVE_CHUNKS = (Boolean) ConfigurationManager.getInstance().getConfig().get("System.saveChunks");
+    protected final int JOURNAL_SYNC_INTERVAL = (Integer) ConfigurationManager.getInstance().getConfig().get("System.journalSyncInterval");
     protected final long DAY_NIGHT_LENGTH_IN_MS = (Long) ConfigurationManager.getInstance().getConfig().get("World.dayNightLengthInMs");
     protected final Vector2f SPAWN_ORIGIN = (Vector2f) ConfigurationManager.getInstance().getConfig().get("World.spawnOrigin");
 
     /* PROPERTIES */
     protected String _title, _seed;
+    protected ChunkCodec.CODEC_TYPE _chunkCodecType = ChunkCodec.CODEC_TYPE.valueOf((String) ConfigurationManager.getInstance().getConfig().get("World.chunkCodec"));
+    protected boolean _deltaChunkStorage = (Boolean) ConfigurationManager.getInstance().getConfig().get("World.deltaChunkStorage");
     protected long _creationTime = Terasology.getInstance().getTime() - (Long) ConfigurationManager.getInstance().getConfig().get("World.initialTimeOffsetInMs");
     public Vector3d _renderingReferencePoint = new Vector3d();
 
@@ -67,6 +72,22 @@ public class LocalWorldProvider implements WorldProvider {
     /* RANDOMNESS */
     protected final FastRandom _random;
 
+    /* EDIT TRANSACTIONS */
+    private final ThreadLocal<EditTransaction> _editTransaction = new ThreadLocal<EditTransaction>() {
+        @Override
+        protected EditTransaction initialValue() {
+            return new EditTransaction(LocalWorldProvider.this);
+        }
+    };
+
+    /* Changes made by the generators are reproduced by generating the chunk again and are not journaled */
+    private final ThreadLocal<Integer> _generationDepth = new ThreadLocal<Integer>() {
+        @Override
+        protected Integer initialValue() {
+            return 0;
+        }
+    };
+
     /**
      * Initializes a new world.
      *
@@ -99,6 +120,9 @@ public class LocalWorldProvider implements WorldProvider {
         _generatorManager = new GeneratorManager(this);
         _chunkProvider = new LocalChunkCache(this);
 
+        // Changes replayed by the journal are not recorded again, since the journal is not assigned yet
+        _journal = SAVE_CHUNKS && JOURNAL_SYNC_INTERVAL > 0 ? new WorldJournal(this) : null;
+
         _liquidSimulator = new LiquidSimulator(this);
         _growthSimulator = new GrowthSimulator(this);
     }
@@ -129,51 +153,48 @@ public class LocalWorldProvider implements WorldProvider {
 
         if (overwrite || c.getBlock(blockPosX, y, blockPosZ) == 0x0) {
             byte oldBlock = c.getBlock(blockPosX, y, blockPosZ);
-            byte newBlock;
 
             c.setBlock(blockPosX, y, blockPosZ, type);
-            newBlock = type;
+
+            if (_journal != null && !isGenerating())
+                _journal.logBlock(x, y, z, type);
 
             if (updateLight) {
-                /*
-                * Update sunlight.
-                */
-                c.refreshSunlightAtLocalPos(blockPosX, blockPosZ, true, true);
-
-                byte blockLightPrev = getLight(x, y, z, Chunk.LIGHT_TYPE.BLOCK);
-                byte blockLightCurrent;
-
-                // New block placed
-                if (oldBlock == 0x0 && newBlock != 0x0) {
-                    /*
-                    * Spread light of block light sources.
-                    */
-                    byte luminance = BlockManager.getInstance().getBlock(type).getLuminance();
-
-                    // Set the block light value to the luminance of this block
-                    c.setLight(blockPosX, y, blockPosZ, luminance, Chunk.LIGHT_TYPE.BLOCK);
-                    blockLightCurrent = luminance;
-                } else { // Block removed
-                    /*
-                    * Update the block light intensity of the current block.
-                    */
-                    c.setLight(blockPosX, y, blockPosZ, (byte) 0x0, Chunk.LIGHT_TYPE.BLOCK);
-                    c.refreshLightAtLocalPos(blockPosX, y, blockPosZ, Chunk.LIGHT_TYPE.BLOCK);
-                    blockLightCurrent = getLight(x, y, z, Chunk.LIGHT_TYPE.BLOCK);
-                }
-
-                // Block light is brighter than before
-                if (blockLightCurrent > blockLightPrev) {
-                    c.spreadLight(blockPosX, y, blockPosZ, blockLightCurrent, Chunk.LIGHT_TYPE.BLOCK);
-                } else if (blockLightCurrent < blockLightPrev) { // Block light is darker than before
-                    c.unspreadLight(blockPosX, y, blockPosZ, blockLightPrev, Chunk.LIGHT_TYPE.BLOCK);
-                }
+                // Single changes are handled like a transaction with only one change
+                EditTransaction transaction = _editTransaction.get();
+                transaction.blockChanged(x, y, z, oldBlock);
+
+                if (!transaction.isOpen())
+                    transaction.commit();
             }
         }
 
         return true;
     }
 
+    public void beginEditTransaction() {
+        _editTransaction.get().begin();
+    }
+
+    public void commitEditTransaction() {
+        _editTransaction.get().end();
+    }
+
+    /**
+     * Marks the changes the current thread makes until endGeneration() as part of the generation of a chunk.
+     */
+    void beginGeneration() {
+        _generationDepth.set(_generationDepth.get() + 1);
+    }
+
+    void endGeneration() {
+        _generationDepth.set(_generationDepth.get() - 1);
+    }
+
+    private boolean isGenerating() {
+        return _generationDepth.get() > 0;
+    }
+
     /**
      * Sets the block state value at the given position.
      *
@@ -190,6 +211,9 @@ public class LocalWorldProvider implements WorldProvider {
 
         Chunk c = getChunkProvider().loadOrCreateChunk(MathHelper.calcChunkPosX(x), MathHelper.calcChunkPosZ(z));
         c.setState(blockPosX, y, blockPosZ, state);
+
+        if (_journal != null && !isGenerating())
+            _journal.logState(x, y, z, state);
     }
 
     /**
@@ -243,6 +267,24 @@ public class LocalWorldProvider implements WorldProvider {
         return c.canBlockSeeTheSky(blockPosX, y, blockPosZ);
     }
 
+    /**
+     * Returns the height of the highest non-translucent block at the given position.
+     *
+     * @param x The X-coordinate
+     * @param z The Z-coordinate
+     * @return The height of the surface, -1 if there are only translucent blocks
+     */
+    public final int getSurfaceHeight(int x, int z) {
+        int chunkPosX = MathHelper.calcChunkPosX(x);
+        int chunkPosZ = MathHelper.calcChunkPosZ(z);
+
+        int blockPosX = MathHelper.calcBlockPosX(x, chunkPosX);
+        int blockPosZ = MathHelper.calcBlockPosZ(z, chunkPosZ);
+
+        Chunk c = getChunkProvider().loadOrCreateChunk(chunkPosX, chunkPosZ);
+        return c.getSurfaceHeight(blockPosX, blockPosZ);
+    }
+
     public byte getState(int x, int y, int z) {
         int chunkPosX = MathHelper.calcChunkPosX(x);
         int chunkPosZ = MathHelper.calcChunkPosZ(z);
@@ -324,7 +366,21 @@ public class LocalWorldProvider implements WorldProvider {
         Terasology.getInstance().getLogger().log(Level.INFO, "Disposing local world \"{0}\" and saving all chunks.", getTitle());
 
         saveMetaData();
+
+        if (_journal != null) {
+            _journal.dispose();
+
+            // The journal is obsolete as soon as all changes have been saved successfully
+            if (getChunkProvider().snapshot())
+                _journal.clear();
+
+            Terasology.getInstance().getLogger().log(Level.INFO, _journal.toString());
+        }
+
         getChunkProvider().dispose();
+
+        // Make sure everything has been written before the world is left
+        getChunkProvider().flush();
     }
 
     /**
@@ -398,6 +454,24 @@ public class LocalWorldProvider implements WorldProvider {
         return _seed;
     }
 
+    /**
+     * Returns the codec used to encode the persisted chunks of this world.
+     *
+     * @return The codec type
+     */
+    public ChunkCodec.CODEC_TYPE getChunkCodecType() {
+        return _chunkCodecType;
+    }
+
+    /**
+     * Returns true if the chunks of this world are persisted as difference to the generated terrain.
+     *
+     * @return True if delta storage is used
+     */
+    public boolean isDeltaChunkStorage() {
+        return _deltaChunkStorage;
+    }
+
     /**
      * Returns the rendering reference point of this world.
      */
@@ -433,6 +507,8 @@ public class LocalWorldProvider implements WorldProvider {
         root.setAttribute("seed", _seed);
         root.setAttribute("title", _title);
         root.setAttribute("time", Double.toString(getTime()));
+        root.setAttribute("chunkCodec", _chunkCodecType.name());
+        root.setAttribute("deltaChunkStorage", Boolean.toString(_deltaChunkStorage));
 
         XMLOutputter outputter = new XMLOutputter();
         FileOutputStream output;
@@ -467,52 +543,15 @@ public class LocalWorldProvider implements WorldProvider {
             _title = root.getAttributeValue("title");
             setTime(Double.parseDouble(root.getAttributeValue("time")));
 
+            // Worlds saved before codecs were introduced keep the default codec
+            if (root.getAttribute("chunkCodec") != null)
+                _chunkCodecType = ChunkCodec.CODEC_TYPE.valueOf(root.getAttributeValue("chunkCodec"));
+            if (root.getAttribute("deltaChunkStorage") != null)
+                _deltaChunkStorage = Boolean.parseBoolean(root.getAttributeValue("deltaChunkStorage"));
+
             return true;
         } catch (Exception e) {
             return false;
         }
     }
-
-    /**
-     * "Unspreads" light recursively.
-     *
-     * @param x           The X-coordinate
-     * @param y           The Y-coordinate
-     * @param z           The Z-coordinate
-     * @param lightValue  The initial light value
-     * @param depth       The current depth of the recursion
-     * @param type        The type of light
-     * @param brightSpots List of bright spots found while unspreading the light
-     */
-    public void unspreadLight(int x, int y, int z, byte lightValue, int depth, Chunk.LIGHT_TYPE type, ArrayList<Vector3d> brightSpots) {
-        int chunkPosX = MathHelper.calcChunkPosX(x);
-        int chunkPosZ = MathHelper.calcChunkPosZ(z);
-
-        int blockPosX = MathHelper.calcBlockPosX(x, chunkPosX);
-        int blockPosZ = MathHelper.calcBlockPosZ(z, chunkPosZ);
-
-        Chunk c = getChunkProvider().loadOrCreateChunk(MathHelper.calcChunkPosX(x), MathHelper.calcChunkPosZ(z));
-        c.unspreadLight(blockPosX, y, blockPosZ, lightValue, depth, type, brightSpots);
-    }
-
-    /**
-     * Propagates light recursively.
-     *
-     * @param x          The X-coordinate
-     * @param y          The Y-coordinate
-     * @param z          The Z-coordinate
-     * @param lightValue The initial light value
-     * @param depth      The current depth of the recursion
-     * @param type       The type of light
-     */
-    public void spreadLight(int x, int y, int z, byte lightValue, int depth, Chunk.LIGHT_TYPE type) {
-        int chunkPosX = MathHelper.calcChunkPosX(x);
-        int chunkPosZ = MathHelper.calcChunkPosZ(z);
-
-        int blockPosX = MathHelper.calcBlockPosX(x, chunkPosX);
-        int blockPosZ = MathHelper.calcBlockPosZ(z, chunkPosZ);
-
-        Chunk c = getChunkProvider().loadOrCreateChunk(MathHelper.calcChunkPosX(x), MathHelper.calcChunkPosZ(z));
-        c.spreadLight(blockPosX, y, blockPosZ, lightValue, depth, type);
-    }
 }
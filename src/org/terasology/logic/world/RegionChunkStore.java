@@ -0,0 +1,190 @@
+/*
+ * Copyright 2011 Benjamin Glatzel <benjamin.glatzel@me.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.logic.world;
+
+import org.terasology.game.Terasology;
+import org.terasology.utilities.MathHelper;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+
+/**
+ * Stores chunks in region files, each of them holding RegionFile.REGION_SIZE x RegionFile.REGION_SIZE chunks.
+ * Region files are opened on first access and kept open until the store is disposed. The chunk data is
+ * encoded using the given chunk codec.
+ * <p/>
+ * Loading does not lock, chunks of the same region are loaded concurrently. Only writers to the same
+ * region file wait for each other.
+ *
+ * @author Benjamin Glatzel <benjamin.glatzel@me.com>
+ */
+public final class RegionChunkStore implements ChunkStore {
+
+    private final File _worldPath;
+    private final ChunkCodec _codec;
+    private final ChunkDeltaEncoder _deltaEncoder;
+    private final ConcurrentHashMap<Long, RegionFile> _regions = new ConcurrentHashMap<Long, RegionFile>();
+
+    /**
+     * Init. a new chunk store.
+     *
+     * @param worldPath The save directory of the world
+     * @param codec     The codec used to encode the chunk data
+     * @param delta     The encoder storing chunks as difference to the generated terrain
+     */
+    public RegionChunkStore(File worldPath, ChunkCodec codec, ChunkDeltaEncoder delta) {
+        _worldPath = worldPath;
+        _codec = codec;
+        _deltaEncoder = delta;
+    }
+
+    public boolean loadChunk(Chunk c) throws IOException {
+        int x = (int) c.getPosition().x;
+        int z = (int) c.getPosition().z;
+
+        RegionFile region = getRegion(x, z, false);
+
+        if (region == null)
+            return false;
+
+        byte[] data = region.read(x, z);
+
+        if (data == null)
+            return false;
+
+        byte[] decoded;
+
+        try {
+            decoded = _codec.decode(data);
+        } catch (IOException e) {
+            // The unlocked read might have overlapped with a write the sequence check missed
+            decoded = _codec.decode(region.readExclusive(x, z));
+        }
+
+        c.readData(new DataInputStream(new ByteArrayInputStream(_deltaEncoder.decode(decoded))));
+        return true;
+    }
+
+    public void saveChunk(Chunk c) throws IOException {
+        saveChunkData((int) c.getPosition().x, (int) c.getPosition().z, c.serialize());
+    }
+
+    public void saveChunkData(int x, int z, byte[] data) throws IOException {
+        byte[] encoded = _deltaEncoder.encode(data);
+        getRegion(x, z, true).write(x, z, _codec.encode(encoded, encoded.length));
+    }
+
+    public boolean containsChunk(int x, int z) {
+        try {
+            RegionFile region = getRegion(x, z, false);
+            return region != null && region.contains(x, z);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    public void sync() throws IOException {
+        for (RegionFile region : _regions.values())
+            region.sync();
+    }
+
+    public synchronized void dispose() {
+        for (RegionFile region : _regions.values()) {
+            try {
+                region.close();
+            } catch (IOException e) {
+                Terasology.getInstance().getLogger().log(Level.SEVERE, "Could not close region file.", e);
+            }
+        }
+
+        _regions.clear();
+    }
+
+    /**
+     * Returns the codec used to encode the chunk data.
+     *
+     * @return The codec
+     */
+    public ChunkCodec getCodec() {
+        return _codec;
+    }
+
+    /**
+     * Returns the encoder storing chunks as difference to the generated terrain.
+     *
+     * @return The delta encoder
+     */
+    public ChunkDeltaEncoder getDeltaEncoder() {
+        return _deltaEncoder;
+    }
+
+    /**
+     * Returns the region file containing the chunk at the given position.
+     *
+     * @param x      The chunk position on the x-axis
+     * @param z      The chunk position on the z-axis
+     * @param create True if missing region files should be created
+     * @return The region file, null if the file does not exist and should not be created
+     * @throws IOException If the region file could not be opened
+     */
+    private RegionFile getRegion(int x, int z, boolean create) throws IOException {
+        int regionX = x >> RegionFile.REGION_SHIFT;
+        int regionZ = z >> RegionFile.REGION_SHIFT;
+
+        long regionId = MathHelper.packCoordinates(regionX, regionZ);
+        RegionFile region = _regions.get(regionId);
+
+        if (region != null)
+            return region;
+
+        synchronized (this) {
+            region = _regions.get(regionId);
+
+            if (region == null) {
+                File f = getRegionFile(_worldPath, regionX, regionZ);
+
+                if (!f.exists()) {
+                    if (!create)
+                        return null;
+
+                    if (!_worldPath.exists() && !_worldPath.mkdirs())
+                        throw new IOException("Could not create save directory.");
+                }
+
+                region = new RegionFile(f);
+                _regions.put(regionId, region);
+            }
+        }
+
+        return region;
+    }
+
+    /**
+     * Returns the region file for the given region position.
+     *
+     * @param worldPath The save directory of the world
+     * @param regionX   The region position on the x-axis
+     * @param regionZ   The region position on the z-axis
+     * @return The file
+     */
+    public static File getRegionFile(File worldPath, int regionX, int regionZ) {
+        return new File(worldPath, String.format("r.%d.%d.tr", regionX, regionZ));
+    }
+}
@@ -0,0 +1,284 @@
+/*
+ * Copyright 2011 Benjamin Glatzel <benjamin.glatzel@me.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.logic.world;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.BitSet;
+
+/**
+ * A single file holding the data of up to REGION_SIZE x REGION_SIZE chunks.
+ * <p/>
+ * The file is split into sectors of SECTOR_SIZE bytes. The first sector contains the offset table: one int per
+ * chunk, holding the first sector of the chunk data in the upper 24 bits and the amount of sectors in the lower
+ * 8 bits. Zero marks a missing chunk. Every chunk starts with an int containing the length of the data.
+ * <p/>
+ * Chunks are rewritten in place as long as they fit into their sectors, otherwise they are moved to the first
+ * free run of sectors large enough or appended to the end of the file.
+ * <p/>
+ * The file is memory mapped. Reads do not lock: they are validated against a write sequence number and
+ * only repeated while holding the lock if a write to this region happened in the meantime. Writes are
+ * serialized per region file.
+ *
+ * @author Benjamin Glatzel <benjamin.glatzel@me.com>
+ */
+public final class RegionFile {
+
+    /* CONSTANT VALUES */
+    public static final int REGION_SHIFT = 5;
+    public static final int REGION_SIZE = 1 << REGION_SHIFT;
+    public static final int SECTOR_SIZE = 4096;
+    private static final int HEADER_SECTORS = 1;
+    private static final int MAX_SECTORS_PER_CHUNK = 255;
+    private static final int MIN_MAPPED_SECTORS = 64;
+
+    private final RandomAccessFile _file;
+    private final FileChannel _channel;
+
+    /* Replaced when the file grows, old mappings stay valid for running reads */
+    private volatile MappedByteBuffer _map;
+    /* Odd while a write is in progress */
+    private volatile int _writeSequence;
+
+    /* Guarded by this */
+    private final BitSet _usedSectors = new BitSet();
+    private int _sectorCount;
+
+    /**
+     * Opens the given region file. The file is created if it does not exist yet.
+     *
+     * @param f The file
+     * @throws IOException If the file could not be opened
+     */
+    public RegionFile(File f) throws IOException {
+        _file = new RandomAccessFile(f, "rw");
+        _channel = _file.getChannel();
+
+        _sectorCount = (int) Math.max((_file.length() + SECTOR_SIZE - 1) / SECTOR_SIZE, HEADER_SECTORS);
+        _map = _channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) Math.max(_sectorCount, MIN_MAPPED_SECTORS) * SECTOR_SIZE);
+
+        _usedSectors.set(0, HEADER_SECTORS);
+
+        for (int i = 0; i < REGION_SIZE * REGION_SIZE; i++) {
+            int entry = _map.getInt(i * 4);
+
+            int offset = entry >>> 8;
+            int count = entry & 0xFF;
+
+            if (entry == 0)
+                continue;
+
+            if (offset >= HEADER_SECTORS && count > 0 && offset + count <= _sectorCount) {
+                _usedSectors.set(offset, offset + count);
+            } else {
+                // Drop entries pointing outside of the file, the chunk gets generated again
+                _map.putInt(i * 4, 0);
+            }
+        }
+    }
+
+    /**
+     * Returns the data of the chunk at the given position. Does not block while no other thread writes to this region.
+     *
+     * @param x The chunk position on the x-axis
+     * @param z The chunk position on the z-axis
+     * @return The data, null if the chunk is not present
+     * @throws IOException If the data could not be read
+     */
+    public byte[] read(int x, int z) throws IOException {
+        int sequence = _writeSequence;
+
+        if ((sequence & 1) == 0) {
+            try {
+                byte[] result = readEntry(_map, index(x, z));
+
+                if (_writeSequence == sequence)
+                    return result;
+            } catch (IOException e) {
+                // Might have read data being written, try again below
+            }
+        }
+
+        return readExclusive(x, z);
+    }
+
+    /**
+     * Returns the data of the chunk at the given position while blocking all writers of this region.
+     *
+     * @param x The chunk position on the x-axis
+     * @param z The chunk position on the z-axis
+     * @return The data, null if the chunk is not present
+     * @throws IOException If the data could not be read
+     */
+    public synchronized byte[] readExclusive(int x, int z) throws IOException {
+        return readEntry(_map, index(x, z));
+    }
+
+    private static byte[] readEntry(ByteBuffer map, int index) throws IOException {
+        int entry = map.getInt(index * 4);
+
+        if (entry == 0)
+            return null;
+
+        int position = (entry >>> 8) * SECTOR_SIZE;
+        int size = (entry & 0xFF) * SECTOR_SIZE;
+
+        if (position + size > map.capacity())
+            throw new IOException("Chunk data exceeds the region file.");
+
+        int length = map.getInt(position);
+
+        if (length < 0 || length > size - 4)
+            throw new IOException("Corrupt chunk data in region file.");
+
+        byte[] data = new byte[length];
+
+        ByteBuffer view = map.duplicate();
+        view.position(position + 4);
+        view.get(data);
+
+        return data;
+    }
+
+    /**
+     * Writes the data of the chunk at the given position.
+     *
+     * @param x      The chunk position on the x-axis
+     * @param z      The chunk position on the z-axis
+     * @param data   The data
+     * @param length The amount of bytes to write
+     * @throws IOException If the data could not be written
+     */
+    public synchronized void write(int x, int z, byte[] data, int length) throws IOException {
+        int needed = (length + 4 + SECTOR_SIZE - 1) / SECTOR_SIZE;
+
+        if (needed > MAX_SECTORS_PER_CHUNK)
+            throw new IOException("Chunk data exceeds the maximum size of a region file entry: " + length);
+
+        int index = index(x, z);
+        int entry = _map.getInt(index * 4);
+
+        int offset = entry >>> 8;
+        int count = entry & 0xFF;
+
+        if (entry != 0 && needed <= count) {
+            // Rewrite in place and give back the sectors not needed anymore
+            _usedSectors.clear(offset + needed, offset + count);
+        } else {
+            if (entry != 0)
+                _usedSectors.clear(offset, offset + count);
+
+            offset = findFreeSectors(needed);
+            _usedSectors.set(offset, offset + needed);
+        }
+
+        if (offset + needed > _sectorCount) {
+            _sectorCount = offset + needed;
+            ensureMapped(_sectorCount);
+        }
+
+        _writeSequence++;
+
+        ByteBuffer view = _map.duplicate();
+        view.position(offset * SECTOR_SIZE);
+        view.putInt(length);
+        view.put(data, 0, length);
+
+        _map.putInt(index * 4, (offset << 8) | needed);
+
+        _writeSequence++;
+    }
+
+    /**
+     * Writes the data of the chunk at the given position.
+     *
+     * @param x    The chunk position on the x-axis
+     * @param z    The chunk position on the z-axis
+     * @param data The data
+     * @throws IOException If the data could not be written
+     */
+    public void write(int x, int z, byte[] data) throws IOException {
+        write(x, z, data, data.length);
+    }
+
+    /**
+     * Grows the mapping (and the file) to hold at least the given amount of sectors.
+     */
+    private void ensureMapped(int sectors) throws IOException {
+        long size = (long) sectors * SECTOR_SIZE;
+
+        if (size <= _map.capacity())
+            return;
+
+        // Grow in large steps, remapping is expensive
+        _map = _channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(size, 2L * _map.capacity()));
+    }
+
+    /**
+     * Returns true if the chunk at the given position is present.
+     */
+    public boolean contains(int x, int z) {
+        return _map.getInt(index(x, z) * 4) != 0;
+    }
+
+    /**
+     * Returns the amount of sectors of this file.
+     */
+    public synchronized int getSectorCount() {
+        return _sectorCount;
+    }
+
+    /**
+     * Writes all changes to the storage device.
+     */
+    public synchronized void sync() {
+        _map.force();
+    }
+
+    /**
+     * Writes all changes to the storage device and closes the file. The region file must not be used afterwards.
+     *
+     * @throws IOException If the file could not be closed
+     */
+    public synchronized void close() throws IOException {
+        _map.force();
+        _channel.close();
+        _file.close();
+    }
+
+    private int findFreeSectors(int needed) {
+        int run = 0;
+
+        for (int s = HEADER_SECTORS; s < _sectorCount; s++) {
+            if (_usedSectors.get(s)) {
+                run = 0;
+            } else if (++run == needed) {
+                return s - needed + 1;
+            }
+        }
+
+        // Free sectors at the end of the file are used first
+        return _sectorCount - run;
+    }
+
+    private static int index(int x, int z) {
+        return (x & (REGION_SIZE - 1)) + (z & (REGION_SIZE - 1)) * REGION_SIZE;
+    }
+}
@@ -0,0 +1,417 @@
+/*
+ * Copyright 2011 Benjamin Glatzel <benjamin.glatzel@me.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.logic.world;
+
+import org.terasology.game.Terasology;
+import org.terasology.logic.manager.ConfigurationManager;
+import org.terasology.utilities.MathHelper;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.logging.Level;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of all block and state changes of a world, so changes of chunks which have not been
+ * saved yet survive a crash.
+ * <p/>
+ * Changes are collected in memory and written to the current journal segment in batches, which are synced to
+ * the storage device every "System.journalSyncInterval" ms. Every "System.snapshotInterval" ms a new segment is
+ * started and all chunks modified since the last snapshot are saved, after which the older segments are deleted.
+ * <p/>
+ * Segments left behind by a crash are replayed when the journal is created. A batch consists of the amount of
+ * records, the records and the CRC32 of the records. Incomplete or damaged batches at the end of a segment stem
+ * from the crash and are skipped.
+ *
+ * @author Benjamin Glatzel <benjamin.glatzel@me.com>
+ */
+public final class WorldJournal {
+
+    private static final int SYNC_INTERVAL = (Integer) ConfigurationManager.getInstance().getConfig().get("System.journalSyncInterval");
+    private static final int SNAPSHOT_INTERVAL = (Integer) ConfigurationManager.getInstance().getConfig().get("System.snapshotInterval");
+
+    private static final Pattern SEGMENT_NAME = Pattern.compile("journal\\.(\\d+)\\.log");
+
+    /* RECORDS */
+    private static final byte RECORD_BLOCK = 0, RECORD_STATE = 1;
+    private static final int RECORD_SIZE = 11;
+    private static final int MAX_BATCH_RECORDS = 1 << 24;
+
+    private final LocalWorldProvider _parent;
+    private final File _worldPath;
+
+    private ByteArrayOutputStream _buffer = new ByteArrayOutputStream();
+    private DataOutputStream _bufferOut = new DataOutputStream(_buffer);
+    private int _bufferedRecords;
+
+    private int _segment;
+    private FileOutputStream _segmentOut;
+
+    private final Thread _writer;
+    private boolean _running = true;
+
+    /* STATISTICS */
+    private long _records, _batches, _snapshots;
+
+    /**
+     * Init. a new journal for the given world. Segments left behind by a crash are replayed and saved right away.
+     *
+     * @param parent The world, has to ignore its journal until the constructor has returned
+     */
+    public WorldJournal(LocalWorldProvider parent) {
+        _parent = parent;
+        _worldPath = new File(parent.getWorldSavePath());
+        _worldPath.mkdirs();
+
+        ArrayList<Integer> segments = listSegments();
+
+        if (!segments.isEmpty()) {
+            replay(segments);
+
+            if (_parent.getChunkProvider().snapshot())
+                deleteSegments(Integer.MAX_VALUE);
+
+            _segment = segments.get(segments.size() - 1) + 1;
+        }
+
+        openSegment();
+
+        _writer = new Thread(new Runnable() {
+            public void run() {
+                writeBatches();
+            }
+        }, "World Journal");
+
+        _writer.setDaemon(true);
+        _writer.start();
+    }
+
+    /**
+     * Records a changed block.
+     *
+     * @param x    The X-coordinate
+     * @param y    The Y-coordinate
+     * @param z    The Z-coordinate
+     * @param type The new block type
+     */
+    public void logBlock(int x, int y, int z, byte type) {
+        append(RECORD_BLOCK, x, y, z, type);
+    }
+
+    /**
+     * Records a changed state.
+     *
+     * @param x     The X-coordinate
+     * @param y     The Y-coordinate
+     * @param z     The Z-coordinate
+     * @param state The new state
+     */
+    public void logState(int x, int y, int z, byte state) {
+        append(RECORD_STATE, x, y, z, state);
+    }
+
+    private synchronized void append(byte type, int x, int y, int z, byte value) {
+        try {
+            _bufferOut.writeByte(type);
+            _bufferOut.writeInt(x);
+            _bufferOut.writeByte(y);
+            _bufferOut.writeInt(z);
+            _bufferOut.writeByte(value);
+        } catch (IOException e) {
+            // Writing to memory can't fail
+            throw new IllegalStateException(e);
+        }
+
+        _bufferedRecords++;
+    }
+
+    private void writeBatches() {
+        long nextSnapshot = System.currentTimeMillis() + SNAPSHOT_INTERVAL;
+
+        while (true) {
+            boolean running;
+
+            synchronized (this) {
+                if (_running) {
+                    try {
+                        wait(SYNC_INTERVAL);
+                    } catch (InterruptedException e) {
+                        // Keep writing, recorded changes must not get lost
+                    }
+                }
+
+                running = _running;
+            }
+
+            writeBatch();
+
+            if (!running)
+                break;
+
+            if (System.currentTimeMillis() >= nextSnapshot) {
+                snapshot();
+                nextSnapshot = System.currentTimeMillis() + SNAPSHOT_INTERVAL;
+            }
+        }
+
+        closeSegment();
+    }
+
+    /**
+     * Writes and syncs the records collected so far.
+     */
+    private void writeBatch() {
+        byte[] records;
+        int count;
+
+        synchronized (this) {
+            if (_bufferedRecords == 0)
+                return;
+
+            records = _buffer.toByteArray();
+            count = _bufferedRecords;
+
+            _buffer = new ByteArrayOutputStream(records.length);
+            _bufferOut = new DataOutputStream(_buffer);
+            _bufferedRecords = 0;
+        }
+
+        if (_segmentOut == null)
+            return;
+
+        CRC32 crc = new CRC32();
+        crc.update(records);
+
+        ByteBuffer batch = ByteBuffer.allocate(4 + records.length + 8);
+        batch.putInt(count).put(records).putLong(crc.getValue());
+        batch.flip();
+
+        try {
+            while (batch.hasRemaining())
+                _segmentOut.getChannel().write(batch);
+
+            _segmentOut.getChannel().force(false);
+        } catch (IOException e) {
+            Terasology.getInstance().getLogger().log(Level.SEVERE, "Could not write the world journal.", e);
+        }
+
+        synchronized (this) {
+            _records += count;
+            _batches++;
+        }
+    }
+
+    /**
+     * Starts a new segment and saves all modified chunks. The older segments are not needed anymore
+     * afterwards, changes happening in the meantime are part of the new segment.
+     */
+    private void snapshot() {
+        closeSegment();
+        _segment++;
+        openSegment();
+
+        if (_parent.getChunkProvider().snapshot()) {
+            deleteSegments(_segment);
+
+            synchronized (this) {
+                _snapshots++;
+            }
+        }
+    }
+
+    private void replay(ArrayList<Integer> segments) {
+        int count = 0;
+
+        for (int segment : segments) {
+            File f = getSegmentFile(segment);
+
+            try {
+                DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)));
+
+                try {
+                    count += replaySegment(in);
+                } finally {
+                    in.close();
+                }
+            } catch (IOException e) {
+                Terasology.getInstance().getLogger().log(Level.SEVERE, "Could not replay world journal " + f.getName() + ".", e);
+            }
+        }
+
+        Terasology.getInstance().getLogger().log(Level.INFO, "Replayed {0} changes from the world journal.", count);
+    }
+
+    private int replaySegment(DataInputStream in) throws IOException {
+        int count = 0;
+
+        while (true) {
+            byte[] records;
+            long checksum;
+
+            try {
+                int recordCount = in.readInt();
+
+                if (recordCount <= 0 || recordCount > MAX_BATCH_RECORDS)
+                    return count;
+
+                records = new byte[recordCount * RECORD_SIZE];
+                in.readFully(records);
+                checksum = in.readLong();
+            } catch (EOFException e) {
+                // The last batch has not been written completely
+                return count;
+            }
+
+            CRC32 crc = new CRC32();
+            crc.update(records);
+
+            if (crc.getValue() != checksum)
+                return count;
+
+            ByteBuffer batch = ByteBuffer.wrap(records);
+
+            long epoch = ChunkReclaimer.enter();
+            // The light of the whole batch is updated at once when the transaction is committed
+            _parent.beginEditTransaction();
+
+            try {
+                count += replayBatch(batch);
+            } finally {
+                _parent.commitEditTransaction();
+                ChunkReclaimer.exit(epoch);
+            }
+        }
+    }
+
+    private int replayBatch(ByteBuffer batch) {
+        int count = 0;
+
+        while (batch.hasRemaining()) {
+            byte type = batch.get();
+            int x = batch.getInt();
+            int y = batch.get() & 0xFF;
+            int z = batch.getInt();
+            byte value = batch.get();
+
+            // Changes always happen to generated chunks
+            Chunk c = _parent.getChunkProvider().loadOrCreateChunk(MathHelper.calcChunkPosX(x), MathHelper.calcChunkPosZ(z));
+            c.generate();
+
+            if (type == RECORD_BLOCK)
+                _parent.setBlock(x, y, z, value, true, true);
+            else
+                _parent.setState(x, y, z, value);
+
+            count++;
+        }
+
+        return count;
+    }
+
+    private void openSegment() {
+        try {
+            _segmentOut = new FileOutputStream(getSegmentFile(_segment), true);
+        } catch (IOException e) {
+            _segmentOut = null;
+            Terasology.getInstance().getLogger().log(Level.SEVERE, "Could not create world journal.", e);
+        }
+    }
+
+    private void closeSegment() {
+        if (_segmentOut == null)
+            return;
+
+        try {
+            _segmentOut.close();
+        } catch (IOException e) {
+            Terasology.getInstance().getLogger().log(Level.SEVERE, "Could not close world journal.", e);
+        }
+
+        _segmentOut = null;
+    }
+
+    private ArrayList<Integer> listSegments() {
+        ArrayList<Integer> result = new ArrayList<Integer>();
+        String[] files = _worldPath.list();
+
+        if (files == null)
+            return result;
+
+        for (String name : files) {
+            Matcher m = SEGMENT_NAME.matcher(name);
+
+            if (m.matches())
+                result.add(Integer.parseInt(m.group(1)));
+        }
+
+        Collections.sort(result);
+        return result;
+    }
+
+    /**
+     * Deletes all segments older than the given one.
+     */
+    private void deleteSegments(int below) {
+        for (int segment : listSegments()) {
+            if (segment < below && !getSegmentFile(segment).delete())
+                Terasology.getInstance().getLogger().log(Level.WARNING, "Could not delete world journal {0}.", segment);
+        }
+    }
+
+    private File getSegmentFile(int segment) {
+        return new File(_worldPath, "journal." + segment + ".log");
+    }
+
+    /**
+     * Writes the remaining records and stops the journal. Waits for a running snapshot to finish.
+     */
+    public void dispose() {
+        synchronized (this) {
+            _running = false;
+            notifyAll();
+        }
+
+        try {
+            _writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Deletes all segments of the stopped journal. Must only be called after all changes have been saved.
+     */
+    public void clear() {
+        deleteSegments(Integer.MAX_VALUE);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("world journal (segment: %d, records: %d, batches: %d, snapshots: %d)", _segment, _records, _batches, _snapshots);
+    }
+}
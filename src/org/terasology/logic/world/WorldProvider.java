@@ -44,6 +44,18 @@ public interface WorldProvider {
      */
     public boolean setBlock(int x, int y, int z, byte type, boolean updateLight, boolean overwrite);
 
+    /**
+     * Starts an edit transaction for the calling thread. Light updates of all blocks placed until the
+     * transaction is committed are deferred and calculated in one combined pass. Transactions can be
+     * nested, only the outermost commit updates the light.
+     */
+    public void beginEditTransaction();
+
+    /**
+     * Commits the edit transaction of the calling thread.
+     */
+    public void commitEditTransaction();
+
     /**
      * Sets the given state at the given position.
      *
@@ -66,6 +78,15 @@ public interface WorldProvider {
 
     public boolean canBlockSeeTheSky(int x, int y, int z);
 
+    /**
+     * Returns the height of the highest non-translucent block at the given position.
+     *
+     * @param x The X-coordinate
+     * @param z The Z-coordinate
+     * @return The height of the surface, -1 if there are only translucent blocks
+     */
+    public int getSurfaceHeight(int x, int z);
+
     /**
      * Returns the state at the given position.
      *
@@ -66,6 +66,20 @@ public class BlockManager {
         }
     }
 
+    /**
+     * Loads the texture atlas of the blocks. Needs an OpenGL context, which is why it is not part of
+     * loading the blocks: tools and tests use the blocks without creating a display.
+     */
+    public void loadTextures() {
+        try {
+            _manifestor.loadTextures();
+        } catch (Exception e) {
+            System.out.println("Exception loading block textures. Sad :-(");
+            e.printStackTrace();
+            System.exit(-1);
+        }
+    }
+
     public Block getBlock(String title) {
         return _blocksByTitle.get(title);
     }
@@ -120,6 +120,13 @@ class BlockManifestor {
         }
 
         _bm.addAllBlocks(_blockIndex)
+    }
+
+    /**
+     * Loads the ImageManifest written or found by loadConfig as the "terrain" texture. This needs an OpenGL
+     * context, so it is kept apart from loadConfig - the block definitions alone can be loaded headless
+     */
+    public loadTextures() {
         println "_imageManifest file: " + _imageManifest.getAbsolutePath()
         TextureManager.getInstance().addTexture("terrain", _imageManifest.getAbsolutePath(), [_imageManifestMipMap1.getAbsolutePath(), _imageManifestMipMap2.getAbsolutePath(), _imageManifestMipMap3.getAbsolutePath()].toArray(new String[0]))
     }
@@ -42,8 +42,14 @@ public class Blueprint {
      * @param position The position the blueprint should be build
      */
     public void build(WorldProvider provider, BlockPosition position) {
-        for (BlockPosition bp : _blockPositions) {
-            provider.setBlock(bp.x + position.x, bp.y + position.y, bp.z + position.z, _blockTypes.get(bp).getId(), true, true);
+        provider.beginEditTransaction();
+
+        try {
+            for (BlockPosition bp : _blockPositions) {
+                provider.setBlock(bp.x + position.x, bp.y + position.y, bp.z + position.z, _blockTypes.get(bp).getId(), true, true);
+            }
+        } finally {
+            provider.commitEditTransaction();
         }
     }
 
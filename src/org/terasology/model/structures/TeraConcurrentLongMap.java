@@ -0,0 +1,305 @@
+/*
+ * Copyright 2011 Benjamin Glatzel <benjamin.glatzel@me.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.model.structures;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * A concurrent hash map with primitive long keys. Lookups neither lock nor allocate, which makes the map
+ * suitable for hot paths like fetching the chunk of a block position.
+ * <p/>
+ * The entries are spread over a fixed amount of segments. Every segment holds an immutable open addressing table
+ * which is replaced as a whole on modification, so readers always see a consistent snapshot. Modifications are
+ * synchronized per segment and copy the table of the segment, so the map is meant for workloads with far more
+ * reads than writes.
+ *
+ * @author Benjamin Glatzel <benjamin.glatzel@me.com>
+ */
+public class TeraConcurrentLongMap<V> {
+
+    private static final int SEGMENT_BITS = 6;
+    private static final int SEGMENT_COUNT = 1 << SEGMENT_BITS;
+
+    private final Segment[] _segments = new Segment[SEGMENT_COUNT];
+
+    private static final class Table {
+        static final Table EMPTY = new Table(0);
+
+        final long[] keys;
+        final Object[] values;
+        final int mask, size;
+
+        Table(int size) {
+            // Keep the load factor below 0.5, so probe sequences stay short
+            int capacity = Integer.highestOneBit(Math.max(size, 1) * 4 - 1);
+
+            keys = new long[capacity];
+            values = new Object[capacity];
+            mask = capacity - 1;
+            this.size = size;
+        }
+
+        int find(long key, int hash) {
+            int i = hash & mask;
+
+            while (values[i] != null) {
+                if (keys[i] == key)
+                    return i;
+
+                i = (i + 1) & mask;
+            }
+
+            return -1;
+        }
+
+        void insert(long key, Object value, int hash) {
+            int i = hash & mask;
+
+            while (values[i] != null)
+                i = (i + 1) & mask;
+
+            keys[i] = key;
+            values[i] = value;
+        }
+
+        /**
+         * Returns a copy of this table with the entry at the given slot replaced, added (slot -1) or removed (value null).
+         */
+        Table copy(int slot, long key, Object value) {
+            int newSize = size + (slot < 0 ? 1 : 0) - (value == null ? 1 : 0);
+            Table result = new Table(newSize);
+
+            for (int i = 0; i < values.length; i++) {
+                if (values[i] != null && i != slot)
+                    result.insert(keys[i], values[i], hash(keys[i]));
+            }
+
+            if (value != null)
+                result.insert(key, value, hash(key));
+
+            return result;
+        }
+    }
+
+    private static final class Segment {
+        volatile Table table = Table.EMPTY;
+    }
+
+    /**
+     * Init. a new empty map.
+     */
+    public TeraConcurrentLongMap() {
+        for (int i = 0; i < SEGMENT_COUNT; i++)
+            _segments[i] = new Segment();
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private Segment segmentFor(int hash) {
+        // The upper bits pick the segment, the lower ones the slot within the table
+        return _segments[hash >>> (32 - SEGMENT_BITS)];
+    }
+
+    /**
+     * Returns the value stored for the given key.
+     *
+     * @param key The key
+     * @return The value, null if the key is not present
+     */
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        int hash = hash(key);
+        Table t = segmentFor(hash).table;
+
+        int slot = t.find(key, hash);
+        return slot >= 0 ? (V) t.values[slot] : null;
+    }
+
+    /**
+     * Returns true if a value is stored for the given key.
+     */
+    public boolean containsKey(long key) {
+        return get(key) != null;
+    }
+
+    /**
+     * Stores the given value for the given key.
+     *
+     * @param key   The key
+     * @param value The value, must not be null
+     * @return The value previously stored for the key, null if there was none
+     */
+    @SuppressWarnings("unchecked")
+    public V put(long key, V value) {
+        if (value == null)
+            throw new NullPointerException();
+
+        int hash = hash(key);
+        Segment s = segmentFor(hash);
+
+        synchronized (s) {
+            Table t = s.table;
+            int slot = t.find(key, hash);
+
+            s.table = t.copy(slot, key, value);
+            return slot >= 0 ? (V) t.values[slot] : null;
+        }
+    }
+
+    /**
+     * Stores the given value for the given key, unless a value is present already.
+     *
+     * @param key   The key
+     * @param value The value, must not be null
+     * @return The present value, null if the given value has been stored
+     */
+    @SuppressWarnings("unchecked")
+    public V putIfAbsent(long key, V value) {
+        if (value == null)
+            throw new NullPointerException();
+
+        int hash = hash(key);
+        Segment s = segmentFor(hash);
+
+        synchronized (s) {
+            Table t = s.table;
+            int slot = t.find(key, hash);
+
+            if (slot >= 0)
+                return (V) t.values[slot];
+
+            s.table = t.copy(slot, key, value);
+            return null;
+        }
+    }
+
+    /**
+     * Removes the value stored for the given key.
+     *
+     * @param key The key
+     * @return The removed value, null if the key was not present
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(long key) {
+        int hash = hash(key);
+        Segment s = segmentFor(hash);
+
+        synchronized (s) {
+            Table t = s.table;
+            int slot = t.find(key, hash);
+
+            if (slot < 0)
+                return null;
+
+            s.table = t.copy(slot, key, null);
+            return (V) t.values[slot];
+        }
+    }
+
+    /**
+     * Removes the entry for the given key, but only if the given value is stored for it.
+     *
+     * @param key   The key
+     * @param value The expected value
+     * @return True if the entry was removed
+     */
+    public boolean remove(long key, V value) {
+        int hash = hash(key);
+        Segment s = segmentFor(hash);
+
+        synchronized (s) {
+            Table t = s.table;
+            int slot = t.find(key, hash);
+
+            if (slot < 0 || t.values[slot] != value)
+                return false;
+
+            s.table = t.copy(slot, key, null);
+            return true;
+        }
+    }
+
+    /**
+     * Removes all entries.
+     */
+    public void clear() {
+        for (Segment s : _segments) {
+            synchronized (s) {
+                s.table = Table.EMPTY;
+            }
+        }
+    }
+
+    /**
+     * Returns the amount of entries.
+     */
+    public int size() {
+        int size = 0;
+
+        for (Segment s : _segments)
+            size += s.table.size;
+
+        return size;
+    }
+
+    /**
+     * Returns a snapshot of all keys.
+     */
+    public long[] keys() {
+        long[] result = new long[size()];
+        int count = 0;
+
+        for (Segment s : _segments) {
+            Table t = s.table;
+
+            for (int i = 0; i < t.values.length; i++) {
+                if (t.values[i] == null)
+                    continue;
+
+                // The map might have grown in the meantime
+                if (count == result.length)
+                    result = Arrays.copyOf(result, count * 2 + 1);
+
+                result[count++] = t.keys[i];
+            }
+        }
+
+        return count == result.length ? result : Arrays.copyOf(result, count);
+    }
+
+    /**
+     * Returns a snapshot of all values.
+     */
+    @SuppressWarnings("unchecked")
+    public ArrayList<V> values() {
+        ArrayList<V> result = new ArrayList<V>(size());
+
+        for (Segment s : _segments) {
+            Table t = s.table;
+
+            for (Object value : t.values) {
+                if (value != null)
+                    result.add((V) value);
+            }
+        }
+
+        return result;
+    }
+}
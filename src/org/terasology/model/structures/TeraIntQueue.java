@@ -0,0 +1,99 @@
+/*
+ * Copyright 2011 Benjamin Glatzel <benjamin.glatzel@me.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.model.structures;
+
+/**
+ * A FIFO queue of primitive ints backed by a ring buffer, which doubles its capacity when it runs full.
+ * Avoids the boxing and the node allocations of the collection classes on hot paths.
+ * <p/>
+ * NOTE: Not thread-safe.
+ *
+ * @author Benjamin Glatzel <benjamin.glatzel@me.com>
+ */
+public final class TeraIntQueue {
+
+    private int[] _elements;
+    private int _head, _size;
+
+    /**
+     * Init. a new queue.
+     *
+     * @param initialCapacity The initial capacity, rounded up to the next power of two
+     */
+    public TeraIntQueue(int initialCapacity) {
+        _elements = new int[Integer.highestOneBit(Math.max(initialCapacity, 2) - 1) << 1];
+    }
+
+    /**
+     * Appends the given value to the end of the queue.
+     */
+    public void add(int value) {
+        if (_size == _elements.length)
+            grow();
+
+        _elements[(_head + _size) & (_elements.length - 1)] = value;
+        _size++;
+    }
+
+    /**
+     * Removes and returns the value at the head of the queue.
+     *
+     * @return The value
+     * @throws IllegalStateException If the queue is empty
+     */
+    public int poll() {
+        if (_size == 0)
+            throw new IllegalStateException("The queue is empty.");
+
+        int result = _elements[_head];
+        _head = (_head + 1) & (_elements.length - 1);
+        _size--;
+
+        return result;
+    }
+
+    /**
+     * Removes all values from the queue. The capacity is kept.
+     */
+    public void clear() {
+        _head = 0;
+        _size = 0;
+    }
+
+    public boolean isEmpty() {
+        return _size == 0;
+    }
+
+    public int size() {
+        return _size;
+    }
+
+    public int capacity() {
+        return _elements.length;
+    }
+
+    private void grow() {
+        int[] elements = new int[_elements.length << 1];
+
+        // Unwrap the ring, so the head ends up at index zero
+        int firstPart = _elements.length - _head;
+        System.arraycopy(_elements, _head, elements, 0, firstPart);
+        System.arraycopy(_elements, 0, elements, firstPart, _head);
+
+        _elements = elements;
+        _head = 0;
+    }
+}
@@ -0,0 +1,295 @@
+/*
+ * Copyright 2011 Benjamin Glatzel <benjamin.glatzel@me.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.model.structures;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A 3D array for 4-bit values. The values are stored column by column (y-major), so vertically
+ * adjacent voxels share the same byte: the low nibble holds the even, the high nibble the odd y-coordinate.
+ * <p/>
+ * The values either live in a plain array on the heap or in a direct buffer handed out by a TeraSlabAllocator.
+ * Direct buffers have to be returned to the allocator using release().
+ *
+ * @author Benjamin Glatzel <benjamin.glatzel@me.com>
+ */
+public class TeraNibbleArray {
+
+    private final byte[] _array;
+    private final ByteBuffer _buffer;
+    private final TeraSlabAllocator _allocator;
+    private TeraSlabAllocator.Slice _slice;
+    private final int _lX, _lY, _lZ;
+    private final int _size;
+
+    /**
+     * Init. a new 3D array with the given dimensions. The height has to be even.
+     */
+    public TeraNibbleArray(int x, int y, int z) {
+        this(x, y, z, null);
+    }
+
+    /**
+     * Init. a new 3D array with the given dimensions. The height has to be even.
+     *
+     * @param allocator The allocator providing the direct buffer, null to store the values on the heap
+     */
+    public TeraNibbleArray(int x, int y, int z, TeraSlabAllocator allocator) {
+        if (y % 2 != 0)
+            throw new IllegalArgumentException("The height of a nibble array has to be even.");
+
+        _lX = x;
+        _lY = y;
+        _lZ = z;
+
+        _size = _lX * _lY * _lZ;
+
+        _allocator = allocator;
+
+        if (allocator != null) {
+            _slice = allocator.allocate(_size / 2);
+            _buffer = _slice.getBuffer();
+            _array = null;
+        } else {
+            _array = new byte[_size / 2];
+            _buffer = null;
+        }
+    }
+
+    /**
+     * Returns the direct buffer of this array to its allocator. The array must not be used anymore afterwards.
+     * Does nothing for arrays stored on the heap.
+     */
+    public void release() {
+        if (_slice != null) {
+            _allocator.release(_slice);
+            _slice = null;
+        }
+    }
+
+    private byte getByte(int i) {
+        return _array != null ? _array[i] : _buffer.get(i);
+    }
+
+    private void putByte(int i, byte b) {
+        if (_array != null)
+            _array[i] = b;
+        else
+            _buffer.put(i, b);
+    }
+
+    /**
+     * Creates a new nibble array from the packed bytes of a TeraSmartArray with the same dimensions.
+     * Used to migrate data persisted in the old layout.
+     *
+     * @param x      The dimension on the x-axis
+     * @param y      The dimension on the y-axis
+     * @param z      The dimension on the z-axis
+     * @param packed The raw bytes of the TeraSmartArray
+     * @return The nibble array
+     */
+    public static TeraNibbleArray fromSmartArrayLayout(int x, int y, int z, byte[] packed) {
+        TeraNibbleArray result = new TeraNibbleArray(x, y, z);
+
+        int halfSize = result._size / 2;
+
+        for (int i = 0; i < halfSize; i++) {
+            int b = packed[i] & 0xFF;
+            result.setSmartArrayPos(i, (byte) (b & 0x0F));
+            result.setSmartArrayPos(i + halfSize, (byte) (b >> 4));
+        }
+
+        return result;
+    }
+
+    private void setSmartArrayPos(int pos, byte b) {
+        // Inverse of the TeraSmartArray position (x * lX * lY) + (y * lX) + z
+        int x = pos / (_lX * _lY);
+        int y = (pos / _lX) % _lY;
+        int z = pos % _lX;
+
+        set(x, y, z, b);
+    }
+
+    private int columnStart(int x, int z) {
+        return (x * _lZ + z) * _lY;
+    }
+
+    /**
+     * Returns the byte value at the given position.
+     */
+    public byte get(int x, int y, int z) {
+        if (x >= _lX || y >= _lY || z >= _lZ || x < 0 || y < 0 || z < 0)
+            return -1;
+
+        int pos = columnStart(x, z) + y;
+        return (byte) ((getByte(pos >> 1) >> ((pos & 1) << 2)) & 0x0F);
+    }
+
+    /**
+     * Sets the byte value for the given position.
+     */
+    public void set(int x, int y, int z, byte b) {
+        if (x >= _lX || y >= _lY || z >= _lZ || x < 0 || y < 0 || z < 0)
+            return;
+
+        int pos = columnStart(x, z) + y;
+        int shift = (pos & 1) << 2;
+        putByte(pos >> 1, (byte) ((getByte(pos >> 1) & (0xF0 >> shift)) | ((b & 0x0F) << shift)));
+    }
+
+    /**
+     * Copies the values of the column at the given position into the target array.
+     *
+     * @param x      Position on the x-axis
+     * @param z      Position on the z-axis
+     * @param target The target array, needs space for the full height
+     * @param offset The start offset within the target array
+     */
+    public void getColumn(int x, int z, byte[] target, int offset) {
+        int start = columnStart(x, z) >> 1;
+
+        for (int i = 0; i < _lY / 2; i++) {
+            int b = getByte(start + i);
+            target[offset + 2 * i] = (byte) (b & 0x0F);
+            target[offset + 2 * i + 1] = (byte) ((b >> 4) & 0x0F);
+        }
+    }
+
+    /**
+     * Sets the values of the column at the given position.
+     *
+     * @param x      Position on the x-axis
+     * @param z      Position on the z-axis
+     * @param source The source array, needs to hold the full height
+     * @param offset The start offset within the source array
+     */
+    public void setColumn(int x, int z, byte[] source, int offset) {
+        int start = columnStart(x, z) >> 1;
+
+        for (int i = 0; i < _lY / 2; i++) {
+            putByte(start + i, (byte) ((source[offset + 2 * i] & 0x0F) | ((source[offset + 2 * i + 1] & 0x0F) << 4)));
+        }
+    }
+
+    /**
+     * Fills a part of a column with the given value.
+     *
+     * @param x      Position on the x-axis
+     * @param z      Position on the z-axis
+     * @param yStart The first y-coordinate to fill (inclusive)
+     * @param yEnd   The last y-coordinate to fill (exclusive)
+     * @param b      The value
+     */
+    public void fillColumn(int x, int z, int yStart, int yEnd, byte b) {
+        int y = Math.max(yStart, 0);
+        yEnd = Math.min(yEnd, _lY);
+
+        // Single nibbles at the odd start and the even end, full bytes in between
+        if (y < yEnd && (y & 1) != 0) {
+            set(x, y, z, b);
+            y++;
+        }
+
+        if (y < yEnd && (yEnd & 1) != 0) {
+            set(x, yEnd - 1, z, b);
+            yEnd--;
+        }
+
+        if (y < yEnd) {
+            int start = columnStart(x, z);
+            fill((start + y) >> 1, (start + yEnd) >> 1, b);
+        }
+    }
+
+    /**
+     * Copies the values of the horizontal layer at the given height into the target array.
+     * The values are ordered x-major: target[offset + x * lZ + z].
+     *
+     * @param y      Position on the y-axis
+     * @param target The target array
+     * @param offset The start offset within the target array
+     */
+    public void getLayer(int y, byte[] target, int offset) {
+        for (int x = 0; x < _lX; x++) {
+            for (int z = 0; z < _lZ; z++) {
+                target[offset + x * _lZ + z] = get(x, y, z);
+            }
+        }
+    }
+
+    /**
+     * Fills the horizontal layer at the given height with the given value.
+     *
+     * @param y Position on the y-axis
+     * @param b The value
+     */
+    public void fillLayer(int y, byte b) {
+        for (int x = 0; x < _lX; x++) {
+            for (int z = 0; z < _lZ; z++) {
+                set(x, y, z, b);
+            }
+        }
+    }
+
+    /**
+     * Fills the whole array with the given value.
+     */
+    public void fill(byte b) {
+        fill(0, _size / 2, b);
+    }
+
+    private void fill(int from, int to, byte b) {
+        byte packed = (byte) ((b & 0x0F) | ((b & 0x0F) << 4));
+
+        if (_array != null) {
+            Arrays.fill(_array, from, to, packed);
+            return;
+        }
+
+        for (int i = from; i < to; i++)
+            _buffer.put(i, packed);
+    }
+
+    /**
+     * Returns the raw byte at the given index.
+     */
+    public byte getRawByte(int i) {
+        return getByte(i);
+    }
+
+    /**
+     * Sets the raw byte for the given index.
+     */
+    public void setRawByte(int i, byte b) {
+        putByte(i, b);
+    }
+
+    /**
+     * Returns the size of this array.
+     */
+    public int size() {
+        return _size;
+    }
+
+    /**
+     * Returns the packed size of this array.
+     */
+    public int sizePacked() {
+        return _size / 2;
+    }
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright 2011 Benjamin Glatzel <benjamin.glatzel@me.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.model.structures;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * A 3D byte array which stores palette indices instead of the actual values. The amount of bits used
+ * per entry (1, 2, 4 or 8) grows automatically as soon as new values are stored. Behaves like
+ * TeraArray, so the raw bytes are always the plain (unpacked) values.
+ * <p/>
+ * The packed values either live in plain arrays on the heap or in direct buffers handed out by a
+ * TeraSlabAllocator. Direct buffers have to be returned to the allocator using release().
+ *
+ * @author Benjamin Glatzel <benjamin.glatzel@me.com>
+ */
+public class TeraPaletteArray {
+
+    private final int _lX, _lY, _lZ;
+    private final int _size;
+    private final TeraSlabAllocator _allocator;
+
+    /* Replaced as a whole on upgrade, so readers always see a consistent snapshot */
+    private volatile Storage _storage;
+    /* Direct storages replaced on upgrade, readers might still hold them until the array is released */
+    private final ArrayList<Storage> _replacedStorages = new ArrayList<Storage>();
+
+    private static final class Storage {
+        final int bits, shift, mask, valueMask;
+        final byte[] array;
+        final ByteBuffer buffer;
+        final TeraSlabAllocator.Slice slice;
+        final byte[] palette;
+        final short[] paletteIndex;
+        int paletteSize;
+
+        Storage(int bits, int size, TeraSlabAllocator allocator) {
+            this.bits = bits;
+            // log2 of the entries per byte
+            shift = 3 - Integer.numberOfTrailingZeros(bits);
+            mask = (1 << shift) - 1;
+            valueMask = (1 << bits) - 1;
+
+            if (allocator != null) {
+                slice = allocator.allocate(size >> shift);
+                buffer = slice.getBuffer();
+                array = null;
+            } else {
+                array = new byte[size >> shift];
+                buffer = null;
+                slice = null;
+            }
+
+            if (bits < 8) {
+                palette = new byte[1 << bits];
+                paletteIndex = new short[256];
+                Arrays.fill(paletteIndex, (short) -1);
+            } else {
+                // Eight bits store the values directly
+                palette = null;
+                paletteIndex = null;
+            }
+        }
+
+        byte getByte(int i) {
+            return array != null ? array[i] : buffer.get(i);
+        }
+
+        void putByte(int i, byte b) {
+            if (array != null)
+                array[i] = b;
+            else
+                buffer.put(i, b);
+        }
+
+        int getIndex(int pos) {
+            return ((getByte(pos >> shift) & 0xFF) >> ((pos & mask) * bits)) & valueMask;
+        }
+
+        byte get(int pos) {
+            int value = getIndex(pos);
+            return palette != null ? palette[value] : (byte) value;
+        }
+
+        void setIndex(int pos, int index) {
+            int bytePos = pos >> shift;
+            int offset = (pos & mask) * bits;
+            putByte(bytePos, (byte) ((getByte(bytePos) & ~(valueMask << offset)) | (index << offset)));
+        }
+    }
+
+    /**
+     * Init. a new 3D array with the given dimensions.
+     */
+    public TeraPaletteArray(int x, int y, int z) {
+        this(x, y, z, null);
+    }
+
+    /**
+     * Init. a new 3D array with the given dimensions.
+     *
+     * @param allocator The allocator providing the direct buffers, null to store the values on the heap
+     */
+    public TeraPaletteArray(int x, int y, int z, TeraSlabAllocator allocator) {
+        _lX = x;
+        _lY = y;
+        _lZ = z;
+
+        _size = _lX * _lY * _lZ;
+        _allocator = allocator;
+
+        // The array starts out with one bit per entry, all of them pointing to zero
+        _storage = new Storage(1, _size, _allocator);
+        _storage.palette[0] = 0;
+        _storage.paletteIndex[0] = 0;
+        _storage.paletteSize = 1;
+    }
+
+    /**
+     * Returns the byte value at the given position.
+     */
+    public byte get(int x, int y, int z) {
+        if (x >= _lX || y >= _lY || z >= _lZ || x < 0 || y < 0 || z < 0)
+            return 0;
+
+        return _storage.get((x * _lX * _lY) + (y * _lX) + z);
+    }
+
+    /**
+     * Sets the byte value for the given position.
+     */
+    public void set(int x, int y, int z, byte b) {
+        if (x >= _lX || y >= _lY || z >= _lZ || x < 0 || y < 0 || z < 0)
+            return;
+
+        setRawByte((x * _lX * _lY) + (y * _lX) + z, b);
+    }
+
+    /**
+     * Returns the raw byte at the given index.
+     */
+    public byte getRawByte(int i) {
+        return _storage.get(i);
+    }
+
+    /**
+     * Sets the raw byte for the given index.
+     */
+    public synchronized void setRawByte(int i, byte b) {
+        Storage s = _storage;
+
+        if (s.palette == null) {
+            s.putByte(i, b);
+            return;
+        }
+
+        int index = s.paletteIndex[b & 0xFF];
+
+        if (index < 0) {
+            if (s.paletteSize == s.palette.length) {
+                s = upgrade(s);
+
+                if (s.palette == null) {
+                    s.putByte(i, b);
+                    return;
+                }
+            }
+
+            index = s.paletteSize++;
+            s.palette[index] = b;
+            s.paletteIndex[b & 0xFF] = (short) index;
+        }
+
+        s.setIndex(i, index);
+    }
+
+    /**
+     * Doubles the amount of bits per entry and copies the current values to the new storage.
+     */
+    private Storage upgrade(Storage old) {
+        Storage s = new Storage(old.bits << 1, _size, _allocator);
+
+        if (s.palette != null) {
+            // The palette indices stay the same, only the packing changes
+            System.arraycopy(old.palette, 0, s.palette, 0, old.paletteSize);
+            System.arraycopy(old.paletteIndex, 0, s.paletteIndex, 0, old.paletteIndex.length);
+            s.paletteSize = old.paletteSize;
+
+            for (int i = 0; i < _size; i++) {
+                s.setIndex(i, old.getIndex(i));
+            }
+        } else {
+            for (int i = 0; i < _size; i++) {
+                s.putByte(i, old.get(i));
+            }
+        }
+
+        // Readers might still hold the old storage, so its buffer is kept until the whole array is released
+        if (old.slice != null)
+            _replacedStorages.add(old);
+
+        _storage = s;
+        return s;
+    }
+
+    /**
+     * Returns the direct buffers of this array to its allocator. The array must not be used anymore afterwards.
+     * Does nothing for arrays stored on the heap.
+     */
+    public synchronized void release() {
+        if (_allocator == null)
+            return;
+
+        for (Storage s : _replacedStorages)
+            _allocator.release(s.slice);
+
+        _replacedStorages.clear();
+
+        if (_storage.slice != null)
+            _allocator.release(_storage.slice);
+    }
+
+    /**
+     * Returns the size of this array.
+     */
+    public int size() {
+        return _size;
+    }
+
+    /**
+     * Returns the amount of bits currently used per entry.
+     */
+    public int bitsPerEntry() {
+        return _storage.bits;
+    }
+
+    /**
+     * Returns the amount of bytes currently used to store the packed values.
+     */
+    public int sizePacked() {
+        return _size >> _storage.shift;
+    }
+}
@@ -0,0 +1,254 @@
+/*
+ * Copyright 2011 Benjamin Glatzel <benjamin.glatzel@me.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.model.structures;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+
+/**
+ * Hands out zeroed slices of large direct byte buffers. The slabs are never returned to the system, released
+ * slices are pooled and reused for later allocations of the same size class instead.
+ * <p/>
+ * Slices have to be released explicitly once nobody reads or writes them anymore. Slices which become
+ * unreachable without having been released are detected using phantom references: they are counted as leaked
+ * and returned to the pool, so a missing release never costs any memory.
+ *
+ * @author Benjamin Glatzel <benjamin.glatzel@me.com>
+ */
+public class TeraSlabAllocator {
+
+    private static final int MIN_SIZE_CLASS = 6; // 64 bytes
+    private static final int MAX_SIZE_CLASS = 20; // 1 MB
+
+    private final int _slabSize;
+
+    private ByteBuffer _currentSlab;
+    /* The slabs stay reachable, so their memory is kept while only pooled regions refer to it */
+    private final ArrayList<ByteBuffer> _slabs = new ArrayList<ByteBuffer>();
+    private final ArrayList<ArrayDeque<Region>> _freeRegions = new ArrayList<ArrayDeque<Region>>(MAX_SIZE_CLASS + 1);
+
+    /* Enqueued by the garbage collector as soon as a slice has become unreachable without being released */
+    private final ReferenceQueue<Slice> _leakedSlices = new ReferenceQueue<Slice>();
+    /* The phantom references have to stay reachable themselves until they are released or enqueued */
+    private final HashSet<SliceReference> _handedOut = new HashSet<SliceReference>();
+
+    /* STATISTICS */
+    private long _reservedBytes, _usedBytes, _leaked;
+
+    /**
+     * A slice handed out by the allocator. The buffer must not be used anymore once the slice has been released.
+     */
+    public static final class Slice {
+        private final ByteBuffer _buffer;
+        private SliceReference _reference;
+
+        private Slice(ByteBuffer buffer) {
+            _buffer = buffer;
+        }
+
+        /**
+         * Returns the direct buffer backing this slice.
+         */
+        public ByteBuffer getBuffer() {
+            return _buffer;
+        }
+    }
+
+    /**
+     * A part of a slab.
+     */
+    private static final class Region {
+        final ByteBuffer slab;
+        final int offset, size;
+
+        Region(ByteBuffer slab, int offset, int size) {
+            this.slab = slab;
+            this.offset = offset;
+            this.size = size;
+        }
+
+        ByteBuffer createBuffer() {
+            // Slices of a duplicate, so the position and limit of the shared slab are never touched
+            ByteBuffer view = slab.duplicate();
+            view.limit(offset + size);
+            view.position(offset);
+
+            return view.slice();
+        }
+    }
+
+    /**
+     * Remembers the region behind a handed out slice.
+     */
+    private static final class SliceReference extends PhantomReference<Slice> {
+        final Region region;
+
+        SliceReference(Slice slice, Region region, ReferenceQueue<Slice> queue) {
+            super(slice, queue);
+            this.region = region;
+        }
+    }
+
+    /**
+     * Init. a new allocator.
+     *
+     * @param slabSize The size of the direct buffers slices are carved from
+     */
+    public TeraSlabAllocator(int slabSize) {
+        if (slabSize > 1 << MAX_SIZE_CLASS || Integer.bitCount(slabSize) != 1)
+            throw new IllegalArgumentException("The slab size has to be a power of two of at most 1 MB.");
+
+        _slabSize = slabSize;
+
+        for (int i = 0; i <= MAX_SIZE_CLASS; i++)
+            _freeRegions.add(new ArrayDeque<Region>());
+    }
+
+    /**
+     * Returns a zeroed slice with at least the given capacity. The slice has to be released using release().
+     *
+     * @param size The requested capacity in bytes
+     * @return The slice
+     */
+    public synchronized Slice allocate(int size) {
+        int sizeClass = sizeClass(size);
+
+        if (sizeClass > MAX_SIZE_CLASS || 1 << sizeClass > _slabSize)
+            throw new IllegalArgumentException("Allocation exceeds the slab size: " + size);
+
+        recycleLeakedSlices();
+
+        Region region = _freeRegions.get(sizeClass).poll();
+        Slice result;
+
+        if (region != null) {
+            result = new Slice(region.createBuffer());
+
+            for (int i = 0; i < region.size; i++)
+                result._buffer.put(i, (byte) 0);
+        } else {
+            region = carve(1 << sizeClass);
+            result = new Slice(region.createBuffer());
+        }
+
+        result._reference = new SliceReference(result, region, _leakedSlices);
+        _handedOut.add(result._reference);
+        _usedBytes += region.size;
+
+        return result;
+    }
+
+    /**
+     * Returns the given slice to the pool. Its buffer is handed out again by later allocations.
+     *
+     * @param slice The slice
+     */
+    public synchronized void release(Slice slice) {
+        SliceReference ref = slice._reference;
+
+        if (ref == null)
+            throw new IllegalStateException("The slice has already been released.");
+
+        slice._reference = null;
+        // Cleared, so the reference is never enqueued
+        ref.clear();
+        _handedOut.remove(ref);
+
+        free(ref.region);
+    }
+
+    private void recycleLeakedSlices() {
+        Reference<? extends Slice> ref;
+
+        while ((ref = _leakedSlices.poll()) != null) {
+            SliceReference sliceRef = (SliceReference) ref;
+
+            // Released slices are cleared before they can be enqueued, this one has been forgotten
+            if (_handedOut.remove(sliceRef)) {
+                _leaked++;
+                free(sliceRef.region);
+            }
+        }
+    }
+
+    private void free(Region region) {
+        _freeRegions.get(sizeClass(region.size)).add(region);
+        _usedBytes -= region.size;
+    }
+
+    private Region carve(int size) {
+        if (_currentSlab == null || _currentSlab.remaining() < size) {
+            // Region sizes are powers of two, so the rest of the old slab can be split up without waste
+            if (_currentSlab != null) {
+                while (_currentSlab.remaining() >= 1 << MIN_SIZE_CLASS) {
+                    int rest = Integer.highestOneBit(_currentSlab.remaining());
+                    _freeRegions.get(sizeClass(rest)).add(take(rest));
+                }
+            }
+
+            _currentSlab = ByteBuffer.allocateDirect(_slabSize);
+            _slabs.add(_currentSlab);
+            _reservedBytes += _slabSize;
+        }
+
+        return take(size);
+    }
+
+    private Region take(int size) {
+        Region region = new Region(_currentSlab, _currentSlab.position(), size);
+        _currentSlab.position(_currentSlab.position() + size);
+
+        return region;
+    }
+
+    private static int sizeClass(int size) {
+        return Math.max(MIN_SIZE_CLASS, 32 - Integer.numberOfLeadingZeros(size - 1));
+    }
+
+    /**
+     * Returns the amount of direct memory reserved by this allocator.
+     */
+    public synchronized long getReservedBytes() {
+        return _reservedBytes;
+    }
+
+    /**
+     * Returns the amount of direct memory handed out and neither released nor known to be leaked yet.
+     */
+    public synchronized long getUsedBytes() {
+        recycleLeakedSlices();
+        return _usedBytes;
+    }
+
+    /**
+     * Returns the amount of slices which became unreachable without being released.
+     */
+    public synchronized long getLeakedSlices() {
+        recycleLeakedSlices();
+        return _leaked;
+    }
+
+    @Override
+    public synchronized String toString() {
+        recycleLeakedSlices();
+        return String.format("slab allocator (reserved: %d KB, used: %d KB, leaked slices: %d)", _reservedBytes >> 10, _usedBytes >> 10, _leaked);
+    }
+}
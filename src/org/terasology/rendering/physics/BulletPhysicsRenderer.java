@@ -140,11 +140,16 @@ public class BulletPhysicsRenderer implements RenderableObject, BlockObserver {
         for (int i = 0; i < 16 && i < chunks.size(); i++) {
             final Chunk chunk = chunks.get(i);
 
-            if (chunk != null) {
+            // The chunk must not leave the cache before the task is done
+            if (chunk != null && chunk.pin()) {
 
                 Runnable r = new Runnable() {
                     public void run() {
-                        chunk.updateRigidBody();
+                        try {
+                            chunk.updateRigidBody();
+                        } finally {
+                            chunk.unpin();
+                        }
                     }
                 };
 
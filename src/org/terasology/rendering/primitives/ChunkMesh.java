@@ -190,6 +190,41 @@ public class ChunkMesh {
         }
     }
 
+    /**
+     * Returns the estimated amount of bytes held on the CPU side by this mesh: the temporary vertex arrays,
+     * the buffers waiting to be uploaded and the buffers of the physics mesh. The data uploaded to the
+     * GPU does not count.
+     *
+     * @return The amount of bytes
+     */
+    public long estimateMemoryUsage() {
+        long result = 0;
+
+        // The fields are cleared concurrently, so work on local copies
+        VertexElements[] vertexElements = _vertexElements;
+        IndexedMesh indexedMesh = _indexedMesh;
+
+        if (vertexElements != null) {
+            for (VertexElements elements : vertexElements) {
+                result += 4L * (elements.normals.size() + elements.quads.size() + elements.tex.size() + elements.color.size());
+
+                if (elements.vertices != null)
+                    result += 4L * elements.vertices.capacity();
+                if (elements.indices != null)
+                    result += 4L * elements.indices.capacity();
+            }
+        }
+
+        if (indexedMesh != null) {
+            if (indexedMesh.vertexBase != null)
+                result += indexedMesh.vertexBase.capacity();
+            if (indexedMesh.triangleIndexBase != null)
+                result += indexedMesh.triangleIndexBase.capacity();
+        }
+
+        return result;
+    }
+
     public boolean isGenerated() {
         return _vertexElements == null;
     }
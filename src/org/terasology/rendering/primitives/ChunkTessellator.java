@@ -20,6 +20,7 @@ import com.bulletphysics.collision.shapes.ScalarType;
 import org.lwjgl.BufferUtils;
 import org.terasology.logic.manager.ConfigurationManager;
 import org.terasology.logic.world.Chunk;
+import org.terasology.logic.world.ChunkSection;
 import org.terasology.model.blocks.Block;
 import org.terasology.model.blocks.BlockManager;
 
@@ -36,6 +37,10 @@ public final class ChunkTessellator {
 
     private static final boolean GENERATE_PHYSICS_MESHES = (Boolean) ConfigurationManager.getInstance().getConfig().get("Physics.generatePhysicsMeshes");
 
+    /* Horizontal offsets of the positions sampled around a vertex */
+    private static final float[] SAMPLE_OFFSETS_X = {0.1f, 0.1f, -0.1f, -0.1f};
+    private static final float[] SAMPLE_OFFSETS_Z = {0.1f, -0.1f, -0.1f, 0.1f};
+
     private final Chunk _chunk;
     private static int _statVertexArrayUpdateCount = 0;
 
@@ -52,6 +57,14 @@ public final class ChunkTessellator {
                 double biomeHumidity = _chunk.getParent().getHumidityAt(_chunk.getBlockWorldPosX(x), _chunk.getBlockWorldPosZ(z));
 
                 for (int y = verticalOffset; y < verticalOffset + meshHeight; y++) {
+                    ChunkSection section = _chunk.getSection(y / ChunkSection.SECTION_DIMENSION_Y);
+
+                    // Skip sections filled with invisible blocks altogether
+                    if (section.isUniform() && BlockManager.getInstance().getBlock(section.getBlock(0, 0, 0)).isInvisible()) {
+                        y += ChunkSection.SECTION_DIMENSION_Y - 1 - y % ChunkSection.SECTION_DIMENSION_Y;
+                        continue;
+                    }
+
                     byte blockType = _chunk.getBlock(x, y, z);
                     Block block = BlockManager.getInstance().getBlock(blockType);
 
@@ -161,6 +174,13 @@ public final class ChunkTessellator {
         }
     }
 
+    /**
+     * Rounds the given coordinate to the block position the same way WorldProvider.getBlockAtPosition does.
+     */
+    private static int roundToBlockPos(double d) {
+        return (int) (d + ((d >= 0) ? 0.5f : -0.5f));
+    }
+
     private void calcLightingValuesForVertexPos(Vector3f vertexPos, Double[] output) {
         double[] lights = new double[8];
         double[] blockLights = new double[8];
@@ -168,30 +188,22 @@ public final class ChunkTessellator {
 
         Vector3f vertexWorldPos = moveVectorFromChunkSpaceToWorldSpace(vertexPos);
 
-        blocks[0] = _chunk.getParent().getBlockAtPosition(new Vector3d((vertexWorldPos.x + 0.1f), (vertexWorldPos.y + 0.8f), (vertexWorldPos.z + 0.1f)));
-        blocks[1] = _chunk.getParent().getBlockAtPosition(new Vector3d((vertexWorldPos.x + 0.1f), (vertexWorldPos.y + 0.8f), (vertexWorldPos.z - 0.1f)));
-        blocks[2] = _chunk.getParent().getBlockAtPosition(new Vector3d((vertexWorldPos.x - 0.1f), (vertexWorldPos.y + 0.8f), (vertexWorldPos.z - 0.1f)));
-        blocks[3] = _chunk.getParent().getBlockAtPosition(new Vector3d((vertexWorldPos.x - 0.1f), (vertexWorldPos.y + 0.8f), (vertexWorldPos.z + 0.1f)));
-
-        lights[0] = _chunk.getParent().getLightAtPosition(new Vector3d((vertexWorldPos.x + 0.1f), (vertexWorldPos.y + 0.8f), (vertexWorldPos.z + 0.1f)), Chunk.LIGHT_TYPE.SUN);
-        lights[1] = _chunk.getParent().getLightAtPosition(new Vector3d((vertexWorldPos.x + 0.1f), (vertexWorldPos.y + 0.8f), (vertexWorldPos.z - 0.1f)), Chunk.LIGHT_TYPE.SUN);
-        lights[2] = _chunk.getParent().getLightAtPosition(new Vector3d((vertexWorldPos.x - 0.1f), (vertexWorldPos.y + 0.8f), (vertexWorldPos.z - 0.1f)), Chunk.LIGHT_TYPE.SUN);
-        lights[3] = _chunk.getParent().getLightAtPosition(new Vector3d((vertexWorldPos.x - 0.1f), (vertexWorldPos.y + 0.8f), (vertexWorldPos.z + 0.1f)), Chunk.LIGHT_TYPE.SUN);
-
-        lights[4] = _chunk.getParent().getLightAtPosition(new Vector3d((vertexWorldPos.x + 0.1f), (vertexWorldPos.y - 0.1f), (vertexWorldPos.z + 0.1f)), Chunk.LIGHT_TYPE.SUN);
-        lights[5] = _chunk.getParent().getLightAtPosition(new Vector3d((vertexWorldPos.x + 0.1f), (vertexWorldPos.y - 0.1f), (vertexWorldPos.z - 0.1f)), Chunk.LIGHT_TYPE.SUN);
-        lights[6] = _chunk.getParent().getLightAtPosition(new Vector3d((vertexWorldPos.x - 0.1f), (vertexWorldPos.y - 0.1f), (vertexWorldPos.z - 0.1f)), Chunk.LIGHT_TYPE.SUN);
-        lights[7] = _chunk.getParent().getLightAtPosition(new Vector3d((vertexWorldPos.x - 0.1f), (vertexWorldPos.y - 0.1f), (vertexWorldPos.z + 0.1f)), Chunk.LIGHT_TYPE.SUN);
-
-        blockLights[0] = _chunk.getParent().getLightAtPosition(new Vector3d((vertexWorldPos.x + 0.1f), (vertexWorldPos.y + 0.8f), (vertexWorldPos.z + 0.1f)), Chunk.LIGHT_TYPE.BLOCK);
-        blockLights[1] = _chunk.getParent().getLightAtPosition(new Vector3d((vertexWorldPos.x + 0.1f), (vertexWorldPos.y + 0.8f), (vertexWorldPos.z - 0.1f)), Chunk.LIGHT_TYPE.BLOCK);
-        blockLights[2] = _chunk.getParent().getLightAtPosition(new Vector3d((vertexWorldPos.x - 0.1f), (vertexWorldPos.y + 0.8f), (vertexWorldPos.z - 0.1f)), Chunk.LIGHT_TYPE.BLOCK);
-        blockLights[3] = _chunk.getParent().getLightAtPosition(new Vector3d((vertexWorldPos.x - 0.1f), (vertexWorldPos.y + 0.8f), (vertexWorldPos.z + 0.1f)), Chunk.LIGHT_TYPE.BLOCK);
-
-        blockLights[4] = _chunk.getParent().getLightAtPosition(new Vector3d((vertexWorldPos.x + 0.1f), (vertexWorldPos.y - 0.1f), (vertexWorldPos.z + 0.1f)), Chunk.LIGHT_TYPE.BLOCK);
-        blockLights[5] = _chunk.getParent().getLightAtPosition(new Vector3d((vertexWorldPos.x + 0.1f), (vertexWorldPos.y - 0.1f), (vertexWorldPos.z - 0.1f)), Chunk.LIGHT_TYPE.BLOCK);
-        blockLights[6] = _chunk.getParent().getLightAtPosition(new Vector3d((vertexWorldPos.x - 0.1f), (vertexWorldPos.y - 0.1f), (vertexWorldPos.z - 0.1f)), Chunk.LIGHT_TYPE.BLOCK);
-        blockLights[7] = _chunk.getParent().getLightAtPosition(new Vector3d((vertexWorldPos.x - 0.1f), (vertexWorldPos.y - 0.1f), (vertexWorldPos.z + 0.1f)), Chunk.LIGHT_TYPE.BLOCK);
+        // The upper four samples provide the blocks and the light, the lower four only the light
+        for (int i = 0; i < 8; i++) {
+            int x = roundToBlockPos(vertexWorldPos.x + SAMPLE_OFFSETS_X[i % 4]);
+            int y = roundToBlockPos(vertexWorldPos.y + (i < 4 ? 0.8f : -0.1f));
+            int z = roundToBlockPos(vertexWorldPos.z + SAMPLE_OFFSETS_Z[i % 4]);
+
+            Chunk c = _chunk.getChunkForWorldPos(x, z);
+            x -= c.getChunkWorldPosX();
+            z -= c.getChunkWorldPosZ();
+
+            if (i < 4)
+                blocks[i] = c.getBlock(x, y, z);
+
+            lights[i] = c.getLight(x, y, z, Chunk.LIGHT_TYPE.SUN);
+            blockLights[i] = c.getLight(x, y, z, Chunk.LIGHT_TYPE.BLOCK);
+        }
 
         double resultLight = 0;
         double resultBlockLight = 0;
@@ -36,6 +36,7 @@ import org.terasology.utilities.MathHelper;
 import javax.vecmath.Vector3d;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.logging.Level;
 
 import static org.lwjgl.opengl.GL11.*;
@@ -86,6 +87,7 @@ public final class WorldRenderer implements RenderableObject {
 
     /* UPDATING */
     private final ChunkUpdateManager _chunkUpdateManager;
+    private final ChunkPrefetcher _chunkPrefetcher;
 
     /* EVENTS */
     private final WorldTimeEventManager _worldTimeEventManager;
@@ -111,6 +113,7 @@ public final class WorldRenderer implements RenderableObject {
         _worldProvider = new LocalWorldProvider(title, seed);
         _skysphere = new Skysphere(this);
         _chunkUpdateManager = new ChunkUpdateManager();
+        _chunkPrefetcher = new ChunkPrefetcher(_worldProvider.getChunkProvider());
         _worldTimeEventManager = new WorldTimeEventManager(_worldProvider);
         _portalManager = new PortalManager(this);
         _mobManager = new MobManager(this);
@@ -132,15 +135,29 @@ public final class WorldRenderer implements RenderableObject {
 
         if (_chunkPosX != newChunkPosX || _chunkPosZ != newChunkPosZ || force) {
 
+            // The initial chunks can't be prefetched, so only count the chunks entering the area while moving
+            boolean moving = !_chunksInProximity.isEmpty();
+            int half = _viewingDistance / 2;
+
+            // The chunks around the player are pinned, so they are never evicted while they are rendered
+            ArrayList<Chunk> previousChunks = new ArrayList<Chunk>(_chunksInProximity);
             _chunksInProximity.clear();
 
-            for (int x = -(_viewingDistance / 2); x < (_viewingDistance / 2); x++) {
-                for (int z = -(_viewingDistance / 2); z < (_viewingDistance / 2); z++) {
-                    Chunk c = _worldProvider.getChunkProvider().loadOrCreateChunk(calcPlayerChunkOffsetX() + x, calcPlayerChunkOffsetZ() + z);
+            for (int x = -half; x < half; x++) {
+                for (int z = -half; z < half; z++) {
+                    Chunk c = _worldProvider.getChunkProvider().loadAndPinChunk(newChunkPosX + x, newChunkPosZ + z);
                     _chunksInProximity.add(c);
+
+                    int offsetX = newChunkPosX + x - _chunkPosX, offsetZ = newChunkPosZ + z - _chunkPosZ;
+
+                    if (moving && (offsetX < -half || offsetX >= half || offsetZ < -half || offsetZ >= half))
+                        _chunkPrefetcher.chunkRequested(c);
                 }
             }
 
+            for (Chunk c : previousChunks)
+                c.unpin();
+
             _chunkPosX = newChunkPosX;
             _chunkPosZ = newChunkPosZ;
 
@@ -476,6 +493,9 @@ public final class WorldRenderer implements RenderableObject {
         updateChunksInProximity(false);
         updateVisibleChunks();
 
+        // Load the chunks the player is going to see next in the background
+        _chunkPrefetcher.update(_chunkPosX, _chunkPosZ, _player.getVelocity(), _player.getViewingDirection(), _viewingDistance);
+
         BulletPhysicsRenderer.getInstance().update();
     }
 
@@ -513,6 +533,7 @@ public final class WorldRenderer implements RenderableObject {
      * @return The maximum height
      */
     public final int maxHeightAt(int x, int z) {
+        // Water, leaves and billboards count as well, so the surface heightmap can't be used here
         for (int y = Chunk.CHUNK_DIMENSION_Y - 1; y >= 0; y--) {
             if (_worldProvider.getBlock(x, y, z) != 0x0)
                 return y;
@@ -581,13 +602,21 @@ public final class WorldRenderer implements RenderableObject {
      * Disposes this world.
      */
     public void dispose() {
+        _chunkPrefetcher.dispose();
+        Terasology.getInstance().getLogger().log(Level.INFO, _chunkPrefetcher.toString());
+
+        for (Chunk c : _chunksInProximity)
+            c.unpin();
+
+        _chunksInProximity.clear();
+
         _worldProvider.dispose();
         AudioManager.getInstance().stopAllSounds();
     }
 
     @Override
     public String toString() {
-        return String.format("world (biome: %s, time: %.2f, sun: %.2f, cache: %d, triangles: %d, dcs: %d, vcs: %d, seed: \"%s\", title: \"%s\", ocul: %d, smcul: %d, ec: %d)", getActiveBiome(), _worldProvider.getTime(), _skysphere.getSunPosAngle(), _worldProvider.getChunkProvider().size(), _statVisibleTriangles, _statDirty, _visibleChunks.size(), _worldProvider.getSeed(), _worldProvider.getTitle(), _statOcclusionCulled, _statSubMeshCulled, _statEmpty);
+        return String.format("world (biome: %s, time: %.2f, sun: %.2f, cache: %d (%d MB), triangles: %d, dcs: %d, vcs: %d, seed: \"%s\", title: \"%s\", ocul: %d, smcul: %d, ec: %d, pfhr: %.2f)", getActiveBiome(), _worldProvider.getTime(), _skysphere.getSunPosAngle(), _worldProvider.getChunkProvider().size(), _worldProvider.getChunkProvider().getMemoryUsage() / (1024 * 1024), _statVisibleTriangles, _statDirty, _visibleChunks.size(), _worldProvider.getSeed(), _worldProvider.getTitle(), _statOcclusionCulled, _statSubMeshCulled, _statEmpty, _chunkPrefetcher.getHitRate());
     }
 
     public Player getPlayer() {
@@ -656,6 +685,25 @@ public final class WorldRenderer implements RenderableObject {
         Terasology.getInstance().resetOpenGLParameters();
     }
 
+    /**
+     * Generates and lights all chunks in proximity of the player in one parallel pass. The meshes are created
+     * by the regular chunk updates afterwards.
+     */
+    public void generateChunksInProximity() {
+        LinkedHashSet<Chunk> chunks = new LinkedHashSet<Chunk>(_chunksInProximity);
+
+        // The neighbors have to be generated before the light at the borders can be calculated
+        for (Chunk c : _chunksInProximity) {
+            for (Chunk neighbor : c.loadOrCreateNeighbors()) {
+                if (neighbor != null)
+                    chunks.add(neighbor);
+            }
+        }
+
+        ChunkBatch.generate(chunks);
+        ChunkBatch.light(_chunksInProximity);
+    }
+
     public void standaloneGenerateChunks() {
         for (int i = 0; i < _chunksInProximity.size(); i++) {
             Chunk c = _chunksInProximity.get(i);
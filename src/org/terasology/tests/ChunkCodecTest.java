@@ -0,0 +1,64 @@
+package org.terasology.tests;
+
+
+import org.terasology.logic.world.ChunkCodec;
+import org.terasology.utilities.FastRandom;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+public class ChunkCodecTest extends junit.framework.TestCase {
+
+    private final byte[] _data = new byte[65536];
+
+    public void setUp() throws Exception {
+        FastRandom rand = new FastRandom(42);
+
+        // Long runs with some noise in between, like the voxel data of chunks
+        for (int i = 0; i < _data.length; i++) {
+            if (i % 256 < 64)
+                _data[i] = (byte) rand.randomInt();
+            else
+                _data[i] = (byte) (i / 4096);
+        }
+    }
+
+    public void testRoundTrip() throws Exception {
+        for (ChunkCodec.CODEC_TYPE type : ChunkCodec.CODEC_TYPE.values()) {
+            ChunkCodec codec = new ChunkCodec(type);
+            byte[] encoded = codec.encode(_data, _data.length);
+
+            assertTrue(Arrays.equals(_data, codec.decode(encoded)));
+        }
+    }
+
+    public void testCrossCodecDecoding() throws Exception {
+        byte[] encoded = new ChunkCodec(ChunkCodec.CODEC_TYPE.RLE_DEFLATE).encode(_data, _data.length);
+        assertTrue(Arrays.equals(_data, new ChunkCodec(ChunkCodec.CODEC_TYPE.NONE).decode(encoded)));
+    }
+
+    public void testCompression() throws Exception {
+        ChunkCodec codec = new ChunkCodec(ChunkCodec.CODEC_TYPE.DEFLATE);
+        codec.encode(_data, _data.length);
+
+        assertTrue(codec.getCompressionRatio() < 0.5);
+    }
+
+    public void testLegacyData() throws Exception {
+        byte[] legacy = Arrays.copyOf(_data, 1000);
+        assertSame(legacy, new ChunkCodec(ChunkCodec.CODEC_TYPE.DEFLATE).decode(legacy));
+    }
+
+    public void testChecksum() throws Exception {
+        ChunkCodec codec = new ChunkCodec(ChunkCodec.CODEC_TYPE.NONE);
+        byte[] encoded = codec.encode(_data, _data.length);
+        encoded[encoded.length - 1]++;
+
+        try {
+            codec.decode(encoded);
+            fail("Damaged data has been decoded.");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package org.terasology.tests;
+
+
+import org.terasology.logic.world.Chunk;
+import org.terasology.logic.world.ChunkReclaimer;
+
+public class ChunkReclaimerTest extends junit.framework.TestCase {
+
+    public void testOpenSectionsKeepChunks() throws Exception {
+        long epoch = ChunkReclaimer.enter();
+
+        Chunk c = new Chunk();
+        c.setBlock(0, 0, 0, (byte) 1);
+        c.dispose();
+        assertFalse(c.pin());
+
+        for (int i = 0; i < 5; i++)
+            ChunkReclaimer.reclaim();
+
+        assertEquals(1, ChunkReclaimer.getPendingChunks());
+        assertEquals(1, c.getBlock(0, 0, 0));
+
+        ChunkReclaimer.exit(epoch);
+
+        for (int i = 0; i < 2; i++)
+            ChunkReclaimer.reclaim();
+
+        assertEquals(0, ChunkReclaimer.getPendingChunks());
+        assertEquals(0, c.getBlock(0, 0, 0));
+    }
+
+    public void testPinnedChunks() throws Exception {
+        Chunk c = new Chunk();
+
+        assertTrue(c.pin());
+        assertTrue(c.isPinned());
+
+        c.unpin();
+        assertFalse(c.isPinned());
+    }
+}
@@ -0,0 +1,51 @@
+package org.terasology.tests;
+
+
+import org.terasology.game.SyntheticWorld;
+
+import java.util.Arrays;
+import java.util.List;
+
+public class LightEngineTest extends junit.framework.TestCase {
+
+    public void testPlains() throws Exception {
+        checkEdits(SyntheticWorld.TERRAIN_TYPE.PLAINS);
+    }
+
+    public void testCaves() throws Exception {
+        checkEdits(SyntheticWorld.TERRAIN_TYPE.CAVES);
+    }
+
+    public void testTorchGrid() throws Exception {
+        checkEdits(SyntheticWorld.TERRAIN_TYPE.TORCH_GRID);
+    }
+
+    private void checkEdits(SyntheticWorld.TERRAIN_TYPE type) {
+        SyntheticWorld world = new SyntheticWorld(type, 0);
+
+        try {
+            assertEquals(0, world.countMismatches());
+            byte[] initial = world.captureLight();
+
+            List<SyntheticWorld.Edit> edits = world.createEdits();
+            assertFalse(edits.isEmpty());
+
+            List<SyntheticWorld.Edit> undo = world.apply(edits, false);
+            assertEquals(0, world.countMismatches());
+            byte[] edited = world.captureLight();
+            assertFalse(Arrays.equals(initial, edited));
+
+            world.apply(undo, false);
+            assertTrue(Arrays.equals(initial, world.captureLight()));
+
+            // Batching the light updates must not change the result
+            undo = world.apply(edits, true);
+            assertTrue(Arrays.equals(edited, world.captureLight()));
+
+            world.apply(undo, true);
+            assertTrue(Arrays.equals(initial, world.captureLight()));
+        } finally {
+            world.dispose();
+        }
+    }
+}
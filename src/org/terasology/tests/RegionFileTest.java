@@ -0,0 +1,107 @@
+package org.terasology.tests;
+
+
+import org.terasology.logic.world.RegionFile;
+
+import java.io.File;
+import java.util.Arrays;
+
+public class RegionFileTest extends junit.framework.TestCase {
+
+    private File _file;
+    private RegionFile _region;
+
+    public void setUp() throws Exception {
+        _file = File.createTempFile("region", ".tr");
+        _file.delete();
+        _region = new RegionFile(_file);
+    }
+
+    public void tearDown() throws Exception {
+        _region.close();
+        _file.delete();
+    }
+
+    private static byte[] data(int length, int seed) {
+        byte[] result = new byte[length];
+        for (int i = 0; i < length; i++)
+            result[i] = (byte) (i * 31 + seed);
+        return result;
+    }
+
+    public void testMissingChunk() throws Exception {
+        assertNull(_region.read(3, 7));
+        assertFalse(_region.contains(3, 7));
+    }
+
+    public void testWriteAndReopen() throws Exception {
+        _region.write(0, 0, data(100, 1));
+        _region.write(-1, -1, data(10000, 2));
+
+        _region.close();
+        _region = new RegionFile(_file);
+
+        assertTrue(Arrays.equals(data(100, 1), _region.read(0, 0)));
+        assertTrue(Arrays.equals(data(10000, 2), _region.read(31, 31)));
+    }
+
+    public void testRewriteInPlace() throws Exception {
+        _region.write(1, 1, data(10000, 1));
+        int sectors = _region.getSectorCount();
+
+        _region.write(1, 1, data(5000, 2));
+        assertEquals(sectors, _region.getSectorCount());
+        assertTrue(Arrays.equals(data(5000, 2), _region.read(1, 1)));
+    }
+
+    public void testReuseFreedSectors() throws Exception {
+        _region.write(0, 0, data(5000, 1));
+        _region.write(1, 0, data(5000, 2));
+
+        // Moves the first chunk to the end of the file
+        _region.write(0, 0, data(20000, 3));
+        int sectors = _region.getSectorCount();
+
+        // Fits into the sectors freed by the first chunk
+        _region.write(2, 0, data(5000, 4));
+        assertEquals(sectors, _region.getSectorCount());
+
+        assertTrue(Arrays.equals(data(20000, 3), _region.read(0, 0)));
+        assertTrue(Arrays.equals(data(5000, 2), _region.read(1, 0)));
+        assertTrue(Arrays.equals(data(5000, 4), _region.read(2, 0)));
+    }
+
+    public void testConcurrentReads() throws Exception {
+        _region.write(0, 0, data(3000, 0));
+
+        final boolean[] failed = new boolean[1];
+        Thread[] readers = new Thread[4];
+
+        for (int i = 0; i < readers.length; i++) {
+            readers[i] = new Thread() {
+                public void run() {
+                    try {
+                        for (int j = 0; j < 20000; j++) {
+                            byte[] result = _region.read(0, 0);
+
+                            // Every read has to return one of the complete versions
+                            if (!Arrays.equals(data(result.length, result[0]), result))
+                                failed[0] = true;
+                        }
+                    } catch (Exception e) {
+                        failed[0] = true;
+                    }
+                }
+            };
+            readers[i].start();
+        }
+
+        for (int i = 0; i < 2000; i++)
+            _region.write(0, 0, data(1000 + (i % 7) * 1000, i));
+
+        for (Thread reader : readers)
+            reader.join();
+
+        assertFalse(failed[0]);
+    }
+}
@@ -0,0 +1,111 @@
+package org.terasology.tests;
+
+
+import org.terasology.model.structures.TeraConcurrentLongMap;
+import org.terasology.utilities.MathHelper;
+
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class TeraConcurrentLongMapTest extends junit.framework.TestCase {
+
+    private final TeraConcurrentLongMap<String> _map = new TeraConcurrentLongMap<String>();
+
+    public void testPutGetRemove() throws Exception {
+        assertNull(_map.put(1, "a"));
+        assertEquals("a", _map.put(1, "b"));
+        assertEquals("b", _map.putIfAbsent(1, "c"));
+        assertNull(_map.putIfAbsent(2, "c"));
+
+        assertEquals("b", _map.get(1));
+        assertEquals("c", _map.get(2));
+        assertEquals(2, _map.size());
+
+        assertFalse(_map.remove(1, "c"));
+        assertTrue(_map.remove(1, "b"));
+        assertEquals("c", _map.remove(2));
+
+        assertNull(_map.get(1));
+        assertEquals(0, _map.size());
+    }
+
+    public void testDistantCoordinates() throws Exception {
+        // Cantor's pairing function overflows for coordinates this large
+        long a = MathHelper.packCoordinates(40000, 0);
+        long b = MathHelper.packCoordinates(-5, 40000);
+
+        _map.put(a, "a");
+        _map.put(b, "b");
+
+        assertEquals("a", _map.get(a));
+        assertEquals("b", _map.get(b));
+
+        assertEquals(-5, MathHelper.unpackX(b));
+        assertEquals(40000, MathHelper.unpackZ(b));
+        assertEquals(Integer.MIN_VALUE, MathHelper.unpackZ(MathHelper.packCoordinates(Integer.MAX_VALUE, Integer.MIN_VALUE)));
+    }
+
+    public void testAgainstHashMap() throws Exception {
+        HashMap<Long, String> reference = new HashMap<Long, String>();
+
+        for (int x = -50; x < 50; x++) {
+            for (int z = -50; z < 50; z++) {
+                long key = MathHelper.packCoordinates(x, z);
+
+                if ((x + z) % 3 == 0) {
+                    _map.put(key, x + "," + z);
+                    reference.put(key, x + "," + z);
+                }
+            }
+        }
+
+        for (int x = -50; x < 50; x += 2) {
+            for (int z = -50; z < 50; z++) {
+                long key = MathHelper.packCoordinates(x, z);
+                assertEquals(reference.remove(key), _map.remove(key));
+            }
+        }
+
+        assertEquals(reference.size(), _map.size());
+        assertEquals(reference.size(), _map.values().size());
+        assertEquals(reference.size(), _map.keys().length);
+
+        for (long key : _map.keys())
+            assertEquals(reference.get(key), _map.get(key));
+    }
+
+    public void testConcurrentAccess() throws Exception {
+        final AtomicBoolean failed = new AtomicBoolean();
+        final AtomicBoolean running = new AtomicBoolean(true);
+
+        // The even keys are never touched by the writer
+        for (int i = 0; i < 1000; i += 2)
+            _map.put(i, "fixed");
+
+        Thread reader = new Thread(new Runnable() {
+            public void run() {
+                while (running.get()) {
+                    for (int i = 0; i < 1000; i += 2) {
+                        if (!"fixed".equals(_map.get(i)))
+                            failed.set(true);
+                    }
+                }
+            }
+        });
+
+        reader.start();
+
+        for (int round = 0; round < 50; round++) {
+            for (int i = 1; i < 1000; i += 2)
+                _map.put(i, "temp");
+            for (int i = 1; i < 1000; i += 2)
+                _map.remove(i);
+        }
+
+        running.set(false);
+        reader.join();
+
+        assertFalse(failed.get());
+        assertEquals(500, _map.size());
+    }
+}
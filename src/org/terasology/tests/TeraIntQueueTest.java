@@ -0,0 +1,50 @@
+package org.terasology.tests;
+
+
+import org.terasology.model.structures.TeraIntQueue;
+
+import java.util.ArrayDeque;
+
+public class TeraIntQueueTest extends junit.framework.TestCase {
+
+    private final TeraIntQueue _queue = new TeraIntQueue(4);
+
+    public void testFifoOrder() throws Exception {
+        for (int i = 0; i < 3; i++)
+            _queue.add(i);
+
+        assertEquals(3, _queue.size());
+
+        for (int i = 0; i < 3; i++)
+            assertEquals(i, _queue.poll());
+
+        assertTrue(_queue.isEmpty());
+    }
+
+    public void testGrowWrapped() throws Exception {
+        ArrayDeque<Integer> reference = new ArrayDeque<Integer>();
+
+        // Move the head into the middle of the ring before it has to grow
+        for (int i = 0; i < 1000; i++) {
+            _queue.add(i);
+            reference.add(i);
+
+            if (i % 3 == 0)
+                assertEquals((int) reference.poll(), _queue.poll());
+        }
+
+        assertEquals(reference.size(), _queue.size());
+
+        while (!reference.isEmpty())
+            assertEquals((int) reference.poll(), _queue.poll());
+    }
+
+    public void testPollEmpty() throws Exception {
+        try {
+            _queue.poll();
+            fail();
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package org.terasology.tests;
+
+
+import org.terasology.model.structures.TeraNibbleArray;
+import org.terasology.model.structures.TeraSmartArray;
+import org.terasology.utilities.FastRandom;
+
+public class TeraNibbleArrayTest extends junit.framework.TestCase {
+
+    private final byte[][][] _testArray = new byte[16][128][16];
+    private final TeraNibbleArray _array = new TeraNibbleArray(16, 128, 16);
+
+    public void testNibbleBrothers() throws Exception {
+        _array.set(0, 0, 0, (byte) 15);
+        _array.set(0, 1, 0, (byte) 12);
+        assertEquals(15, _array.get(0, 0, 0));
+        assertEquals(12, _array.get(0, 1, 0));
+        assertEquals(0, _array.get(0, 2, 0));
+    }
+
+    public void testOutOfBounds() throws Exception {
+        assertEquals(-1, _array.get(0, 128, 0));
+        assertEquals(-1, _array.get(-1, 0, 0));
+    }
+
+    public void testColumns() throws Exception {
+        _array.fillColumn(3, 4, 5, 100, (byte) 7);
+
+        byte[] column = new byte[128];
+        _array.getColumn(3, 4, column, 0);
+
+        for (int y = 0; y < 128; y++) {
+            assertEquals(y >= 5 && y < 100 ? 7 : 0, column[y]);
+        }
+
+        assertEquals(0, _array.get(3, 5, 5));
+        assertEquals(0, _array.get(4, 5, 4));
+
+        column[0] = 9;
+        column[127] = 3;
+        _array.setColumn(3, 4, column, 0);
+        assertEquals(9, _array.get(3, 0, 4));
+        assertEquals(3, _array.get(3, 127, 4));
+        assertEquals(7, _array.get(3, 99, 4));
+    }
+
+    public void testLayers() throws Exception {
+        _array.fillLayer(17, (byte) 11);
+
+        byte[] layer = new byte[16 * 16];
+        _array.getLayer(17, layer, 0);
+
+        for (byte b : layer) {
+            assertEquals(11, b);
+        }
+
+        assertEquals(0, _array.get(0, 16, 0));
+        assertEquals(0, _array.get(0, 18, 0));
+    }
+
+    public void testAgainstArray() throws Exception {
+        FastRandom rand = new FastRandom();
+
+        for (int x = 0; x < 16; x++) {
+            for (int y = 0; y < 128; y++) {
+                for (int z = 0; z < 16; z++) {
+                    int r = rand.randomInt();
+                    r = (r < 0) ? -r : r;
+
+                    _testArray[x][y][z] = (byte) (r % 16);
+                    _array.set(x, y, z, _testArray[x][y][z]);
+                }
+            }
+        }
+
+        for (int x = 0; x < 16; x++) {
+            for (int y = 0; y < 128; y++) {
+                for (int z = 0; z < 16; z++) {
+                    assertEquals(_testArray[x][y][z], _array.get(x, y, z));
+                }
+            }
+        }
+    }
+
+    public void testSmartArrayMigration() throws Exception {
+        FastRandom rand = new FastRandom();
+        TeraSmartArray smartArray = new TeraSmartArray(16, 128, 16);
+
+        for (int x = 0; x < 16; x++) {
+            for (int y = 0; y < 128; y++) {
+                for (int z = 0; z < 16; z++) {
+                    int r = rand.randomInt();
+                    r = (r < 0) ? -r : r;
+
+                    smartArray.set(x, y, z, (byte) (r % 16));
+                }
+            }
+        }
+
+        byte[] packed = new byte[smartArray.sizePacked()];
+        for (int i = 0; i < packed.length; i++)
+            packed[i] = smartArray.getRawByte(i);
+
+        TeraNibbleArray migrated = TeraNibbleArray.fromSmartArrayLayout(16, 128, 16, packed);
+
+        for (int x = 0; x < 16; x++) {
+            for (int y = 0; y < 128; y++) {
+                for (int z = 0; z < 16; z++) {
+                    assertEquals(smartArray.get(x, y, z), migrated.get(x, y, z));
+                }
+            }
+        }
+    }
+}
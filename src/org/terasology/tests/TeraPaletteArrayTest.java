@@ -0,0 +1,64 @@
+package org.terasology.tests;
+
+
+import org.terasology.model.structures.TeraPaletteArray;
+import org.terasology.utilities.FastRandom;
+
+public class TeraPaletteArrayTest extends junit.framework.TestCase {
+
+    private final byte[][][] _testArray = new byte[16][256][16];
+    private final TeraPaletteArray _array = new TeraPaletteArray(16, 256, 16);
+
+    public void testEmpty() throws Exception {
+        assertEquals(0, _array.get(3, 200, 7));
+        assertEquals(1, _array.bitsPerEntry());
+    }
+
+    public void testUpgrade() throws Exception {
+        _array.set(0, 0, 0, (byte) 1);
+        assertEquals(1, _array.bitsPerEntry());
+        _array.set(0, 1, 0, (byte) 2);
+        assertEquals(2, _array.bitsPerEntry());
+        _array.set(0, 2, 0, (byte) 3);
+        _array.set(0, 3, 0, (byte) 4);
+        assertEquals(4, _array.bitsPerEntry());
+
+        assertEquals(1, _array.get(0, 0, 0));
+        assertEquals(2, _array.get(0, 1, 0));
+        assertEquals(3, _array.get(0, 2, 0));
+        assertEquals(4, _array.get(0, 3, 0));
+        assertEquals(0, _array.get(0, 4, 0));
+    }
+
+    public void testNegativeValues() throws Exception {
+        _array.set(15, 255, 15, (byte) -3);
+        assertEquals(-3, _array.get(15, 255, 15));
+        assertEquals(-3, _array.getRawByte(_array.size() - 1));
+    }
+
+    public void testAgainstArray() throws Exception {
+        FastRandom rand = new FastRandom();
+
+        for (int x = 0; x < 16; x++) {
+            for (int y = 0; y < 256; y++) {
+                for (int z = 0; z < 16; z++) {
+                    int r = rand.randomInt();
+                    r = (r < 0) ? -r : r;
+
+                    _testArray[x][y][z] = (byte) (r % 200);
+                    _array.set(x, y, z, _testArray[x][y][z]);
+                }
+            }
+        }
+
+        assertEquals(8, _array.bitsPerEntry());
+
+        for (int x = 0; x < 16; x++) {
+            for (int y = 0; y < 256; y++) {
+                for (int z = 0; z < 16; z++) {
+                    assertEquals(_testArray[x][y][z], _array.get(x, y, z));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package org.terasology.tests;
+
+
+import org.terasology.model.structures.TeraSlabAllocator;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+public class TeraSlabAllocatorTest extends junit.framework.TestCase {
+
+    private final TeraSlabAllocator _allocator = new TeraSlabAllocator(1 << 12);
+
+    public void testZeroed() throws Exception {
+        ByteBuffer buffer = _allocator.allocate(100).getBuffer();
+
+        assertEquals(128, buffer.capacity());
+        for (int i = 0; i < buffer.capacity(); i++)
+            assertEquals(0, buffer.get(i));
+    }
+
+    public void testUnreleasedSlicesAreNotReused() throws Exception {
+        TeraSlabAllocator.Slice slice = _allocator.allocate(64);
+        slice.getBuffer().put(0, (byte) 42);
+
+        ArrayList<TeraSlabAllocator.Slice> others = new ArrayList<TeraSlabAllocator.Slice>();
+        for (int i = 0; i < 256; i++) {
+            others.add(_allocator.allocate(64));
+            System.gc();
+        }
+
+        for (TeraSlabAllocator.Slice other : others)
+            other.getBuffer().put(0, (byte) 7);
+
+        assertEquals(42, slice.getBuffer().get(0));
+        assertEquals(0, _allocator.getLeakedSlices());
+    }
+
+    public void testReleasedSlicesAreReused() throws Exception {
+        ArrayList<TeraSlabAllocator.Slice> slices = new ArrayList<TeraSlabAllocator.Slice>();
+
+        for (int i = 0; i < 64; i++) {
+            TeraSlabAllocator.Slice slice = _allocator.allocate(1024);
+            slice.getBuffer().put(0, (byte) 42);
+            slices.add(slice);
+        }
+
+        long reserved = _allocator.getReservedBytes();
+
+        for (TeraSlabAllocator.Slice slice : slices)
+            _allocator.release(slice);
+
+        assertEquals(0, _allocator.getUsedBytes());
+
+        ByteBuffer buffer = _allocator.allocate(1024).getBuffer();
+        assertEquals(0, buffer.get(0));
+        assertEquals(reserved, _allocator.getReservedBytes());
+    }
+
+    public void testDoubleRelease() throws Exception {
+        TeraSlabAllocator.Slice slice = _allocator.allocate(64);
+        _allocator.release(slice);
+
+        try {
+            _allocator.release(slice);
+            fail();
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+    }
+
+    public void testLeakedSlicesAreDetected() throws Exception {
+        for (int i = 0; i < 64; i++)
+            _allocator.allocate(1024).getBuffer().put(0, (byte) 42);
+
+        long reserved = _allocator.getReservedBytes();
+
+        for (int i = 0; i < 10 && _allocator.getUsedBytes() > 0; i++)
+            System.gc();
+
+        assertEquals(0, _allocator.getUsedBytes());
+        assertEquals(64, _allocator.getLeakedSlices());
+
+        ByteBuffer buffer = _allocator.allocate(1024).getBuffer();
+        assertEquals(0, buffer.get(0));
+        assertEquals(reserved, _allocator.getReservedBytes());
+    }
+}
@@ -41,6 +41,15 @@ public class FastRandom {
     public FastRandom() {
     }
 
+    /**
+     * Resets the generator to the given seed.
+     *
+     * @param seed The seed to use
+     */
+    public void setSeed(long seed) {
+        _seed = seed;
+    }
+
     /**
      * Returns a random long value.
      *
@@ -121,6 +121,38 @@ public class MathHelper {
         return ((k1 + k2) * (k1 + k2 + 1) / 2) + k2;
     }
 
+    /**
+     * Packs 2D coordinates into a single value. Unlike Cantor's pairing function, the result
+     * is unique for all possible coordinates.
+     *
+     * @param x X-coordinate
+     * @param z Z-coordinate
+     * @return Unique 1D value
+     */
+    public static long packCoordinates(int x, int z) {
+        return ((long) x << 32) | (z & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Inverse function of "packCoordinates".
+     *
+     * @param c Packed value
+     * @return Value along the x-axis
+     */
+    public static int unpackX(long c) {
+        return (int) (c >> 32);
+    }
+
+    /**
+     * Inverse function of "packCoordinates".
+     *
+     * @param c Packed value
+     * @return Value along the z-axis
+     */
+    public static int unpackZ(long c) {
+        return (int) c;
+    }
+
     /**
      * Inverse function of Cantor's pairing function.
      *